@@ -58,15 +58,27 @@ public class App {
 
         Runtime.getRuntime().addShutdownHook(new Thread(App::stopApp, "Shutdown-thread"));
 
-        for (String s : args) {
-            if ("showui".equals(s)) isUI = true;
+        String replayPath = null; // Повтор спула: replay <каталог>.
+        for (int i = 0; i < args.length; i++) {
+            if ("showui".equals(args[i])) isUI = true;
+            if ("replay".equals(args[i]) && i + 1 < args.length) replayPath = args[++i];
         }
+        if (replayPath != null) isUI = false;
 
         try {
             initLog(); // Инициализация логгера.
 
             initModel(); // Настройка модели.
 
+            if (replayPath != null) {
+                try {
+                    model.replay(replayPath); // Повтор спула и выход.
+                } finally {
+                    model.close();
+                }
+                return;
+            }
+
             startApp(); // Старт приложения.
 
         } catch (Exception ex) {
@@ -95,6 +107,7 @@ public class App {
         logger.config("Создание модели...");
         try {
             model.init();
+            CM = model.replModel.createCopy();
 
         } catch (Exception ex) {
             logger.error("Ошибка создания модели!", ex);
@@ -102,7 +115,9 @@ public class App {
         }
     }
 
-    private static boolean isTerminated = false;
+    private static volatile boolean isTerminated = false;
+    /** Поток цикла репликации (закрывает модель при выходе из цикла). */
+    private static Thread replThread;
 
     private static boolean safeTermSleep(int time) {
         if (!CommonTools.safeInterruptedSleep(time)) {
@@ -125,20 +140,31 @@ public class App {
 
         if (isUI) out.cursorOff().attr(0).clear().at(1, 1);
 
-        new Thread(() -> {
+        model.start(); // Фоновые службы (применение спула).
+
+        replThread = new Thread(() -> {
             // Крутим цикл репликации.
             while (!isTerminated) {
                 try {
                     model.replicate();
                     if (model.replModel.curRowCount > 0) {
-                        logger.infof("Успешная репликация: время=%s, строк=%d",
+                        logger.infof("Успешная репликация: время=%s, строк=%d, соединения=%d мс, подготовка=%d мс, "
+                                        + "источник: транзакций=%d удержание=%d мс",
                                 formatHHMMSS(ChronoUnit.MILLIS.between(model.replModel.curStartTime, model.replModel.curEndTime)),
-                                model.replModel.curRowCount);
-                        for (TabInfo t : model.replModel.tabs) {
-                            if (t.count > 0) {
-                                logger.infof("  %s: время=%s строк=%d записано=%d", t.name,
-                                        formatHHMMSS(ChronoUnit.MILLIS.between(t.startTime, t.endTime)),
-                                        t.count, t.writed);
+                                model.replModel.curRowCount, model.replModel.curConnectMsec, model.replModel.curPrepareMsec,
+                                model.replModel.curSourceTx, model.replModel.curSourceMsec);
+                        for (int i = 0; i < model.replModel.tabs.length; i++) {
+                            TabInfo t = model.replModel.tabs[i];
+                            if (t.count > 0 && model.replModel.dueTabs.get(i)) {
+                                long ms = ChronoUnit.MILLIS.between(t.startTime, t.endTime);
+                                logger.infof("  %s: время=%s строк=%d записано=%d строк/сек=%d блокировка=%d мс%s%s",
+                                        t.name, formatHHMMSS(ms), t.count, t.writed,
+                                        ms > 0 ? t.count * 1000L / ms : t.count, t.lockMillis,
+                                        (t.isChunked() ? String.format(" порций=%d", t.chunks) : "")
+                                                + (t.isCached ? String.format(" кэш=%d/%d", t.cacheHits,
+                                                t.cacheHits + t.cacheMisses) : ""),
+                                        t.retries > 0 ? String.format(" повторов=%d (потеряно %d мс)", t.retries,
+                                                t.retryMillis) : "");
                             }
                         }
                     }
@@ -147,11 +173,17 @@ public class App {
                     logger.errorf(ex, "Ошибка репликации!");
                     //break;
                 }
-                // Пауза между репликациями.
-                if (safeTermSleep(model.replModel.delayTime)) break;
+                // Пауза между репликациями (или ожидание события БД).
+                try {
+                    model.replModel.setTrigger(model.awaitNextCycle());
+                } catch (InterruptedException ex) {
+                    break;
+                }
             }
+            model.close();
             isTerminated = true;
-        }).start();
+        }, "Replication-thread");
+        replThread.start();
 
         while (!isTerminated) {
             updateState();
@@ -174,7 +206,8 @@ public class App {
 
     private static final String delim111 = StringTools.fill('─', w - 20);
 
-    private static ServiceModel CM = new ServiceModel(0);
+    /** Снимок состояния для отображения (создаётся по каталогу таблиц после инициализации модели). */
+    private static ServiceModel CM;
 
     private static int bgtitle = 19, bgbase = 17;
 
@@ -188,6 +221,17 @@ public class App {
         return ChronoUnit.MILLIS.between(t1, t2);
     }
 
+    /** Процент выполнения таблицы (при неизвестном итоге - "?"). */
+    static String fmtPercent(TabInfo tab, int emptyPercent) {
+        if (tab.count < 0) return "  ?%";
+        return String.format("%3d%%", tab.count == 0 ? emptyPercent : tab.index * 100L / tab.count);
+    }
+
+    /** Итог записей таблицы (при неизвестном итоге - "?"). */
+    static String fmtCount(int count) {
+        return count < 0 ? "?" : String.valueOf(count);
+    }
+
     public static void updateState() {
         stateUpdateTime = LocalDateTime.now();
         model.replModel.copyTo(CM);
@@ -207,9 +251,8 @@ public class App {
                     s1 = String.format("%s, Завершение: %s", fmtDT86(CM.curStartTime), fmtDT86(CM.curEndTime));
                     s2 = String.format("%s", formatHHMMSS(millis(CM.curStartTime, CM.curEndTime)));
                 }
-                if (CM.curEndTime != null) {
-                    LocalDateTime enddelay = CM.curEndTime.plusNanos(CM.delayTime * 1000000L);
-                    long tm = millis(stateUpdateTime, enddelay);
+                if (CM.curEndTime != null && CM.nextCycleTime > 0) {
+                    long tm = Math.max(0, CM.nextCycleTime - System.currentTimeMillis());
                     h3 = h3 + "  (повтор через: " + formatHHMMSS(tm) + ")";
                 }
             }
@@ -238,25 +281,25 @@ public class App {
             out.color(c1).println(delimS).color(7, bgbase);
             for (int i = 0; i < CM.tabs.length; i++) {
                 TabInfo tab = CM.tabs[i];
-                if (CM.curTab == i) {
-                    long percent = tab.count == 0 ? 0 : tab.index * 100L / tab.count;
+                if (CM.curTabs.get(i)) {
+                    String percent = fmtPercent(tab, 0);
                     out.bold().color(11, 20).print(w, " ▶ ");
                     out.color(15).print("Таблица: %s (обработка)", tab.name);
-                    out.atX(w - 7 - 6 - 28).print("%27s", String.format("[%d/%d:%d]", tab.index, tab.count, tab.writed));
-                    out.atX(w - 7 - 6).print("%3d%%", percent);
+                    out.atX(w - 7 - 6 - 28).print("%27s", String.format("[%d/%s:%d]", tab.index, fmtCount(tab.count), tab.writed));
+                    out.atX(w - 7 - 6).print("%s", percent);
                     out.atX(w - 7).print("%s", formatHHMMSS(millis(tab.startTime, stateUpdateTime)));
                     out.boldOff();
                 } else {
                     if (tab.startTime != null) { // ○◉□▣
-                        long percent = tab.count == 0 ? 100 : tab.index * 100L / tab.count;
+                        String percent = fmtPercent(tab, 100);
                         if (tab.isError()) {
                             out.color(1, bgbase).print(w, " ▣ ");
                         } else {
                             out.color(10, bgbase).print(w, " ▣ ");
                         }
                         out.color(7).print("Таблица: %s", tab.name);
-                        out.atX(w - 7 - 6 - 28).print("%27s", String.format("[%d/%d:%d]", tab.index, tab.count, tab.writed));
-                        out.atX(w - 7 - 6).print("%3d%%", percent);
+                        out.atX(w - 7 - 6 - 28).print("%27s", String.format("[%d/%s:%d]", tab.index, fmtCount(tab.count), tab.writed));
+                        out.atX(w - 7 - 6).print("%s", percent);
                         out.atX(w - 7).print("%s", formatHHMMSS(millis(tab.startTime, tab.endTime)));
                     } else {
                         out.color(21, bgbase).print(w, " □ ").color(7).print("Таблица: %s", tab.name);
@@ -289,25 +332,82 @@ public class App {
                 b.println(CM.isReplication ? " Текущая репликация" : " Последняя репликация");
                 b.println("   Начало: %s", s1);
                 b.println("   Длительность: %s", s2);
+                if (CM.curTrigger != null) b.println("   Запуск: %s", CM.curTrigger);
+                if (CM.isCatchup) b.println("   Догоняющий режим (профиль высокой пропускной способности)");
+                b.println("   Соединения: %d мс, подготовка запросов: %d мс", CM.curConnectMsec, CM.curPrepareMsec);
+                b.println("   Транзакции источника: %d, макс. удержание %d мс", CM.curSourceTx, CM.curSourceMsec);
+                if (CM.curLatency != null && !CM.curLatency.isEmpty()) {
+                    b.println("   Задержки (p50/p99/p999, кол-во): %s", CM.curLatency);
+                }
+                Spool spool = model.getSpool();
+                if (spool != null) {
+                    b.println("   Спул: к применению %d (%d КБ%s), применено %d (строк %d)%s", spool.pending(),
+                            spool.bytes() / 1024, spool.isFull() ? ", заполнен" : "", spool.appliedSegments(),
+                            spool.appliedRows(), spool.appliedTime() > 0 ? ", последнее " + formatHHMMSS(
+                                    System.currentTimeMillis() - spool.appliedTime()) + " назад" : "");
+                    if (spool.error() != null) b.println("   Спул: ошибка применения: %s", spool.error());
+                }
+                for (DestInfo d : CM.dests) {
+                    b.println("   Приёмник %s (%s): строк %d, фиксаций %d, ошибок %d%s", d.name, d.policy, d.rows,
+                            d.commits, d.errors, "spool".equals(d.policy) ? String.format(", к применению %d (%d КБ)",
+                                    d.spoolPending, d.spoolBytes / 1024) : "");
+                    if (d.isError()) b.println("   Приёмник %s: ошибка: %s", d.name, d.msgError());
+                }
                 b.println("--------------------------------------------------------------------------------");
                 for (int i = 0; i < CM.tabs.length; i++) {
                     TabInfo tab = CM.tabs[i];
-                    if (CM.curTab == i) {
-                        long percent = tab.count == 0 ? 0 : tab.index * 100L / tab.count;
-                        b.println("[>] Таблица: %-20s %32s %3d%% %s",
-                                tab.name, String.format("[%d/%d]", tab.index, tab.count), percent,
+                    if (CM.curTabs.get(i)) {
+                        String percent = fmtPercent(tab, 0);
+                        b.println("[>] Таблица: %-20s %32s %s %s",
+                                tab.name, String.format("[%d/%s]", tab.index, fmtCount(tab.count)), percent,
                                 formatHHMMSS(millis(tab.startTime, stateUpdateTime)));
                     } else {
                         if (tab.startTime != null) { // ○◉□▣
-                            long percent = tab.count == 0 ? 100 : tab.index * 100L / tab.count;
-                            b.println("[%s] Таблица: %-20s %32s %3d%% %s",
+                            String percent = fmtPercent(tab, 100);
+                            b.println("[%s] Таблица: %-20s %32s %s %s",
                                     tab.isError() ? "E" : "+",
-                                    tab.name, String.format("[%d/%d:%d]", tab.index, tab.count, tab.writed), percent,
+                                    tab.name, String.format("[%d/%s:%d]", tab.index, fmtCount(tab.count), tab.writed), percent,
                                     formatHHMMSS(millis(tab.startTime, tab.endTime)));
                         } else {
                             b.println("[ ] Таблица: %s", tab.name);
                         }
                     }
+                    if (tab.isPaused) {
+                        b.println("      приостановлена (репликация только по запросу)");
+                    } else if (tab.maxInterval > tab.minInterval || !CM.dueTabs.get(i)) {
+                        b.println("      интервал %s, следующая через %s", formatHHMMSS(tab.interval),
+                                formatHHMMSS(Math.max(0, tab.nextTime - System.currentTimeMillis())));
+                    }
+                    if (tab.isChunked() && tab.startTime != null) {
+                        b.println("      порций %d, макс. блокировка приёмника %d мс", tab.chunks, tab.lockMillis);
+                    }
+                    if (tab.isCached && tab.startTime != null) {
+                        b.println("      кэш строк: пропущено %d, записано %d", tab.cacheHits, tab.cacheMisses);
+                    }
+                    if (tab.retries > 0) {
+                        b.println("      конфликты блокировок: повторов %d, потеряно %d мс", tab.retries, tab.retryMillis);
+                    }
+                    String latency = tab.latency.format();
+                    if (!latency.isEmpty()) b.println("      задержки с запуска: %s", latency);
+                    if (tab.keyColumn != null) {
+                        b.println("      контрольная точка %s=%s%s", tab.keyColumn,
+                                tab.checkpointKey == Long.MIN_VALUE ? "-" : String.valueOf(tab.checkpointKey),
+                                tab.resumed > 0 ? String.format(", пропущено %d (уже записаны)", tab.resumed) : "");
+                    }
+                    for (int k = 0; k < tab.shardIndex.length; k++) {
+                        b.println("      шард %-2d %55s", k, String.format("[%d] очередь %d", tab.shardIndex[k],
+                                tab.shardQueue[k]));
+                    }
+                    if (tab.destIndex.length > 0 && tab.startTime != null) {
+                        StringBuilder sb = new StringBuilder();
+                        for (int d = 0; d < tab.destIndex.length; d++) {
+                            sb.append(d == 0 ? "" : ", ").append(CM.dests[d].name).append(' ').append(tab.destIndex[d]);
+                        }
+                        b.println("      приёмники: %s", sb);
+                    }
+                    for (int p = 0; p < tab.partIndex.length; p++) {
+                        b.println("      часть %-2d %55s", p + 1, String.format("[%d:%d]", tab.partIndex[p], tab.partWrited[p]));
+                    }
                 }
                 b.println("--------------------------------------------------------------------------------");
                 if (CM.errMessage != null) b.println(" Ошибка : %s", CM.errMessage);
@@ -324,6 +424,17 @@ public class App {
     }
 
     private static void stopApp() {
+        // Остановка цикла репликации и ожидание закрытия модели (соединений, кэшей, спула, служб).
+        isTerminated = true;
+        Thread t = replThread;
+        if (t != null && t.isAlive()) {
+            t.interrupt();
+            try {
+                t.join(30000);
+            } catch (InterruptedException ignore) {
+            }
+            if (t.isAlive()) logger.warningf("Цикл репликации не завершился за 30 сек, ресурсы модели не закрыты!");
+        }
         if (isUI) out.reset().color(7, 0).clear().cursorOn();
         logger.infof("Приложение завершено!");
     }
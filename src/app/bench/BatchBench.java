@@ -0,0 +1,98 @@
+package app.bench;
+
+import app.model.AppModel;
+import app.model.BatchImporter;
+import app.model.RowSlot;
+import app.model.TabInfo;
+import app.model.TransferPlan;
+import fbdbengine.FB_Connection;
+import fbdbengine.FB_Query;
+import fbdbengine.FB_TxProfile;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+
+/**
+ * Замер пропускной способности записи в БД-приёмник для разных размеров пакета. Запускается отдельно от сервиса:
+ * <pre>
+ * java -cp WebReplicator.jar app.bench.BatchBench TRANS 1,10,50,100,200 [повторов]
+ * </pre>
+ * Строки таблицы один раз выгружаются из БД-источника в память (транзакция источника откатывается), затем для каждого
+ * размера пакета записываются в БД-приёмник и транзакция приёмника откатывается. Данные в БД не изменяются.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class BatchBench {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Использование: BatchBench <таблица> [размеры пакетов через запятую] [повторов]");
+            return;
+        }
+        String tab = args[0].toUpperCase();
+        String[] sizes = (args.length > 1 ? args[1] : "1,10,50,100,200").split(",");
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        AppModel model = new AppModel();
+        model.init();
+        TabInfo info = null;
+        for (TabInfo t : model.replModel.tabs) if (t.name.equals(tab)) info = t;
+        if (info == null) {
+            System.out.printf("Таблица %s не найдена в каталоге!%n", tab);
+            return;
+        }
+
+        // Выгрузка строк в память. Транзакция источника держится до конца замера (метаданные запроса нужны для плана
+        // переноса) и откатывается.
+        FB_Connection conSrc = model.getSrcDatabase().connect();
+        try {
+            conSrc.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            FB_Query q = conSrc.execute("SELECT * FROM " + info.exportProc);
+            ResultSetMetaData meta = q.getMetaData();
+            int n = meta.getColumnCount();
+            ArrayList<RowSlot> rows = new ArrayList<>();
+            FB_Connection conDst = model.getDstDatabase().connect();
+            try (BatchImporter imp = new BatchImporter(conDst, info.importProc, meta, 1)) {
+                TransferPlan plan = imp.plan();
+                System.out.printf("%s: план переноса %s%n", tab, plan);
+                while (q.next()) {
+                    RowSlot slot = plan.newSlot();
+                    plan.read(q.rs(), slot);
+                    rows.add(slot);
+                }
+            } finally {
+                conDst.closeSafe(false);
+            }
+            System.out.printf("%s: строк=%d, полей=%d%n", tab, rows.size(), n);
+            if (rows.isEmpty()) return;
+
+            System.out.printf("%8s %8s %10s %12s %10s%n", "пакет", "факт.", "мсек", "строк/сек", "IBUPDATE");
+            for (String s : sizes) {
+                int size = Integer.parseInt(s.trim());
+                long best = Long.MAX_VALUE;
+                int upd = 0, fact = 0;
+                for (int r = 0; r < repeats; r++) {
+                    conDst = model.getDstDatabase().connect();
+                    try {
+                        conDst.setTransactionProfile(FB_TxProfile.CONCURRENCY, 0);
+                        try (BatchImporter imp = new BatchImporter(conDst, info.importProc, meta, size)) {
+                            fact = imp.getBatchSize();
+                            upd = 0;
+                            long t = System.nanoTime();
+                            for (RowSlot row : rows) if (imp.add(row)) upd += imp.updated();
+                            if (imp.flush()) upd += imp.updated();
+                            best = Math.min(best, System.nanoTime() - t);
+                        }
+                    } finally {
+                        conDst.closeSafe(false); // Откат записанного.
+                    }
+                }
+                double ms = best / 1e6;
+                System.out.printf("%8d %8d %10.1f %12.0f %10d%n", size, fact, ms, rows.size() * 1000.0 / ms, upd);
+            }
+        } finally {
+            conSrc.closeSafe(false);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package app.bench;
+
+import app.model.AppModel;
+import app.model.BatchImporter;
+import app.model.RowSlot;
+import app.model.TabInfo;
+import app.model.TransferPlan;
+import fbdbengine.FB_Connection;
+import fbdbengine.FB_Query;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Замер выделения памяти и времени на перенос строки: прежний способ (FB_Query.get в Object[] и установка параметров
+ * через setParameters/setObject) против типизированного плана переноса (TransferPlan). Запускается отдельно от
+ * сервиса:
+ * <pre>
+ * java -cp WebReplicator.jar app.bench.CodecBench TRANS [повторов]
+ * </pre>
+ * Строки выбираются из БД-источника и устанавливаются параметрами процедуры приёмника без выполнения. Транзакции обеих
+ * БД откатываются, данные в БД не изменяются. Выделение памяти - по счётчику потока (ThreadMXBean), включая выделения
+ * драйвера при выборке (одинаковые для обоих способов).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class CodecBench {
+
+    private static final com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long allocated() {
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Использование: CodecBench <таблица> [повторов]");
+            return;
+        }
+        String tab = args[0].toUpperCase();
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        AppModel model = new AppModel();
+        model.init();
+        TabInfo info = null;
+        for (TabInfo t : model.replModel.tabs) if (t.name.equals(tab)) info = t;
+        if (info == null) {
+            System.out.printf("Таблица %s не найдена в каталоге!%n", tab);
+            return;
+        }
+
+        FB_Connection conSrc = model.getSrcDatabase().connect();
+        FB_Connection conDst = model.getDstDatabase().connect();
+        try {
+            conSrc.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            FB_Query q = conSrc.query("SELECT * FROM " + info.exportProc);
+            q.execute();
+            int n = q.getMetaData().getColumnCount();
+            FB_Query qDst = conDst.query("EXECUTE PROCEDURE " + info.importProc + " (" + FB_Query.buildProcParamsSQL(n) + ")");
+            TransferPlan plan;
+            try (BatchImporter imp = new BatchImporter(conDst, info.importProc, q.getMetaData(), 1)) {
+                plan = imp.plan();
+            }
+            System.out.printf("%s: полей=%d, план переноса %s%n", tab, n, plan);
+            System.out.printf("%10s %8s %10s %12s%n", "способ", "строк", "мсек", "байт/строку");
+
+            for (int r = 0; r < repeats; r++) {
+                // Прежний способ. Выгрузка отмечает строки - каждый проход в новой транзакции источника.
+                conSrc.rollback();
+                q.execute();
+                Object[] vals = new Object[n];
+                long a0 = allocated(), t0 = System.nanoTime();
+                int rows = 0;
+                while (q.get(vals)) {
+                    qDst.setParameters(vals);
+                    rows++;
+                }
+                report("object", rows, System.nanoTime() - t0, allocated() - a0);
+
+                // План переноса.
+                conSrc.rollback();
+                q.execute();
+                ResultSet rs = q.rs();
+                PreparedStatement ps = qDst.prepare().ps();
+                RowSlot slot = plan.newSlot();
+                a0 = allocated();
+                t0 = System.nanoTime();
+                rows = 0;
+                while (rs.next()) {
+                    plan.read(rs, slot);
+                    plan.bind(ps, 0, slot);
+                    rows++;
+                }
+                report("plan", rows, System.nanoTime() - t0, allocated() - a0);
+            }
+            qDst.closeSafe();
+            q.closeSafe();
+        } finally {
+            conDst.closeSafe(false);
+            conSrc.closeSafe(false);
+        }
+    }
+
+    private static void report(String name, int rows, long nanos, long bytes) {
+        System.out.printf("%10s %8d %10.1f %12.1f%n", name, rows, nanos / 1e6, rows == 0 ? 0.0 : (double) bytes / rows);
+    }
+}
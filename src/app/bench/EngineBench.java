@@ -0,0 +1,73 @@
+package app.bench;
+
+import app.model.AppModel;
+import app.model.MemorySink;
+import app.model.MemorySource;
+import app.model.TabInfo;
+
+/**
+ * Замер пропускной способности движка репликации без рабочих БД: источник и приёмник заменяются реализациями в памяти
+ * (MemorySource, MemorySink) с заданными задержками. Режимы репликации, каталог таблиц, пакеты, порции, конвейер и
+ * т.п. - по конфигурации app.config. Запускается отдельно от сервиса:
+ * <pre>
+ * java -cp WebReplicator.jar app.bench.EngineBench [строк на таблицу] [циклов] [выборка мкс] [пакет мкс] [конфликт]
+ *                                                 [доп. приёмников]
+ * </pre>
+ * Задержка выборки - на каждую порцию fetch строк источника, задержка пакета - на каждый пакет записи в приёмник,
+ * конфликт - конфликт блокировок на каждом N-м пакете (0 - без конфликтов), доп. приёмники - размножение репликации на
+ * приёмники в памяти (политика block) с той же задержкой пакета.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class EngineBench {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long fetchLatency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        long batchLatency = args.length > 3 ? Long.parseLong(args[3]) : 500;
+        int conflictEvery = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int extra = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        AppModel model = new AppModel();
+        model.init();
+        MemorySource source = new MemorySource(1000, fetchLatency, 200, 2000);
+        for (TabInfo tab : model.replModel.tabs) source.table(tab.name, rows, MemorySource.transactions(40));
+        MemorySink sink = new MemorySink(1000, batchLatency, 2000, conflictEvery);
+        MemorySink[] dests = new MemorySink[extra];
+        for (int i = 0; i < extra; i++) {
+            dests[i] = new MemorySink(1000, batchLatency, 2000, 0);
+            model.addDestination("mem" + (i + 1), dests[i]);
+        }
+        model.setEndpoints(source, sink);
+        model.start();
+
+        System.out.printf("Таблиц %d, строк на таблицу %d, выборка %d мкс, пакет %d мкс, конфликт каждые %d, " +
+                "доп. приёмников %d%n", model.replModel.tabs.length, rows, fetchLatency, batchLatency, conflictEvery, extra);
+        System.out.printf("%6s %10s %12s %12s %10s%n", "цикл", "мсек", "строк", "строк/сек", "фиксаций");
+        try {
+            for (int c = 1; c <= cycles; c++) {
+                long committed = sink.committedRows(), commits = sink.commits();
+                model.requestAll();
+                long t = System.nanoTime();
+                try {
+                    model.replicate();
+                } catch (Exception ex) {
+                    System.out.printf("Ошибка цикла %d: %s%n", c, ex.getMessage());
+                }
+                long ms = Math.max(1, (System.nanoTime() - t) / 1000000);
+                long n = sink.committedRows() - committed;
+                System.out.printf("%6d %10d %12d %12d %10d%n", c, ms, n, n * 1000 / ms, sink.commits() - commits);
+            }
+            System.out.printf("Выдано строк %d, зафиксировано %d, пакетов %d, конфликтов %d%n",
+                    source.exported(), sink.committedRows(), sink.batches(), sink.conflicts());
+            for (int i = 0; i < extra; i++) {
+                System.out.printf("Приёмник mem%d: зафиксировано %d, фиксаций %d%n", i + 1, dests[i].committedRows(),
+                        dests[i].commits());
+            }
+            System.out.printf("Задержки последнего цикла (p50/p99/p999, кол-во): %s%n", model.replModel.curLatency);
+        } finally {
+            model.close();
+        }
+    }
+}
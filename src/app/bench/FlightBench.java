@@ -0,0 +1,117 @@
+package app.bench;
+
+import app.model.AppModel;
+import app.model.FlightEvents;
+import app.model.MemorySink;
+import app.model.MemorySource;
+import app.model.TabInfo;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Замер накладных расходов событий JFR репликации (FlightEvents): циклы движка с источником и приёмником в памяти (как
+ * EngineBench) идут под записью JFR с настройками default, события репликации поочерёдно выключены и включены (с
+ * порогами по умолчанию). Разница времени циклов - стоимость событий. Запускается отдельно от сервиса:
+ * <pre>
+ * java -cp WebReplicator.jar app.bench.FlightBench [строк на таблицу] [пар циклов] [выборка мкс] [пакет мкс]
+ * </pre>
+ * Разница времени циклов сопоставима с их разбросом, поэтому дополнительно замеряется стоимость события пакета (при
+ * записи JFR она есть и у выключенного события) и по кол-ву пакетов оценивается её доля во времени цикла сверху. Без
+ * задержек (0 0) - худший случай: события сравниваются только с обработкой строк в памяти, при построчной записи -
+ * событие на каждую строку; у реального приёмника запись пакета - обращение к серверу (десятки мкс и больше).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class FlightBench {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long fetchLatency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        long batchLatency = args.length > 3 ? Long.parseLong(args[3]) : 500;
+
+        AppModel model = new AppModel();
+        model.init();
+        MemorySource source = new MemorySource(1000, fetchLatency, 200, 2000);
+        for (TabInfo tab : model.replModel.tabs) source.table(tab.name, rows, MemorySource.transactions(40));
+        MemorySink sink = new MemorySink(1000, batchLatency, 2000, 0);
+        model.setEndpoints(source, sink);
+        model.start();
+
+        System.out.printf("Таблиц %d, строк на таблицу %d, выборка %d мкс, пакет %d мкс, пар циклов %d%n",
+                model.replModel.tabs.length, rows, fetchLatency, batchLatency, rounds);
+        Path file = Files.createTempFile("wr-flight", ".jfr");
+        try (Recording rec = new Recording(Configuration.getConfiguration("default"))) {
+            rec.start();
+            for (int c = 0; c < 6; c++) { // Прогрев (с событиями и без).
+                events(rec, c % 2 == 0);
+                cycle(model);
+            }
+            long off = 0, on = 0, batches = sink.batches();
+            double[] diff = new double[rounds];
+            System.out.printf("%6s %12s %12s %8s%n", "пара", "без, мкс", "с, мкс", "%");
+            for (int r = 0; r < rounds; r++) { // Поочерёдно, чтобы дрейф производительности делился поровну.
+                boolean first = r % 2 == 0;
+                events(rec, first);
+                long a = cycle(model);
+                events(rec, !first);
+                long b = cycle(model);
+                long tOff = first ? b : a, tOn = first ? a : b;
+                off += tOff;
+                on += tOn;
+                diff[r] = (tOn - tOff) * 100.0 / tOff;
+                System.out.printf("%6d %12d %12d %8.2f%n", r + 1, tOff / 1000, tOn / 1000, diff[r]);
+            }
+            batches = (sink.batches() - batches) / (2L * rounds);
+            // Стоимость события пакета при включённых событиях (лучшая из замеров - без помех потоков репликации).
+            double cost = Double.MAX_VALUE;
+            for (int i = 0; i < 5; i++) cost = Math.min(cost, FlightEvents.batchCost(2000000));
+            rec.stop();
+            rec.dump(file);
+            // Разброс пар (межквартильный) - шум замера: разница в его пределах от событий не отличима.
+            Arrays.sort(diff);
+            System.out.printf("Без событий %d мкс, с событиями %d мкс: накладные расходы по сумме %.2f%%, " +
+                            "медиана пар %.2f%% (квартили %.2f%% .. %.2f%%)%n", off / 1000, on / 1000,
+                    (on - off) * 100.0 / off, diff[rounds / 2], diff[rounds / 4], diff[rounds * 3 / 4]);
+            // Оценка сверху: все события пакетов цикла - последовательно, в одном потоке (события циклов, таблиц и
+            // фиксаций - единицы на цикл).
+            System.out.printf("Событие пакета %.1f нс, пакетов за цикл %d: не больше %.2f%% времени цикла%n", cost,
+                    batches, batches * cost * 100.0 / (off / (double) rounds));
+        } finally {
+            model.close();
+        }
+
+        TreeMap<String, Integer> counts = new TreeMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            String name = e.getEventType().getName();
+            if (name.startsWith("webreplicator.")) counts.merge(name, 1, Integer::sum);
+        }
+        System.out.printf("Записано событий: %s%n", counts);
+        Files.delete(file);
+    }
+
+    private static void events(Recording rec, boolean enabled) {
+        for (String name : FlightEvents.NAMES) {
+            if (enabled) {
+                rec.enable(name);
+            } else {
+                rec.disable(name);
+            }
+        }
+    }
+
+    /** Цикл репликации всех таблиц, нсек. */
+    private static long cycle(AppModel model) throws Exception {
+        model.requestAll();
+        long t = System.nanoTime();
+        model.replicate();
+        return System.nanoTime() - t;
+    }
+}
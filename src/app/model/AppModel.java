@@ -2,15 +2,22 @@ package app.model;
 
 import app.ExError;
 import fbdbengine.FB_Connection;
+import fbdbengine.FB_ConnectionManager;
 import fbdbengine.FB_CustomException;
 import fbdbengine.FB_Database;
-import fbdbengine.FB_Query;
+import fbdbengine.FB_TxProfile;
 import org.firebirdsql.jdbc.FBSQLException;
+import util.SpscRing;
 import xconfig.XConfig;
 
 import java.io.File;
-import java.sql.Connection;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static app.App.isUI;
 import static app.App.logger;
@@ -23,22 +30,99 @@ import static app.App.logger;
 public class AppModel {
 
     private FB_Database dbCenter, dbWeb;
+    /** Менеджеры долгоживущих соединений к БД. */
+    private FB_ConnectionManager cmCenter, cmWeb;
+    /** Источник и приёмник репликации (по умолчанию - БД ФБ). */
+    private ReplicationSource source;
+    private ReplicationSink sink;
 
     public AppModel() {
     }
 
-    public int redrawInterval;
+    /** Период обновления экрана (файла состояния), мсек (меняется догоняющим режимом, читается потоком UI). */
+    public volatile int redrawInterval;
+    /** Ёмкость буфера конвейерной передачи строк (0 - без конвейера). */
+    public int pipelineSize;
     public String statePath;
     public ServiceModel replModel;
+    /**
+     * Режим согласованности: true - все таблицы в одной паре соединений и одной транзакции (единый снапшот источника,
+     * одна фиксация в конце), false - каждая таблица в своей паре соединений и транзакции, независимые таблицы
+     * параллельно.
+     */
+    public boolean isGlobalSnapshot;
+    /**
+     * Кол-во потоков параллельной репликации таблиц (для режима isGlobalSnapshot=false, меняется догоняющим режимом).
+     */
+    public volatile int tableThreads;
+    /** Время простоя соединения до закрытия (мсек), 0 - соединения открываются на каждую репликацию. */
+    public int idleTimeout;
+    /** Ожидание блокировок (сек): 0 - без ожидания (конфликт сразу), меньше 0 - без ограничения. */
+    public int lockTimeout;
+    /** Запуск репликации по событиям БД-источника (null - только по паузе). */
+    public ReplicationTrigger trigger;
+    /** Адаптивное расписание таблиц (интервал растёт при отсутствии изменений). */
+    public boolean isAdaptive;
+    /** Каталог кэшей строк таблиц (пусто - кэши не используются). */
+    public String rowCachePath;
+    /** Контрольные точки таблиц (null - не ведутся). */
+    private CheckpointStore checkpoints;
+    /** Спул между выгрузкой и загрузкой (null - прямая репликация) и поток его применения. */
+    private Spool spool;
+    private SpoolApplier applier;
+    /** Догоняющий режим (null - не используется). */
+    private CatchupMode catchup;
+    /** Учёт задержек по циклам. */
+    private LatencyMonitor latency;
+    /** HTTP-точка метрик (null - не используется). */
+    private MetricsServer metrics;
+    /** Управление через JMX (null - не используется). */
+    private JmxControl jmx;
+    /** Дополнительные приёмники (размножение репликации). */
+    private Destination[] dests = new Destination[0];
+    /** Размер сегмента спулов (байт). */
+    private int spoolSegmentSize;
+    /** Таблицы, принудительно включаемые в следующую репликацию (по событиям БД). */
+    private final BitSet forcedTabs = new BitSet();
+
+    /** Режим получения кол-ва записей для репликации. */
+    public enum CountMode {
+        /** Отдельный вызов WR_EXPORT_[TAB]_COUNT перед выгрузкой каждой таблицы. */
+        EXACT,
+        /** Без предварительного подсчёта: кол-во неизвестно до окончания выгрузки, пустоту определяет первая выборка. */
+        NONE,
+        /** Кол-во по всем таблицам одним запросом в начале репликации. */
+        COMBINED
+    }
+
+    public CountMode countMode;
+
+    /** Профиль транзакций БД-источника. */
+    public enum SourceProfile {
+        /** Снапшот (CONCURRENCY) на всю репликацию: согласованная выгрузка всех таблиц, но удерживает сборку мусора. */
+        SNAPSHOT,
+        /** READ COMMITTED на всю репликацию: снапшот не удерживается, таблицы видят данные на момент своей выгрузки. */
+        READ_COMMITTED,
+        /** Короткий снапшот на каждую таблицу: источник и приёмник фиксируются после каждой таблицы. */
+        TABLE
+    }
+
+    public SourceProfile sourceProfile;
+    private TableScheduler scheduler;
 
     public void init() throws ExError {
-        int delay;
+        XConfig cfg = null;
+        int delay, batch, debounce, retries, backoff;
+        String events, checkpoint, spoolPath, spoolArchive, metricsHost;
+        boolean isJmx;
+        int spoolLimit, spoolSegment, latencyLog, metricsPort;
+        long idle;
         String src_base, src_user, src_password;
         String dst_base, dst_user, dst_password;
 
         logger.infof("Загрузка конфигурации...");
         try {
-            XConfig cfg = new XConfig();
+            cfg = new XConfig();
             cfg.load("app.config");
 
             src_base = cfg.getKey("db-src.host", "192.168.1.6") + ":" + cfg.getKey("db-src.alias", "Center");
@@ -50,6 +134,30 @@ public class AppModel {
             dst_password = cfg.getKey("db-dst.password", "xxxxxxxx");
 
             delay = cfg.getIntKey("replicator.delay", 30000);
+            batch = cfg.getIntKey("replicator.batch", 1);
+            pipelineSize = cfg.getIntKey("replicator.pipeline", 0);
+            isGlobalSnapshot = !"table".equals(cfg.getKey("replicator.consistency", "global"));
+            tableThreads = cfg.getIntKey("replicator.threads", 4);
+            countMode = CountMode.valueOf(cfg.getKey("replicator.count", "exact").toUpperCase());
+            sourceProfile = SourceProfile.valueOf(
+                    cfg.getKey("replicator.source", "snapshot").trim().toUpperCase().replace('-', '_'));
+            idleTimeout = cfg.getIntKey("replicator.idle", 0);
+            lockTimeout = cfg.getIntKey("replicator.lock.timeout", 0);
+            retries = Math.max(0, cfg.getIntKey("replicator.lock.retries", 0));
+            backoff = Math.max(1, cfg.getIntKey("replicator.lock.backoff", 200));
+            events = cfg.getKey("replicator.trigger.events", "").trim();
+            debounce = cfg.getIntKey("replicator.trigger.debounce", 200);
+            isAdaptive = "true".equals(cfg.getKey("replicator.adaptive", "false"));
+            checkpoint = cfg.getKey("replicator.checkpoint", "").trim();
+            rowCachePath = cfg.getKey("replicator.rowcache", "").trim();
+            spoolPath = cfg.getKey("replicator.spool.path", "").trim();
+            spoolArchive = cfg.getKey("replicator.spool.archive", "").trim();
+            spoolLimit = Math.max(0, cfg.getIntKey("replicator.spool.limit", 1024));
+            spoolSegment = Math.max(1, cfg.getIntKey("replicator.spool.segment", 16));
+            latencyLog = Math.max(0, cfg.getIntKey("replicator.latency", 600000));
+            metricsHost = cfg.getKey("metrics.host", "").trim();
+            metricsPort = Math.max(0, cfg.getIntKey("metrics.port", 0));
+            isJmx = "true".equals(cfg.getKey("replicator.jmx", "false"));
 
             if (isUI) {
                 redrawInterval = cfg.getIntKey("ui.redraw", 250);
@@ -66,6 +174,30 @@ public class AppModel {
             dst_user = "REPLICATOR";
             dst_password = "xxxxxxxx";
             delay = 30000;
+            batch = 1;
+            pipelineSize = 0;
+            isGlobalSnapshot = true;
+            tableThreads = 1;
+            countMode = CountMode.EXACT;
+            sourceProfile = SourceProfile.SNAPSHOT;
+            idleTimeout = 0;
+            lockTimeout = 0;
+            retries = 0;
+            backoff = 200;
+            events = "";
+            debounce = 200;
+            isAdaptive = false;
+            checkpoint = "";
+            rowCachePath = "";
+            spoolPath = "";
+            spoolArchive = "";
+            spoolLimit = 1024;
+            spoolSegment = 16;
+            latencyLog = 600000;
+            metricsHost = "";
+            metricsPort = 0;
+            isJmx = false;
+            cfg = null;
             redrawInterval = isUI ? 250 : 5000;
             statePath = "./state";
 
@@ -76,35 +208,220 @@ public class AppModel {
         try {
             dbCenter = new FB_Database(false, src_base, src_user, src_password, "UTF-8", false);
             dbWeb = new FB_Database(false, dst_base, dst_user, dst_password, "UTF-8", false);
+            // Между репликациями соединения должны переживать паузу (с запасом).
+            idle = idleTimeout <= 0 ? 0 : Math.max(idleTimeout, delay * 2L);
+            cmCenter = new FB_ConnectionManager(dbCenter, this::initConnection, idle);
+            cmWeb = new FB_ConnectionManager(dbWeb, this::initConnection, idle);
+            source = new FirebirdSource(this, dbCenter);
+            sink = new FirebirdSink(this, cmWeb, "Web");
         } catch (Exception ex) {
             throw new ExError("Ошибка настройки параметров БД!", ex);
         }
 
-        replModel = new ServiceModel(delay);
+        if (!events.isEmpty()) {
+            trigger = new ReplicationTrigger(dbCenter, events.split("\\s*,\\s*"), debounce);
+            logger.infof("Репликация по событиям БД (окно %d мс), контрольная пауза %d мс", debounce, delay);
+        }
+
+        replModel = new ServiceModel(delay, TableCatalog.load(cfg, delay, batch, retries, backoff));
+        scheduler = new TableScheduler(replModel.tabs);
+        latency = new LatencyMonitor(replModel, latencyLog);
+        if (cfg != null) {
+            try {
+                catchup = CatchupMode.load(cfg, this, replModel.tabs);
+            } catch (Exception ex) {
+                throw new ExError(ex, "Ошибка параметров догоняющего режима: %s", ex.getMessage());
+            }
+        }
+        if (!checkpoint.isEmpty()) openCheckpoints(checkpoint);
+        if (!rowCachePath.isEmpty()) openRowCaches(rowCachePath);
+        spoolSegmentSize = spoolSegment * 1048576;
+        if (!spoolPath.isEmpty()) openSpool(spoolPath, spoolArchive, spoolLimit);
+        for (Destination d : Destination.load(cfg)) openDestination(d, idle);
+        sink = fanout(sink);
+        logger.infof("Порядок репликации: %s (%s, источник %s)", scheduler,
+                isGlobalSnapshot ? "единая транзакция" : "транзакция на таблицу, потоков " + tableThreads,
+                sourceProfile.name().toLowerCase().replace('_', '-'));
+        if (metricsPort > 0) {
+            try {
+                metrics = new MetricsServer(this, metricsHost, metricsPort);
+            } catch (IOException ex) {
+                throw new ExError(ex, "Ошибка открытия порта метрик %d: %s", metricsPort, ex.getMessage());
+            }
+        }
+        if (isJmx) jmx = new JmxControl(this);
+    }
+
+    /** Запуск фоновых служб модели (применение спулов, метрики, JMX). */
+    public void start() {
+        if (metrics != null) metrics.start();
+        if (jmx != null) jmx.register();
+        if (spool != null) {
+            applier = new SpoolApplier(this, spool, sink, null);
+            applier.start();
+        }
+        for (Destination d : dests) {
+            if (d.spool == null) continue;
+            d.applier = new SpoolApplier(this, d.spool, d.sink, d);
+            d.applier.start();
+        }
     }
 
+    /** Подключение дополнительного приёмника из конфигурации. */
+    private void openDestination(Destination d, long idle) throws ExError {
+        try {
+            FB_Database db = new FB_Database(false, d.base, d.user, d.password, "UTF-8", false);
+            d.cm = new FB_ConnectionManager(db, this::initConnection, idle);
+            d.sink = new FirebirdSink(this, d.cm, d.name);
+        } catch (Exception ex) {
+            throw new ExError(ex, "Ошибка настройки параметров БД приёмника %s!", d.name);
+        }
+        if (d.policy == Destination.Policy.SPOOL) {
+            try {
+                d.spool = new Spool(new File(d.spoolPath), null, d.spoolLimit * 1048576L, spoolSegmentSize);
+            } catch (Exception ex) {
+                throw new ExError(ex, "Ошибка открытия спула приёмника %s: %s", d.name, ex.getMessage());
+            }
+            d.updateSpool();
+        }
+        addDestination(d);
+        logger.infof("Приёмник %s: %s (%s)%s", d.name, d.base, d.info.policy, d.spool == null ? ""
+                : String.format(", спул %s, сегментов к применению %d", d.spoolPath, d.spool.pending()));
+    }
 
-    /** Интерфейс для вызова обработчика операции с БД. */
+    private void addDestination(Destination d) {
+        dests = Arrays.copyOf(dests, dests.length + 1);
+        dests[dests.length - 1] = d;
+        DestInfo[] infos = new DestInfo[dests.length];
+        for (int i = 0; i < dests.length; i++) infos[i] = dests[i].info;
+        replModel.setDests(infos);
+    }
+
+    /**
+     * Добавление дополнительного приёмника с политикой block (например, реализации в памяти для замеров). Действует
+     * для приёмника, заданного следующим вызовом setEndpoints().
+     */
+    public void addDestination(String name, ReplicationSink sink) {
+        Destination d = new Destination(dests.length, name, Destination.Policy.BLOCK);
+        d.sink = sink;
+        addDestination(d);
+    }
+
+    /**
+     * Приёмник с записью таблиц шардами (для таблиц с shards > 1) и размножением на дополнительные приёмники (без них -
+     * сам приёмник). Шарды - только в основном приёмнике.
+     */
+    private ReplicationSink fanout(ReplicationSink main) {
+        if (ShardedSink.isUsed(replModel.tabs)) main = new ShardedSink(main, replModel.tabs);
+        return dests.length == 0 ? main : new FanoutSink(main, dests, replModel.tabs);
+    }
+
+    /** Спул (null - прямая репликация). */
+    public Spool getSpool() {
+        return spool;
+    }
+
+    /** Замена источника и приёмника репликации (например, на реализации в памяти для замеров). */
+    public void setEndpoints(ReplicationSource source, ReplicationSink sink) {
+        this.source = source;
+        this.sink = fanout(sink);
+    }
+
+    public ReplicationSource getSource() {
+        return source;
+    }
+
+    public ReplicationSink getSink() {
+        return sink;
+    }
+
+    public FB_Database getSrcDatabase() {
+        return dbCenter;
+    }
+
+    public FB_Database getDstDatabase() {
+        return dbWeb;
+    }
+
+    FB_ConnectionManager srcManager() {
+        return cmCenter;
+    }
+
+    FB_ConnectionManager dstManager() {
+        return cmWeb;
+    }
+
+
+    /** Интерфейс для вызова обработчика операции в сеансе источника или приёмника. */
     @FunctionalInterface
-    interface QFBTask {
+    interface QFBTask<S> {
         @SuppressWarnings("DuplicateThrows")
-        void run(final FB_Connection con) throws ExError, SQLException, Exception;
+        void run(final S con) throws ExError, SQLException, Exception;
+    }
+
+    /** Открытие сеанса. */
+    @FunctionalInterface
+    private interface SessionOpener<S> {
+        S open() throws Exception;
+    }
+
+    /**
+     * Настройка нового соединения для репликации: полный снапшот (для источника - по профилю), ожидание блокировок -
+     * по настройке (по умолчанию исключения по блокировке без ожидания коммита).
+     */
+    private void initConnection(FB_Connection con) throws SQLException {
+        FB_TxProfile profile = con.getDatabase() == dbCenter && sourceProfile == SourceProfile.READ_COMMITTED
+                ? FB_TxProfile.READ_COMMITTED : FB_TxProfile.CONCURRENCY;
+        con.setTransactionProfile(profile, lockTimeout);
+    }
+
+    private FB_ConnectionManager manager(FB_Database db) {
+        return db == dbCenter ? cmCenter : cmWeb;
+    }
+
+    /**
+     * Получение соединения для репликации: сохранённого с прошлой репликации (с проверкой) или нового. Возвращается
+     * через release().
+     */
+    FB_Connection connect(FB_Database db) throws ExError {
+        return connect(manager(db), db == dbCenter ? "Center" : "Web");
+    }
+
+    /** Получение соединения из заданного менеджера (dbname - для сообщений). */
+    FB_Connection connect(FB_ConnectionManager cm, String dbname) throws ExError {
+        try {
+            return cm.acquire();
+
+        } catch (Exception ex) {
+            FB_CustomException e = FB_CustomException.parse(ex);
+            if (e != null)
+                throw new ExError(ex, "Ошибка подключения к БД(%s): %s", dbname, e.name + ": " + e.message);
+            logger.errorf(ex, "Ошибка подключения к БД(%s)!", dbname);
+            throw new ExError(ex, "Ошибка подключения к БД(%s)! Детальная информация в логе.", dbname);
+        }
+    }
+
+    /** Хелпер для операций в сеансе источника. */
+    void QSrc(QFBTask<ReplicationSource.Session> task) throws ExError {
+        QFB(source.name(), source::open, task);
+    }
+
+    /** Хелпер для операций в сеансе приёмника. */
+    void QDst(QFBTask<ReplicationSink.Session> task) throws ExError {
+        QFB(sink.name(), sink::open, task);
     }
 
     /** Хелпер для операций с БД. */
-    void QFB(FB_Database db, QFBTask task) throws ExError {
-        String dbname = db == dbCenter ? "Center" : "Web";
-        FB_Connection con = null;
+    private <S extends AutoCloseable> void QFB(String dbname, SessionOpener<S> opener, QFBTask<S> task) throws ExError {
+        S con = null;
         try {
             try {
-                con = db.connect(); // Соединение.
-                con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ); // Полный снапшот.
-                con.setTransactionWait(false); // Исключения по блокировки без ожидания коммита.
-
+                long t = System.nanoTime();
+                con = opener.open();
+                replModel.latency.record(Latency.Phase.CONNECT, t);
+            } catch (ExError ex) {
+                throw ex;
             } catch (Exception ex) {
-                FB_CustomException e = FB_CustomException.parse(ex);
-                if (e != null)
-                    throw new ExError(ex, "Ошибка подключения к БД(%s): %s", dbname, e.name + ": " + e.message);
                 logger.errorf(ex, "Ошибка подключения к БД(%s)!", dbname);
                 throw new ExError(ex, "Ошибка подключения к БД(%s)! Детальная информация в логе.", dbname);
             }
@@ -125,89 +442,539 @@ public class AppModel {
             }
 
         } finally {
-            // Если не внешнее - закрываем с роллбэк (если нужно сохранение данных - это надо сделать в теле задачи).
-            FB_Connection.closeSafe(con);
+            // Закрытие сеанса с роллбэк (если нужно сохранение данных - это надо сделать в теле задачи).
+            if (con != null) {
+                try {
+                    con.close();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+    }
+
+    /** Возврат соединения для переиспользования (незафиксированные изменения откатываются). */
+    void release(FB_Connection con) {
+        if (con != null) manager(con.getDatabase()).release(con);
+    }
+
+    /**
+     * Ожидание следующей репликации: по событию БД-источника или до срока ближайшей по расписанию таблицы.
+     *
+     * @return Причина запуска (для статистики).
+     */
+    public String awaitNextCycle() throws InterruptedException {
+        long next = Long.MAX_VALUE;
+        for (TabInfo tab : replModel.tabs) if (!tab.isPaused) next = Math.min(next, tab.nextTime);
+        replModel.setNextCycleTime(next == Long.MAX_VALUE ? 0 : next);
+        long wait = Math.max(0, next - System.currentTimeMillis());
+        if (trigger == null) {
+            synchronized (forcedTabs) {
+                if (forcedTabs.isEmpty() && wait > 0) forcedTabs.wait(wait);
+                return forcedTabs.isEmpty() ? null : "запрос";
+            }
+        }
+        String[] fired = trigger.await(wait);
+        if (fired.length == 0) return "таймер";
+        StringBuilder sb = new StringBuilder();
+        synchronized (forcedTabs) {
+            for (String name : fired) {
+                String tab = ReplicationTrigger.tableOf(name);
+                int i = indexOf(tab);
+                if (i >= 0) {
+                    forcedTabs.set(i);
+                } else {
+                    forcedTabs.set(0, replModel.tabs.length); // Событие без таблицы - репликация всех таблиц.
+                }
+                sb.append(sb.length() == 0 ? "" : ",").append(tab != null ? tab : name);
+            }
+        }
+        return "события " + sb;
+    }
+
+    /** Включение всех таблиц в следующую репликацию (вне расписания). */
+    public void requestAll() {
+        synchronized (forcedTabs) {
+            forcedTabs.set(0, replModel.tabs.length);
+        }
+    }
+
+    /**
+     * Запуск репликации вне расписания (например, из JMX): таблица (null - все таблицы) включается в следующую
+     * репликацию - и приостановленная, ожидание следующей репликации прерывается.
+     *
+     * @return false - таблица не найдена.
+     */
+    public boolean requestNow(String table) {
+        int i = table == null ? -1 : indexOf(table);
+        if (table != null && i < 0) return false;
+        synchronized (forcedTabs) {
+            if (i < 0) {
+                forcedTabs.set(0, replModel.tabs.length);
+            } else {
+                forcedTabs.set(i);
+            }
+            forcedTabs.notifyAll();
+        }
+        if (trigger != null) trigger.signal(i < 0 ? "запрос" : ReplicationTrigger.EVENT_PREFIX + table);
+        return true;
+    }
+
+    /** Открытие контрольных точек и подготовка продолжения для таблиц, прерванных после фиксации приёмника. */
+    private void openCheckpoints(String path) throws ExError {
+        TabInfo[] tabs = replModel.tabs;
+        String[] names = new String[tabs.length];
+        for (int i = 0; i < tabs.length; i++) names[i] = tabs[i].name;
+        try {
+            checkpoints = new CheckpointStore(new File(path), names);
+        } catch (Exception ex) {
+            throw new ExError(ex, "Ошибка открытия контрольных точек %s: %s", path, ex.getMessage());
+        }
+        for (int i = 0; i < tabs.length; i++) {
+            CheckpointStore.Checkpoint cp = checkpoints.get(i);
+            tabs[i].setCheckpointKey(cp.key);
+            if (cp.state == CheckpointStore.STATE_APPLIED) {
+                logger.infof("%s: приёмник зафиксирован без фиксации источника (ключ %d)%s", tabs[i].name, cp.key,
+                        tabs[i].isResume && tabs[i].parts == 1 ? " - продолжение с контрольной точки" : "");
+            }
+        }
+        logger.infof("Контрольные точки: %s", path);
+    }
+
+    /** Открытие кэшей строк таблиц с признаком cache. */
+    private void openRowCaches(String path) throws ExError {
+        for (TabInfo tab : replModel.tabs) {
+            if (!tab.isCached) continue;
+            try {
+                tab.cache = new RowHashCache(new File(path, tab.name + ".rhc"), 1 << 16);
+            } catch (Exception ex) {
+                throw new ExError(ex, "Ошибка открытия кэша строк %s: %s", tab.name, ex.getMessage());
+            }
+            logger.infof("%s: кэш строк %s", tab.name, tab.cache.isReset()
+                    ? "сброшен (незавершённая запись или повреждение)" : "ключей " + tab.cache.size());
+        }
+    }
+
+    /** Открытие спула (предел - в МБ). */
+    private void openSpool(String path, String archive, int limit) throws ExError {
+        try {
+            spool = new Spool(new File(path), archive.isEmpty() ? null : new File(archive), limit * 1048576L,
+                    spoolSegmentSize);
+        } catch (Exception ex) {
+            throw new ExError(ex, "Ошибка открытия спула %s: %s", path, ex.getMessage());
+        }
+        logger.infof("Спул: %s (сегментов к применению %d, %d КБ, предел %d МБ)%s", path, spool.pending(),
+                spool.bytes() / 1024, limit, archive.isEmpty() ? "" : ", архив " + archive);
+    }
+
+    /**
+     * Подготовка продолжения: если прошлая репликация таблицы зафиксировала приёмник, но не источник, то строки с
+     * ключом не больше метки будут выгружены повторно и пропускаются при записи.
+     */
+    private void prepareResume(TabInfo tab) {
+        if (checkpoints == null || !tab.isResume || tab.parts > 1) return;
+        CheckpointStore.Checkpoint cp = checkpoints.get(indexOf(tab.name));
+        if (cp.state == CheckpointStore.STATE_APPLIED) tab.resumeKey = cp.key;
+    }
+
+    /**
+     * Фиксация репликации таблиц: сначала приёмник, затем источник (при сбое между фиксациями строки выгружаются
+     * повторно, но не теряются).
+     *
+     * @param tabs     Зафиксированные таблицы (для контрольных точек).
+     * @param srcBegin Начало транзакции источника (для учёта времени удержания).
+     */
+    private void commit(ReplicationSource.Session conSrc, ReplicationSink.Session conDst, TxGroup group, BitSet tabs,
+                        long srcBegin)
+            throws SQLException {
+        // Фиксация одной таблицы учитывается в её задержках, общая - в задержках модели.
+        Latency latency = tabs.cardinality() == 1 ? replModel.tabs[tabs.nextSetBit(0)].latency : replModel.latency;
+        Object event = FlightEvents.RECORDER.beginCommit();
+        long t = System.nanoTime();
+        conDst.commit();
+        group.commitDst();
+        latency.record(Latency.Phase.COMMIT_DST, t);
+        FlightEvents.RECORDER.endCommit(event, FlightEvents.DEST, replModel.tabs, tabs);
+        dstCommitted(tabs);
+        event = FlightEvents.RECORDER.beginCommit();
+        t = System.nanoTime();
+        conSrc.commit();
+        group.commitSrc();
+        latency.record(Latency.Phase.COMMIT_SRC, t);
+        FlightEvents.RECORDER.endCommit(event, FlightEvents.SOURCE, replModel.tabs, tabs);
+        srcCommitted(tabs);
+        replModel.addSourceTx(System.currentTimeMillis() - srcBegin);
+    }
+
+    /** Фиксация приёмника: учёт времени удержания блокировок, отметка в контрольных точках (со сбросом на диск). */
+    private void dstCommitted(BitSet tabs) {
+        long now = System.currentTimeMillis();
+        for (int i = tabs.nextSetBit(0); i >= 0; i = tabs.nextSetBit(i + 1)) {
+            TabInfo tab = replModel.tabs[i];
+            tab.endLock(now);
+            if (tab.cache != null) tab.cache.commit();
+        }
+        if (checkpoints == null) return;
+        for (int i = tabs.nextSetBit(0); i >= 0; i = tabs.nextSetBit(i + 1)) checkpointApplied(i);
+        checkpoints.force();
+    }
+
+    /** Фиксация порции приёмника: фиксация кэша строк, отметка в контрольных точках (со сбросом на диск). */
+    private void chunkCommitted(TabInfo tab) {
+        if (tab.cache != null) tab.cache.commit();
+        if (checkpoints == null) return;
+        checkpointApplied(indexOf(tab.name));
+        checkpoints.force();
+    }
+
+    private void checkpointApplied(int i) {
+        TabInfo tab = replModel.tabs[i];
+        checkpoints.applied(i, tab.lastKey, tab.index - tab.resumed);
+        tab.setCheckpointKey(checkpoints.get(i).key);
+    }
+
+    /** Фиксация источника: отметка в контрольных точках (со сбросом на диск). */
+    private void srcCommitted(BitSet tabs) {
+        if (checkpoints == null) return;
+        for (int i = tabs.nextSetBit(0); i >= 0; i = tabs.nextSetBit(i + 1)) checkpoints.done(i);
+        checkpoints.force();
+    }
+
+    private static BitSet single(int i) {
+        BitSet b = new BitSet();
+        b.set(i);
+        return b;
+    }
+
+    /** Размер пакета записи таблицы по имени (для таблиц не из каталога - 1). */
+    int batchSizeOf(String name) {
+        int i = indexOf(name);
+        return i >= 0 ? replModel.tabs[i].batchSize : 1;
+    }
+
+    /** Изменение размера пакета записи таблицы во время работы (с учётом догоняющего режима). */
+    void setBatchSize(TabInfo tab, int batchSize) {
+        if (catchup != null) {
+            catchup.setBatchSize(tab, batchSize);
+        } else {
+            tab.setBatchSize(batchSize);
+        }
+    }
+
+    /** Изменение размера выборки источника таблицы во время работы (как setBatchSize). */
+    void setFetchSize(TabInfo tab, int fetchSize) {
+        if (catchup != null) {
+            catchup.setFetchSize(tab, fetchSize);
+        } else {
+            tab.setFetchSize(fetchSize);
+        }
+    }
+
+    int indexOf(String name) {
+        for (int i = 0; i < replModel.tabs.length; i++) if (replModel.tabs[i].name.equals(name)) return i;
+        return -1;
+    }
+
+    /**
+     * Таблицы для текущей репликации: по расписанию (кроме приостановленных) и по событиям и запросам, с их
+     * зависимостями.
+     */
+    private BitSet dueTables() {
+        long now = System.currentTimeMillis();
+        BitSet due = new BitSet();
+        for (int i = 0; i < replModel.tabs.length; i++) {
+            TabInfo tab = replModel.tabs[i];
+            if (!tab.isPaused && tab.isDue(now)) due.set(i);
+        }
+        synchronized (forcedTabs) {
+            due.or(forcedTabs);
+            forcedTabs.clear();
+        }
+        scheduler.addDependencies(due);
+        return due;
+    }
+
+    /** Закрытие сохранённых соединений и подписки на события. */
+    public void close() {
+        if (metrics != null) metrics.stop();
+        if (jmx != null) jmx.unregister();
+        if (applier != null) applier.stop();
+        for (Destination d : dests) d.close();
+        if (trigger != null) trigger.close();
+        if (cmCenter != null) cmCenter.close();
+        if (cmWeb != null) cmWeb.close();
+        if (replModel != null) {
+            for (TabInfo tab : replModel.tabs) {
+                if (tab.cache == null) continue;
+                try {
+                    tab.cache.close();
+                } catch (Exception ex) {
+                    logger.errorf(ex, "Ошибка закрытия кэша строк %s!", tab.name);
+                }
+            }
+        }
+        if (checkpoints != null) {
+            try {
+                checkpoints.close();
+            } catch (Exception ex) {
+                logger.errorf(ex, "Ошибка закрытия контрольных точек!");
+            }
         }
     }
 
     /** Репликация всех данных. */
     public void replicate() throws ExError {
-        replModel.startReplicate();
+        BitSet due = dueTables();
+        if (due.isEmpty()) return;
+        Object event = FlightEvents.RECORDER.beginCycle();
+        String error = null;
+        replModel.startReplicate(due);
+        long cycleStart = System.currentTimeMillis();
         //logger.info("Старт репликации...");
+        long connectTime = dbCenter.getConnectTime() + dbWeb.getConnectTime();
+        long prepareTime = dbCenter.getPrepareTime() + dbWeb.getPrepareTime();
 
         try {
             try {
-                // Репликация идёт в одном соединении и одной транзакции.
-                QFB(dbCenter, (conSrc) -> {
-                    QFB(dbWeb, (conDst) -> {
-
-                        // Репликация таблиц.
-                        for (int i = 0; i < replModel.tabs.length; i++) {
-                            TabInfo tab = replModel.tabs[i];
-                            replModel.startReplicateTable(i);
-                            replicateTable(conSrc, conDst, tab);
-                            replModel.endReplicateTable();
-                            if (tab.isError()) throw new ExError("Ошибка[%s] %s!", tab.name, tab.msgError());
-                        }
-
-                        conDst.commit();
-                        conSrc.commit();
-
-                    });
-                });
+                if (spool != null) {
+                    replicateSpool(due);
+                } else if (isGlobalSnapshot) {
+                    replicateGlobal(due);
+                } else {
+                    replicateParallel(due);
+                }
 
             } catch (Exception ex) {
                 replModel.setError(ex.getMessage());
+                error = ex.getMessage();
                 throw ex;
             }
         } finally {
+            replModel.setOverhead((dbCenter.getConnectTime() + dbWeb.getConnectTime() - connectTime) / 1000000L,
+                    (dbCenter.getPrepareTime() + dbWeb.getPrepareTime() - prepareTime) / 1000000L);
             replModel.endReplicate();
+            long now = System.currentTimeMillis();
+            if (catchup != null) catchup.afterCycle(replModel.curRowCount, now - cycleStart);
+            latency.afterCycle(now);
+            for (int i = due.nextSetBit(0); i >= 0; i = due.nextSetBit(i + 1)) {
+                TabInfo tab = replModel.tabs[i];
+                if (tab.cache != null) tab.cache.discard(); // Незафиксированное в приёмнике (после фиксации - пусто).
+                tab.reschedule(now, isAdaptive);
+            }
+            FlightEvents.RECORDER.endCycle(event, replModel.curTrigger, due.cardinality(), replModel.curRowCount,
+                    error);
         }
     }
 
-    /** Реализация репликации одной таблицы. */
-    private void replicateTable(FB_Connection conSrc, FB_Connection conDst, TabInfo tab) {
+    /** Репликация таблиц последовательно в одном соединении и одной транзакции. */
+    private void replicateGlobal(BitSet due) throws ExError {
+        QSrc((conSrc) -> {
+            QDst((conDst) -> {
+                try (TxGroup group = new TxGroup()) {
+                    long srcBegin = System.currentTimeMillis();
+                    if (countMode == CountMode.COMBINED) conSrc.counts(replModel.tabs, due);
+
+                    // Репликация таблиц.
+                    for (int i : scheduler.order()) {
+                        if (!due.get(i)) continue; // Не подошёл срок по расписанию.
+                        TabInfo tab = replModel.tabs[i];
+                        replModel.startReplicateTable(i);
+                        replicateTable(conSrc, conDst, tab, group, null);
+                        replModel.endReplicateTable(i);
+                        if (tab.isError()) throw new ExError("Ошибка[%s] %s!", tab.name, tab.msgError());
+                        if (sourceProfile == SourceProfile.TABLE) { // Короткий снапшот на таблицу.
+                            commit(conSrc, conDst, group, single(i), srcBegin);
+                            srcBegin = System.currentTimeMillis();
+                        }
+                    }
+
+                    if (sourceProfile != SourceProfile.TABLE) commit(conSrc, conDst, group, due, srcBegin);
+                }
+            });
+        });
+    }
+
+    /**
+     * Выгрузка таблиц в спул последовательно в одной транзакции источника (по профилю источника - на каждую таблицу).
+     * Сегменты сбрасываются на диск и помечаются готовыми до фиксации источника, в приёмник их загружает поток
+     * применения. При заполнении спула выгрузка не выполняется (строки остаются невыгруженными в источнике).
+     */
+    private void replicateSpool(BitSet due) throws ExError {
+        if (spool.isFull()) {
+            throw new ExError("Спул заполнен (%d МБ, сегментов %d) - выгрузка приостановлена до загрузки в приёмник!",
+                    spool.bytes() / 1048576, spool.pending());
+        }
+        QSrc((conSrc) -> {
+            try (Spool.Batch batch = spool.begin()) {
+                long srcBegin = System.currentTimeMillis();
+                if (countMode == CountMode.COMBINED) conSrc.counts(replModel.tabs, due);
+
+                for (int i : scheduler.order()) {
+                    if (!due.get(i)) continue; // Не подошёл срок по расписанию.
+                    TabInfo tab = replModel.tabs[i];
+                    replModel.startReplicateTable(i);
+                    replicateTable(conSrc, null, tab, null, batch);
+                    replModel.endReplicateTable(i);
+                    if (tab.isError()) throw new ExError("Ошибка[%s] %s!", tab.name, tab.msgError());
+                    if (sourceProfile == SourceProfile.TABLE) { // Короткий снапшот на таблицу.
+                        batch.seal();
+                        Object event = FlightEvents.RECORDER.beginCommit();
+                        long t = System.nanoTime();
+                        conSrc.commit();
+                        tab.latency.record(Latency.Phase.COMMIT_SRC, t);
+                        FlightEvents.RECORDER.endCommit(event, FlightEvents.SOURCE, tab.name, tab.index);
+                        replModel.addSourceTx(System.currentTimeMillis() - srcBegin);
+                        srcBegin = System.currentTimeMillis();
+                    }
+                }
+
+                if (sourceProfile != SourceProfile.TABLE) {
+                    batch.seal();
+                    Object event = FlightEvents.RECORDER.beginCommit();
+                    long t = System.nanoTime();
+                    conSrc.commit();
+                    replModel.latency.record(Latency.Phase.COMMIT_SRC, t);
+                    FlightEvents.RECORDER.endCommit(event, FlightEvents.SOURCE, replModel.tabs, due);
+                    replModel.addSourceTx(System.currentTimeMillis() - srcBegin);
+                }
+            }
+        });
+    }
+
+    /**
+     * Повторное применение сегментов спула из каталога (например, архива) в приёмник - по порядку, каждый сегмент в
+     * своей транзакции. Сегменты не удаляются. Первая ошибка приёмника прерывает применение.
+     *
+     * @param path Каталог сегментов.
+     */
+    public void replay(String path) throws ExError {
+        File[] files;
+        try {
+            files = Spool.segments(new File(path));
+        } catch (Exception ex) {
+            throw new ExError(ex, "Ошибка чтения каталога спула %s!", path);
+        }
+        logger.infof("Повтор спула %s: сегментов %d", path, files.length);
+        int segments = 0;
+        long rows = 0;
+        for (File f : files) {
+            final SpoolSegment seg;
+            try {
+                seg = SpoolSegment.open(f);
+            } catch (Exception ex) {
+                logger.errorf("Повтор спула: сегмент %s пропущен: %s", f.getName(), ex.getMessage());
+                continue;
+            }
+            QDst((con) -> {
+                SpoolApplier.write(con, seg, batchSizeOf(seg.table));
+                con.commit();
+            });
+            segments++;
+            rows += seg.rows;
+        }
+        logger.infof("Повтор спула %s завершён: применено сегментов %d, строк %d", path, segments, rows);
+    }
+
+    /**
+     * Репликация таблиц параллельно с учётом зависимостей. Каждая таблица - в своей паре соединений и транзакции,
+     * успешные таблицы фиксируются независимо от остальных.
+     */
+    private void replicateParallel(BitSet due) throws ExError {
+        if (countMode == CountMode.COMBINED) QSrc((conSrc) -> conSrc.counts(replModel.tabs, due));
+
+        ArrayList<Integer> failed;
+        try {
+            failed = scheduler.runParallel(tableThreads, (i) -> {
+                TabInfo tab = replModel.tabs[i];
+                if (!due.get(i)) return true; // Не подошёл срок по расписанию (зависимые могут выполняться).
+                if (countMode == CountMode.COMBINED && tab.count == 0) { // Нечего реплицировать - без соединений.
+                    tab.start();
+                    tab.end(0);
+                    return true;
+                }
+                replModel.startReplicateTable(i);
+                try {
+                    QSrc((conSrc) -> {
+                        QDst((conDst) -> {
+                            try (TxGroup group = new TxGroup()) {
+                                long srcBegin = System.currentTimeMillis();
+                                replicateTable(conSrc, conDst, tab, group, null);
+                                if (tab.isError()) throw new ExError("Ошибка[%s] %s!", tab.name, tab.msgError());
+                                commit(conSrc, conDst, group, single(i), srcBegin);
+                            }
+                        });
+                    });
+                    return true;
+                } catch (ExError ex) {
+                    return false;
+                } finally {
+                    replModel.endReplicateTable(i);
+                }
+            }, (i, dep) -> {
+                if (!due.get(i)) return; // Не выполнялась бы и без ошибки - результат не меняется.
+                TabInfo tab = replModel.tabs[i];
+                tab.start();
+                tab.end(0, "Пропущена из-за ошибки " + replModel.tabs[dep].name + "!");
+            });
+        } catch (InterruptedException ex) {
+            throw new ExError(ex, "Репликация прервана!");
+        }
+        if (!failed.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i : failed) sb.append(sb.length() == 0 ? "" : ", ").append(replModel.tabs[i].name);
+            throw new ExError("Ошибка репликации таблиц: %s!", sb);
+        }
+    }
+
+    /**
+     * Реализация репликации одной таблицы.
+     *
+     * @param group Группа для дополнительных соединений (при выгрузке частями), фиксируется вызывающим вместе с
+     *              основными соединениями.
+     * @param batch Выгрузка в спул (null - запись в приёмник conDst).
+     */
+    private void replicateTable(ReplicationSource.Session conSrc, ReplicationSink.Session conDst, TabInfo tab,
+                                TxGroup group, Spool.Batch batch) {
+        Object event = FlightEvents.RECORDER.beginTable();
         tab.start();
+        prepareResume(tab);
         //logger.infof("%s: CALC COUNT FOR IMPORT...", tab.name);
 
-        FB_Query qSrc = null, qDst = null;
-        int index = 0, upd = 0, err = 0;
         try {
-            qSrc = conSrc.execute("EXECUTE PROCEDURE WR_EXPORT_" + tab.name + "_COUNT");
-            qSrc.next();
-            tab.initCount(qSrc.getInteger(1));
-            qSrc.close();
+            if (countMode == CountMode.EXACT) {
+                long t = System.nanoTime();
+                tab.initCount(conSrc.count(tab));
+                tab.latency.record(Latency.Phase.COUNT, t);
+            } else if (countMode == CountMode.NONE) {
+                tab.initCount(-1); // Кол-во неизвестно до окончания выгрузки.
+            } // COMBINED - кол-во уже получено общим запросом по всем таблицам.
+            if (catchup != null) catchup.checkCount(tab);
             //logger.infof("%s: FOR IMPORT = %d", tab.name, tab.count);
 
-            if (tab.count > 0) { // Если записей для репликации нет, то и не запускаем саму репликацию (чтобы удаление не дергать)!
-                qSrc = conSrc.execute("SELECT * FROM WR_EXPORT_" + tab.name);
-                int n = qSrc.getMetaData().getColumnCount();
-                qDst = conDst.query("EXECUTE PROCEDURE WR_IMPORT_" + tab.name + " (" + FB_Query.buildProcParamsSQL(n) + ")");
-
-                Object[] vals = new Object[n];
-                while (qSrc.get(vals)) {
-                    qDst.execute(vals);
-                    qDst.next();
-                    if (qDst.getInteger(1 /*IBUPDATE*/) == 1) tab.updateWrited(++upd);
-                    index++;
-                    if (index % 10000 == 0) tab.updateIndex(index); // Для обновления прогресса в UI.
+            int index = 0;
+            if (tab.count != 0) { // Если записей для репликации нет, то и не запускаем саму репликацию (чтобы удаление не дергать)!
+                if (batch != null) {
+                    index = spoolTable(conSrc, tab, batch);
+                } else if (tab.parts > 1) {
+                    index = replicateParts(tab, group);
+                } else if (tab.maxRetries > 0 && !tab.isChunked()) {
+                    index = transferWithRetry(conSrc, conDst, tab);
+                } else {
+                    try (RowStream rows = conSrc.rows(tab)) {
+                        index = transferTable(rows, conDst, tab, -1, null);
+                    }
                 }
-                tab.updateIndex(index); // Для обновления прогресса в UI.
-
                 //logger.infof("%s: IMPORTED = %d (100%%)", tab.name, tab.index);
-                qDst.close();
-                qSrc.close();
             }
 
             tab.end(index);
 
         } catch (Exception e) {
-            FB_Query.closeSafe(qDst);
-            FB_Query.closeSafe(qSrc);
+            int index = tab.index;
             if (e instanceof FBSQLException) {
-                FBSQLException ex = (FBSQLException) e;
-                if (ex.getErrorCode() == 335544345) {
-                    tab.end(index, "Таблица заблокирована!");
+                if (FB_Connection.isLockConflict(e)) {
+                    tab.end(index, tab.retries > 0
+                            ? String.format("Таблица заблокирована (повторов %d)!", tab.retries)
+                            : "Таблица заблокирована!");
                 } else {
                     FB_CustomException exx = FB_CustomException.parse(e);
                     if (exx != null) {
@@ -222,9 +989,218 @@ public class AppModel {
             }
             logger.error(tab.msgError(), e);
         }
+        FlightEvents.RECORDER.endTable(event, tab);
         //logger.infof("TIME = %s", formatHHMMSS(ChronoUnit.MILLIS.between(tab.startTime, tab.endTime)));
     }
 
+    /**
+     * Выгрузка таблицы в спул (целиком, выгрузка частями в спул не применяется).
+     *
+     * @return Кол-во выгруженных строк.
+     */
+    private int spoolTable(ReplicationSource.Session conSrc, TabInfo tab, Spool.Batch batch) throws Exception {
+        try (RowStream rows = conSrc.rows(tab)) {
+            TransferPlan plan = rows.plan();
+            RowSlot slot = plan.newSlot();
+            long t = System.nanoTime();
+            if (!rows.next(slot)) return 0;
+            tab.latency.record(Latency.Phase.FETCH, t);
+            batch.table(tab.name, tab.importProc, plan);
+            int index = 0, progress = TableWriter.progressStep;
+            do {
+                batch.write(slot);
+                if (++index >= progress) { // Для обновления прогресса в UI.
+                    tab.updateIndex(index);
+                    progress = index + TableWriter.progressStep;
+                }
+            } while (next(rows, slot, tab.latency, System.nanoTime()));
+            batch.endTable();
+            tab.updateIndex(index);
+            return index;
+        }
+    }
+
+    /**
+     * Перенос таблицы с повтором при конфликте блокировок. Перед таблицей в обоих соединениях ставятся точки
+     * сохранения; при конфликте (в любой БД) изменения таблицы откатываются до них - в источнике снимаются и отметки
+     * выгрузки - и таблица выгружается и пишется заново после паузы. Работа по другим таблицам цикла сохраняется.
+     * Повтор помогает, если конфликтующая транзакция откатилась или ещё не завершена; изменения, уже зафиксированные
+     * конкурентом, в снапшоте текущей транзакции не видны и дают конфликт снова (для таких случаев - фиксация порциями,
+     * при которой повтор идёт в новой транзакции приёмника).
+     *
+     * @return Кол-во записанных строк.
+     */
+    private int transferWithRetry(ReplicationSource.Session conSrc, ReplicationSink.Session conDst, TabInfo tab)
+            throws Exception {
+        Savepoint spSrc = conSrc.savepoint();
+        Savepoint spDst = conDst.savepoint();
+        int cacheMark = tab.cache != null ? tab.cache.mark() : 0;
+        for (int attempt = 1; ; attempt++) {
+            long t = System.currentTimeMillis();
+            RowStream q = null;
+            try {
+                q = conSrc.rows(tab);
+                return transferTable(q, conDst, tab, -1, null);
+            } catch (SQLException ex) {
+                if (attempt > tab.maxRetries || !FB_Connection.isLockConflict(ex)) throw ex;
+                if (q != null) q.close();
+                q = null;
+                conDst.rollback(spDst);
+                conSrc.rollback(spSrc);
+                if (tab.cache != null) tab.cache.rollback(cacheMark);
+                tab.updateIndex(0);
+                tab.updateWrited(0);
+                logger.infof("%s: конфликт блокировок, повтор %d через %d мс", tab.name, attempt, tab.backoff(attempt));
+                Thread.sleep(tab.backoff(attempt));
+                tab.retried(System.currentTimeMillis() - t);
+            } finally {
+                if (q != null) q.close();
+            }
+        }
+    }
+
+    /**
+     * Выгрузка таблицы частями: каждая часть (диапазон ключей) выбирается процедурой WR_EXPORT_[TAB]_PART(PARTS, PART)
+     * в своей паре сеансов и пишется в приёмник параллельно с остальными частями. Строки одного ключа попадают в одну
+     * часть и пишутся в порядке выгрузки. Сеансы частей добавляются в группу и фиксируются вместе с основными.
+     * Ошибка одной части прерывает остальные.
+     *
+     * @return Кол-во записанных строк (по всем частям).
+     */
+    private int replicateParts(TabInfo tab, TxGroup group) throws Exception {
+        final int parts = tab.parts;
+        tab.initParts(parts);
+        AtomicReference<Throwable> abort = new AtomicReference<>();
+        Thread[] workers = new Thread[parts];
+        for (int p = 0; p < parts; p++) {
+            final int part = p;
+            workers[p] = new Thread(() -> {
+                ReplicationSource.Session cs = null;
+                ReplicationSink.Session cd = null;
+                boolean isGrouped = false;
+                RowStream q = null;
+                try {
+                    long t = System.nanoTime();
+                    cs = source.open();
+                    cd = sink.open();
+                    tab.latency.record(Latency.Phase.CONNECT, t);
+                    group.add(cs, cd);
+                    isGrouped = true; // Теперь фиксируются и закрываются группой.
+
+                    q = cs.rows(tab, parts, part);
+                    transferTable(q, cd, tab, part, abort);
+
+                } catch (Throwable ex) {
+                    abort.compareAndSet(null, ex);
+                } finally {
+                    if (q != null) q.close();
+                    if (!isGrouped) {
+                        if (cs != null) cs.close();
+                        if (cd != null) cd.close();
+                    }
+                }
+            }, "Part-" + tab.name + "-" + p);
+            workers[p].start();
+        }
+        for (Thread t : workers) t.join();
+
+        Throwable ex = abort.get();
+        if (ex instanceof Exception) throw (Exception) ex;
+        if (ex != null) throw new ExError(ex, "Ошибка выгрузки части таблицы %s!", tab.name);
+        return tab.index;
+    }
+
+    /**
+     * Перенос строк выгрузки источника в приёмник. Запись в приёмник подготавливается только при наличии первой
+     * строки - пустая выгрузка приёмник не затрагивает. Строки читаются сразу по типизированному плану приёмника (без
+     * упаковки значений). При ошибке прогресс таблицы (части) публикуется с точным кол-вом записанных строк. При
+     * фиксации порциями приёмник фиксируется по ходу переноса (источник - как и прежде, после приёмника в конце).
+     *
+     * @param part  Номер части таблицы (-1 - таблица целиком).
+     * @param abort Признак прерывания для частей таблицы (может быть null).
+     * @return Кол-во записанных строк.
+     */
+    private int transferTable(RowStream rows, ReplicationSink.Session conDst, TabInfo tab, int part,
+                              AtomicReference<Throwable> abort) throws Exception {
+        TransferPlan src = rows.plan();
+        RowSlot first = src.newSlot();
+        long t = System.nanoTime();
+        if (!rows.next(first)) return 0;
+        tab.latency.record(Latency.Phase.FETCH, t);
+
+        t = System.nanoTime();
+        try (RowSink imp = conDst.sink(tab.name, tab.importProc, src, tab.batchSize)) {
+            tab.latency.record(Latency.Phase.PREPARE, t);
+            TransferPlan plan = imp.plan();
+            rows.use(plan);
+            plan.adapt(src, first);
+            TableWriter w = new TableWriter(tab, imp, conDst, part, abort,
+                    part < 0 ? () -> chunkCommitted(tab) : null);
+            try {
+                w.write(first);
+                transfer(rows, plan, w, tab.latency, part < 0 ? tab.name : tab.name + "-" + part);
+                w.finish();
+            } catch (Exception ex) {
+                w.publish();
+                throw ex;
+            }
+            return w.index;
+        }
+    }
+
+    /**
+     * Передача строк из выгрузки источника в приёмник (конвейером или поочерёдно - по настройке).
+     *
+     * @param latency Задержки таблицы (учёт выборки строк).
+     */
+    private void transfer(RowStream rows, TransferPlan plan, TableWriter w, Latency latency, String name)
+            throws Exception {
+        if (pipelineSize > 0) {
+            transferPipelined(rows, plan, w, latency, name);
+        } else {
+            RowSlot slot = plan.newSlot();
+            while (next(rows, slot, latency, System.nanoTime())) w.write(slot);
+        }
+    }
+
+    /** Выборка строки источника с учётом задержки (начало - t). */
+    private static boolean next(RowStream rows, RowSlot slot, Latency latency, long t) throws SQLException {
+        if (!rows.next(slot)) return false;
+        latency.record(Latency.Phase.FETCH, t);
+        return true;
+    }
+
+    /**
+     * Конвейерная передача строк: поток чтения выбирает строки из БД-источника в кольцевой буфер, текущий поток
+     * записывает их в БД-приёмник. Ошибка любой из сторон прерывает обе и пробрасывается (исходное исключение).
+     */
+    private void transferPipelined(RowStream rows, TransferPlan plan, TableWriter w, Latency latency, String name)
+            throws Exception {
+        SpscRing<RowSlot> ring = new SpscRing<>(pipelineSize, plan::newSlot);
+        Thread reader = new Thread(() -> {
+            try {
+                while (next(rows, ring.claim(), latency, System.nanoTime())) ring.publish();
+                ring.close();
+            } catch (Throwable ex) {
+                ring.abort(ex);
+            }
+        }, "Reader-" + name);
+        reader.start();
+        try {
+            RowSlot row;
+            while ((row = ring.take()) != null) {
+                w.write(row);
+                ring.release();
+            }
+        } catch (Exception ex) {
+            ring.abort(ex);
+            throw ex;
+        } finally {
+            // Поток чтения завершается сам (после текущей выборки) - дожидаемся, чтобы не трогать запрос параллельно.
+            reader.join();
+        }
+    }
+
     /** Создание каталога, если не существует. */
     @SuppressWarnings("Duplicates")
     public static File createDirectoryIfNotExist(String path) throws ExError {
@@ -0,0 +1,264 @@
+package app.model;
+
+import fbdbengine.FB_Connection;
+import fbdbengine.FB_Query;
+
+import java.io.Closeable;
+import java.sql.ParameterMetaData;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Пакетная запись строк в БД-приёмник. Строки накапливаются и передаются пачкой в одном EXECUTE BLOCK, который для
+ * каждой строки вызывает процедуру WR_IMPORT_[TAB] и возвращает суммарное кол-во обновлений (IBUPDATE=1). Одиночная
+ * строка (или размер пакета = 1) пишется обычным EXECUTE PROCEDURE, как и раньше.
+ * <p>
+ * Размер пакета дополнительно ограничивается лимитами ФБ на длину текста запроса и размер сообщения параметров (64К).
+ * Параметры устанавливаются типизированно по плану переноса (TransferPlan), составленному по метаданным источника и
+ * процедуры приёмника.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class BatchImporter implements Closeable, RowSink {
+
+    /** Предельная длина текста запроса (с запасом от лимита ФБ 64К). */
+    static final int MAX_SQL_LENGTH = 60000;
+    /** Предельный размер сообщения входных параметров (с запасом от лимита ФБ 64К). */
+    static final int MAX_MESSAGE_LENGTH = 60000;
+    /** Предельный размер пакета. */
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private final FB_Connection con;
+    /** Таблица (для событий записи пакетов) и процедура загрузки. */
+    private final String table, proc;
+    /** Кол-во входных параметров процедуры (= кол-во полей строки). */
+    private final int columns;
+    /** Объявления типов входных параметров процедуры. */
+    private final String[] inTypes;
+    /** Объявления типов выходных параметров процедуры. */
+    private final String[] outTypes;
+    /** Номер выходного параметра IBUPDATE (с 0). */
+    private final int updateIndex;
+    /** Фактический размер пакета (после ограничений). */
+    private final int batchSize;
+    /** План переноса строк источника в параметры процедуры. */
+    private final TransferPlan plan;
+
+    /** Построчная запись. */
+    private FB_Query qOne;
+    /** Пакетная запись (полный пакет). */
+    private FB_Query qBatch;
+    /** Буфер строк пакета. */
+    private final RowSlot[] buffer;
+    /** Кол-во накопленных в буфере строк. */
+    private int pending;
+    /** Результат последней записи: кол-во записанных строк и кол-во обновлений. */
+    private int applied, updated;
+
+    /**
+     * Конструктор. Подготавливает построчный вызов процедуры и по его метаданным определяет типы параметров для
+     * пакетного блока. Процедура должна возвращать IBUPDATE (1 - строка обновлена).
+     *
+     * @param con       Соединение с БД-приёмником.
+     * @param proc      Имя процедуры загрузки (WR_IMPORT_[TAB]).
+     * @param src       Метаданные результата запроса источника (поля строки = входные параметры процедуры).
+     * @param batchSize Желаемый размер пакета.
+     */
+    public BatchImporter(FB_Connection con, String proc, ResultSetMetaData src, int batchSize) throws SQLException {
+        this(con, proc, TransferPlan.compile(src), batchSize);
+    }
+
+    /**
+     * Конструктор по плану источника (строки не из запроса, например из спула).
+     *
+     * @param con       Соединение с БД-приёмником.
+     * @param proc      Имя процедуры загрузки (WR_IMPORT_[TAB]).
+     * @param src       План источника (поля строки = входные параметры процедуры).
+     * @param batchSize Желаемый размер пакета.
+     */
+    public BatchImporter(FB_Connection con, String proc, TransferPlan src, int batchSize) throws SQLException {
+        this(con, proc, proc, src, batchSize);
+    }
+
+    /**
+     * Конструктор по плану источника с именем таблицы (для событий записи пакетов).
+     *
+     * @param con       Соединение с БД-приёмником.
+     * @param table     Имя таблицы.
+     * @param proc      Имя процедуры загрузки (WR_IMPORT_[TAB]).
+     * @param src       План источника (поля строки = входные параметры процедуры).
+     * @param batchSize Желаемый размер пакета.
+     */
+    public BatchImporter(FB_Connection con, String table, String proc, TransferPlan src, int batchSize)
+            throws SQLException {
+        this.con = con;
+        this.table = table;
+        this.proc = proc;
+        this.columns = src.columns();
+
+        qOne = con.queryCached("EXECUTE PROCEDURE " + proc + " (" + FB_Query.buildProcParamsSQL(columns) + ")");
+
+        inTypes = new String[columns];
+        int msglen = 0;
+        ParameterMetaData pmd = qOne.ps().getParameterMetaData();
+        plan = TransferPlan.compile(src, pmd);
+        for (int i = 0; i < columns; i++) {
+            int type = pmd.getParameterType(i + 1);
+            inTypes[i] = FB_Query.buildTypeSQL(type, pmd.getPrecision(i + 1), pmd.getScale(i + 1));
+            msglen += estimateLength(type, pmd.getPrecision(i + 1));
+        }
+
+        ResultSetMetaData rmd = qOne.ps().getMetaData();
+        int n = rmd == null ? 0 : rmd.getColumnCount();
+        outTypes = new String[n];
+        int upd = -1;
+        for (int i = 0; i < n; i++) {
+            outTypes[i] = FB_Query.buildTypeSQL(rmd.getColumnType(i + 1), rmd.getPrecision(i + 1), rmd.getScale(i + 1));
+            if (upd < 0 && "IBUPDATE".equalsIgnoreCase(rmd.getColumnName(i + 1).trim())) upd = i;
+        }
+        if (upd < 0) {
+            qOne.closeSafe();
+            throw new SQLException(String.format("Процедура %s не возвращает IBUPDATE!", proc));
+        }
+        updateIndex = upd;
+
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        size = Math.min(size, Math.max(1, MAX_MESSAGE_LENGTH / Math.max(1, msglen)));
+        while (size > 1 && buildBlockSQL(size).length() > MAX_SQL_LENGTH) size = size * 3 / 4;
+        this.batchSize = size;
+        this.buffer = new RowSlot[size];
+        for (int i = 0; i < size; i++) buffer[i] = plan.newSlot();
+        this.pending = 0;
+    }
+
+    /** Оценка размера параметра в сообщении (с индикатором NULL и выравниванием). */
+    private static int estimateLength(int sqlType, int precision) {
+        switch (sqlType) {
+            case java.sql.Types.CHAR:
+            case java.sql.Types.VARCHAR:
+            case java.sql.Types.BINARY:
+            case java.sql.Types.VARBINARY:
+                return Math.max(1, precision) * 4 + 8; // Худший случай для UTF8.
+            default:
+                return 16;
+        }
+    }
+
+    /** Формирование текста блока для пакетной записи указанного кол-ва строк. */
+    private String buildBlockSQL(int rows) {
+        StringBuilder sb = new StringBuilder(256 + rows * columns * 24);
+        sb.append("EXECUTE BLOCK (");
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < columns; i++) {
+                sb.append(r == 0 && i == 0 ? "" : ",").append("P").append(r).append('_').append(i)
+                        .append(' ').append(inTypes[i]).append("=?");
+            }
+        }
+        sb.append(")\nRETURNS (IBUPDATE INTEGER)\nAS\n");
+        for (int i = 0; i < outTypes.length; i++) {
+            sb.append("DECLARE VARIABLE R").append(i).append(' ').append(outTypes[i]).append(";\n");
+        }
+        sb.append("BEGIN\n  IBUPDATE=0;\n");
+        for (int r = 0; r < rows; r++) {
+            sb.append("  EXECUTE PROCEDURE ").append(proc).append(" (");
+            for (int i = 0; i < columns; i++) sb.append(i == 0 ? ":P" : ",:P").append(r).append('_').append(i);
+            sb.append(") RETURNING_VALUES ");
+            for (int i = 0; i < outTypes.length; i++) sb.append(i == 0 ? ":R" : ",:R").append(i);
+            sb.append(";\n  IF (R").append(updateIndex).append("=1) THEN IBUPDATE=IBUPDATE+1;\n");
+        }
+        sb.append("  SUSPEND;\nEND");
+        return sb.toString();
+    }
+
+    /** План переноса строк (для чтения строк источника в слоты). */
+    public TransferPlan plan() {
+        return plan;
+    }
+
+    /** Фактический размер пакета (с учётом ограничений ФБ). */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /** Кол-во строк, записанных последней операцией записи. */
+    public int applied() {
+        return applied;
+    }
+
+    /** Кол-во обновлений (IBUPDATE=1) последней операции записи. */
+    public int updated() {
+        return updated;
+    }
+
+    /**
+     * Добавление строки в пакет. Значения копируются, слот можно переиспользовать. При заполнении пакета он
+     * записывается в БД.
+     *
+     * @param row Строка (слот плана этого загрузчика).
+     * @return true - была запись пакета (результат в applied() и updated()), false - строка только накоплена.
+     */
+    public boolean add(RowSlot row) throws SQLException {
+        buffer[pending].copyFrom(row);
+        pending++;
+        return pending == batchSize && flush();
+    }
+
+    /**
+     * Запись накопленных строк в БД.
+     *
+     * @return true - была запись (результат в applied() и updated()), false - нечего записывать.
+     */
+    public boolean flush() throws SQLException {
+        applied = 0;
+        updated = 0;
+        if (pending == 0) return false;
+
+        Object event = FlightEvents.RECORDER.beginBatch();
+        if (pending == 1) {
+            plan.bind(qOne.ps(), 0, buffer[0]);
+            qOne.execute();
+            qOne.next();
+            if (Integer.valueOf(1).equals(qOne.getInteger(updateIndex + 1))) updated = 1;
+
+        } else if (pending == batchSize) {
+            if (qBatch == null) qBatch = con.queryCached(buildBlockSQL(batchSize));
+            updated = executeBlock(qBatch, pending);
+
+        } else {
+            // Остаток меньше пакета - отдельный блок под его размер.
+            FB_Query qTail = con.query(buildBlockSQL(pending));
+            try {
+                updated = executeBlock(qTail.prepare(), pending);
+            } finally {
+                qTail.closeSafe();
+            }
+        }
+        applied = pending;
+        pending = 0;
+        FlightEvents.RECORDER.endBatch(event, table, applied, updated);
+        return true;
+    }
+
+    /** Сброс накопленных строк без записи (после отката к точке сохранения). */
+    public void reset() {
+        pending = 0;
+        applied = 0;
+        updated = 0;
+    }
+
+    private int executeBlock(FB_Query q, int rows) throws SQLException {
+        for (int r = 0; r < rows; r++) plan.bind(q.ps(), r * columns, buffer[r]);
+        q.execute();
+        q.next();
+        Integer upd = q.getInteger(1 /*IBUPDATE*/);
+        return upd == null ? 0 : upd;
+    }
+
+    @Override
+    public void close() {
+        FB_Query.closeSafe(qBatch);
+        FB_Query.closeSafe(qOne);
+        qBatch = null;
+        qOne = null;
+    }
+}
@@ -0,0 +1,167 @@
+package app.model;
+
+import xconfig.XConfig;
+
+import static app.App.logger;
+
+/**
+ * Догоняющий режим: после простоя (регламентных работ) отставание может составлять сотни тысяч строк, и параметры,
+ * подобранные для небольших изменений, выбирают его медленно. Режим включается, когда цикл выгрузил не меньше enter
+ * строк или подсчёт таблицы перед выгрузкой дал не меньше enter строк, и выключается после цикла, выгрузившего меньше
+ * exit строк. В режиме действует профиль высокой пропускной способности: крупные пакеты записи, выборки и порции,
+ * больше потоков таблиц, реже обновление прогресса и состояния. Переключения и их эффект (скорость) пишутся в лог.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class CatchupMode {
+
+    /** Пороги включения и выключения (строк). */
+    private final int enter, exit;
+    /** Профиль режима: пакет записи, порция, выборка, потоков таблиц, шаг прогресса (строк), обновление (мсек). */
+    private final int batch, chunk, fetch, threads, progress, redraw;
+
+    private final AppModel model;
+    private final TabInfo[] tabs;
+    /** Обычные параметры таблиц (на время режима). */
+    private final int[] batchSize, chunkSize, fetchSize;
+    private int tableThreads, redrawInterval;
+
+    private boolean isActive;
+    /** Строки и время циклов в режиме (с включения). */
+    private long rows, millis;
+    private long since;
+    /** Скорость последнего цикла в обычном режиме (строк/сек), 0 - нет данных. */
+    private long normalRate;
+
+    private CatchupMode(AppModel model, TabInfo[] tabs, int enter, int exit, int batch, int chunk, int fetch,
+                        int threads, int progress, int redraw) {
+        this.model = model;
+        this.tabs = tabs;
+        this.enter = enter;
+        this.exit = exit;
+        this.batch = batch;
+        this.chunk = chunk;
+        this.fetch = fetch;
+        this.threads = threads;
+        this.progress = progress;
+        this.redraw = redraw;
+        batchSize = new int[tabs.length];
+        chunkSize = new int[tabs.length];
+        fetchSize = new int[tabs.length];
+    }
+
+    /**
+     * Загрузка параметров режима (replicator.catchup).
+     *
+     * @return Режим или null, если не используется (enter=0).
+     */
+    static CatchupMode load(XConfig cfg, AppModel model, TabInfo[] tabs) throws Exception {
+        int enter = Math.max(0, cfg.getIntKey("replicator.catchup.enter", 0));
+        if (enter == 0) return null;
+        int exit = Math.max(0, Math.min(enter, cfg.getIntKey("replicator.catchup.exit", enter / 10)));
+        return new CatchupMode(model, tabs, enter, exit,
+                Math.max(1, cfg.getIntKey("replicator.catchup.batch", 200)),
+                Math.max(0, cfg.getIntKey("replicator.catchup.chunk", 50000)),
+                Math.max(0, cfg.getIntKey("replicator.catchup.fetch", 5000)),
+                Math.max(1, cfg.getIntKey("replicator.catchup.threads", 8)),
+                Math.max(1, cfg.getIntKey("replicator.catchup.progress", 100000)),
+                Math.max(0, cfg.getIntKey("replicator.catchup.redraw", 5000)));
+    }
+
+    synchronized boolean isActive() {
+        return isActive;
+    }
+
+    /** Проверка отставания таблицы по подсчёту перед выгрузкой (включение режима до окончания цикла). */
+    synchronized void checkCount(TabInfo tab) {
+        if (!isActive && tab.count >= enter) activate(String.format("%s: к выгрузке %d строк", tab.name, tab.count));
+    }
+
+    /**
+     * Учёт завершённого цикла: включение или выключение режима по кол-ву выгруженных строк.
+     *
+     * @param cycleRows   Выгружено строк за цикл.
+     * @param cycleMillis Длительность цикла (мсек).
+     */
+    synchronized void afterCycle(long cycleRows, long cycleMillis) {
+        if (isActive) {
+            rows += cycleRows;
+            millis += cycleMillis;
+            if (cycleRows < exit) deactivate(cycleRows);
+        } else {
+            if (cycleRows > 0) normalRate = cycleRows * 1000 / Math.max(1, cycleMillis);
+            if (cycleRows >= enter) activate(String.format("за цикл выгружено %d строк", cycleRows));
+        }
+    }
+
+    /**
+     * Изменение размера пакета записи таблицы (JMX). В режиме меняется обычное значение (восстанавливаемое при
+     * выключении), а действующее не опускается ниже профиля режима.
+     */
+    synchronized void setBatchSize(TabInfo tab, int size) {
+        int i = indexOf(tab);
+        if (isActive && i >= 0) {
+            batchSize[i] = Math.max(1, size);
+            tab.setBatchSize(Math.max(batchSize[i], batch));
+        } else {
+            tab.setBatchSize(size);
+        }
+    }
+
+    /** Изменение размера выборки источника таблицы (JMX, как setBatchSize). */
+    synchronized void setFetchSize(TabInfo tab, int size) {
+        int i = indexOf(tab);
+        if (isActive && i >= 0) {
+            fetchSize[i] = Math.max(0, size);
+            tab.setFetchSize(fetch > 0 ? Math.max(fetchSize[i], fetch) : fetchSize[i]);
+        } else {
+            tab.setFetchSize(size);
+        }
+    }
+
+    private int indexOf(TabInfo tab) {
+        for (int i = 0; i < tabs.length; i++) if (tabs[i] == tab) return i;
+        return -1;
+    }
+
+    private void activate(String reason) {
+        for (int i = 0; i < tabs.length; i++) {
+            TabInfo tab = tabs[i];
+            batchSize[i] = tab.batchSize;
+            chunkSize[i] = tab.chunkSize;
+            fetchSize[i] = tab.fetchSize;
+            tab.setBatchSize(Math.max(batchSize[i], batch));
+            if (chunkSize[i] > 0) tab.setChunkSize(Math.max(chunkSize[i], chunk));
+            if (fetch > 0) tab.setFetchSize(Math.max(fetchSize[i], fetch));
+        }
+        tableThreads = model.tableThreads;
+        redrawInterval = model.redrawInterval;
+        model.tableThreads = Math.max(tableThreads, threads);
+        model.redrawInterval = Math.max(redrawInterval, redraw);
+        TableWriter.progressStep = progress;
+        isActive = true;
+        rows = 0;
+        millis = 0;
+        since = System.currentTimeMillis();
+        model.replModel.setCatchup(true);
+        logger.infof("Догоняющий режим включён (%s): пакет от %d, порция от %d, выборка от %d, потоков %d, " +
+                "прогресс каждые %d строк", reason, batch, chunk, fetch, model.tableThreads, progress);
+    }
+
+    private void deactivate(long cycleRows) {
+        for (int i = 0; i < tabs.length; i++) {
+            TabInfo tab = tabs[i];
+            tab.setBatchSize(batchSize[i]);
+            tab.setChunkSize(chunkSize[i]);
+            tab.setFetchSize(fetchSize[i]);
+        }
+        model.tableThreads = tableThreads;
+        model.redrawInterval = redrawInterval;
+        TableWriter.progressStep = TableWriter.PROGRESS_STEP;
+        isActive = false;
+        model.replModel.setCatchup(false);
+        logger.infof("Догоняющий режим выключен (за цикл выгружено %d строк): в режиме %d сек, строк %d, " +
+                        "%d строк/сек (в обычном режиме - %d строк/сек)", cycleRows,
+                (System.currentTimeMillis() - since) / 1000, rows, rows * 1000 / Math.max(1, millis), normalRate);
+    }
+}
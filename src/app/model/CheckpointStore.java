@@ -0,0 +1,191 @@
+package app.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище контрольных точек репликации таблиц в небольшом отображаемом в память файле. Для каждой таблицы хранится
+ * последний записанный в приёмник ключ (водяная метка), номер фиксации, кол-во строк и состояние. Изменения
+ * записываются в память и сбрасываются на диск (force) на границах фиксации транзакций.
+ * <p>
+ * Состояния: APPLIED - приёмник зафиксирован, источник ещё нет (строки до метки при повторной выгрузке уже записаны);
+ * DONE - зафиксированы обе стороны (метка только для информации). Каждая запись защищена контрольной суммой: повреждённая
+ * (недописанная) запись считается отсутствующей.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class CheckpointStore implements Closeable {
+
+    public static final int STATE_NONE = 0;
+    public static final int STATE_APPLIED = 1;
+    public static final int STATE_DONE = 2;
+
+    private static final int MAGIC = 0x57524B50; // "WRKP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NAME_SIZE = 32;
+    /** Запись: имя[32], состояние, CRC, ключ, номер фиксации, строк, время. */
+    private static final int RECORD_SIZE = 80;
+
+    /** Контрольная точка таблицы. */
+    public static class Checkpoint {
+        public int state = STATE_NONE;
+        /** Последний записанный ключ (Long.MIN_VALUE - нет). */
+        public long key = Long.MIN_VALUE;
+        /** Номер фиксации (растёт с каждой фиксацией приёмника). */
+        public long seq;
+        /** Кол-во строк, записанных последней фиксацией. */
+        public long rows;
+        /** Время изменения (мсек). */
+        public long time;
+
+        Checkpoint copy() {
+            Checkpoint c = new Checkpoint();
+            c.state = state;
+            c.key = key;
+            c.seq = seq;
+            c.rows = rows;
+            c.time = time;
+            return c;
+        }
+    }
+
+    private final String[] names;
+    private final Checkpoint[] points;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buf;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Открытие (создание) хранилища. Записи существующего файла сопоставляются с таблицами по имени, файл
+     * перестраивается под текущий список таблиц.
+     *
+     * @param file   Файл.
+     * @param tables Имена таблиц.
+     */
+    public CheckpointStore(File file, String[] tables) throws IOException {
+        this.names = tables.clone();
+        this.points = new Checkpoint[tables.length];
+        HashMap<String, Checkpoint> old = new HashMap<>();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) throw new IOException("Не удалось создать каталог " + dir);
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = HEADER_SIZE + (long) RECORD_SIZE * tables.length;
+            if (ch.size() >= HEADER_SIZE) {
+                MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (in.getInt(0) == MAGIC && in.getInt(4) == VERSION) {
+                    int n = in.getInt(8);
+                    for (int i = 0; i < n && HEADER_SIZE + (long) RECORD_SIZE * (i + 1) <= ch.size(); i++) {
+                        readRecord(in, HEADER_SIZE + RECORD_SIZE * i, old);
+                    }
+                }
+            }
+            raf.setLength(size);
+            buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, tables.length);
+        buf.putInt(12, 0);
+        for (int i = 0; i < tables.length; i++) {
+            Checkpoint c = old.get(tables[i]);
+            points[i] = c != null ? c : new Checkpoint();
+            writeRecord(i);
+        }
+        buf.force();
+    }
+
+    private void readRecord(MappedByteBuffer in, int pos, HashMap<String, Checkpoint> out) {
+        byte[] raw = new byte[RECORD_SIZE];
+        for (int k = 0; k < RECORD_SIZE; k++) raw[k] = in.get(pos + k);
+        int stored = in.getInt(pos + NAME_SIZE + 4);
+        raw[NAME_SIZE + 4] = raw[NAME_SIZE + 5] = raw[NAME_SIZE + 6] = raw[NAME_SIZE + 7] = 0;
+        crc.reset();
+        crc.update(raw, 0, RECORD_SIZE);
+        if ((int) crc.getValue() != stored) return; // Повреждённая запись.
+        int len = 0;
+        while (len < NAME_SIZE && raw[len] != 0) len++;
+        if (len == 0) return;
+        Checkpoint c = new Checkpoint();
+        c.state = in.getInt(pos + NAME_SIZE);
+        c.key = in.getLong(pos + NAME_SIZE + 8);
+        c.seq = in.getLong(pos + NAME_SIZE + 16);
+        c.rows = in.getLong(pos + NAME_SIZE + 24);
+        c.time = in.getLong(pos + NAME_SIZE + 32);
+        out.put(new String(raw, 0, len, StandardCharsets.US_ASCII), c);
+    }
+
+    private void writeRecord(int i) {
+        int pos = HEADER_SIZE + RECORD_SIZE * i;
+        byte[] raw = new byte[RECORD_SIZE];
+        byte[] name = names[i].getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, raw, 0, Math.min(name.length, NAME_SIZE));
+        Checkpoint c = points[i];
+        ByteBuffer b = ByteBuffer.wrap(raw);
+        b.putInt(NAME_SIZE, c.state);
+        b.putLong(NAME_SIZE + 8, c.key);
+        b.putLong(NAME_SIZE + 16, c.seq);
+        b.putLong(NAME_SIZE + 24, c.rows);
+        b.putLong(NAME_SIZE + 32, c.time);
+        crc.reset();
+        crc.update(raw, 0, RECORD_SIZE);
+        b.putInt(NAME_SIZE + 4, (int) crc.getValue());
+        for (int k = 0; k < RECORD_SIZE; k++) buf.put(pos + k, raw[k]);
+    }
+
+    /** Контрольная точка таблицы (копия). */
+    public synchronized Checkpoint get(int tab) {
+        return points[tab].copy();
+    }
+
+    /**
+     * Фиксация приёмника: запись метки (без сброса на диск - см. force()).
+     *
+     * @param tab  Индекс таблицы.
+     * @param key  Последний записанный ключ (Long.MIN_VALUE - не отслеживается, сохраняется прежний).
+     * @param rows Кол-во записанных строк.
+     */
+    public synchronized void applied(int tab, long key, long rows) {
+        Checkpoint c = points[tab];
+        c.state = STATE_APPLIED;
+        if (key != Long.MIN_VALUE) c.key = key;
+        c.seq++;
+        c.rows = rows;
+        c.time = System.currentTimeMillis();
+        writeRecord(tab);
+    }
+
+    /** Фиксация источника: строки больше не будут выгружены повторно (без сброса на диск - см. force()). */
+    public synchronized void done(int tab) {
+        Checkpoint c = points[tab];
+        if (c.state != STATE_APPLIED) return;
+        c.state = STATE_DONE;
+        c.time = System.currentTimeMillis();
+        writeRecord(tab);
+    }
+
+    /** Сброс изменений на диск. */
+    public synchronized void force() {
+        buf.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buf.force();
+        raf.close();
+    }
+}
@@ -0,0 +1,103 @@
+package app.model;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Состояние дополнительного приёмника репликации (Destination) для отображения. Снимок (copyTo) - оптимистичным
+ * чтением, как у TabInfo.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class DestInfo {
+    public String name;
+    /** Политика медленного приёмника: block или spool. */
+    public String policy;
+    /** Зафиксировано в приёмнике строк и транзакций (с запуска). */
+    public long rows;
+    public int commits;
+    /** Время последней фиксации (null - не было). */
+    public LocalDateTime commitTime;
+    /** Кол-во ошибок (с запуска). */
+    public int errors;
+    /** Спул приёмника (для политики spool): сегментов к применению и их объём (байт). */
+    public int spoolPending;
+    public long spoolBytes;
+    /** Если не null, то содержит текст ошибки последней операции приёмника. */
+    private volatile String msgError;
+
+    private final StampedLock lock = new StampedLock();
+
+    public DestInfo(String name, String policy) {
+        this.name = name;
+        this.policy = policy;
+    }
+
+    public void copyTo(DestInfo dst) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            copyFields(dst);
+            if (lock.validate(stamp)) return;
+        }
+        stamp = lock.readLock();
+        try {
+            copyFields(dst);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void copyFields(DestInfo dst) {
+        dst.name = name;
+        dst.policy = policy;
+        dst.rows = rows;
+        dst.commits = commits;
+        dst.commitTime = commitTime;
+        dst.errors = errors;
+        dst.spoolPending = spoolPending;
+        dst.spoolBytes = spoolBytes;
+        dst.msgError = msgError;
+    }
+
+    /** Фиксация транзакции приёмника. */
+    public void commit(long rows) {
+        long stamp = lock.writeLock();
+        try {
+            this.rows += rows;
+            commits++;
+            commitTime = LocalDateTime.now();
+            msgError = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void error(String msgError) {
+        long stamp = lock.writeLock();
+        try {
+            errors++;
+            this.msgError = msgError;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void updateSpool(int pending, long bytes) {
+        long stamp = lock.writeLock();
+        try {
+            spoolPending = pending;
+            spoolBytes = bytes;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean isError() {
+        return msgError != null;
+    }
+
+    public String msgError() {
+        String msg = msgError;
+        return msg == null ? "" : msg;
+    }
+}
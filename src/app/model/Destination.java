@@ -0,0 +1,113 @@
+package app.model;
+
+import app.ExError;
+import fbdbengine.FB_ConnectionManager;
+import xconfig.XConfig;
+import xconfig.XNode;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Дополнительный приёмник репликации (размножение - FanoutSink): своё соединение, свой поток записи, свои счётчики
+ * (DestInfo) и своя политика медленного приёмника. Описывается в конфигурации массивом destinations[]:
+ * <pre>
+ * { name="regional"                              - имя (обязательно);
+ *   host="10.0.0.5" alias="WebCenter"            - адрес и алиас (путь) БД,
+ *   user="REPLICATOR" password="xxxxxxxx"        - пользователь и пароль;
+ *   policy="block"                               - политика медленного приёмника: block или spool;
+ *   spool="./state/spool-regional" limit="1024" } - каталог и предел объёма (МБ) спула (для spool).
+ * </pre>
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class Destination {
+
+    /** Политика медленного (недоступного) приёмника. */
+    enum Policy {
+        /** Запись параллельно с основным приёмником и фиксация вместе с ним: репликация ждёт приёмник. */
+        BLOCK,
+        /** Запись в спул приёмника, применение своим потоком: репликация не зависит от приёмника. */
+        SPOOL
+    }
+
+    /** Номер приёмника (в DestInfo модели и TabInfo.destIndex). */
+    final int index;
+    final String name;
+    final Policy policy;
+    final DestInfo info;
+    /** Параметры подключения к БД (для приёмников из конфигурации). */
+    String base, user, password;
+    /** Каталог и предел объёма спула (МБ, 0 - без ограничения). */
+    String spoolPath;
+    int spoolLimit;
+
+    /** Менеджер соединений (null - приёмник не БД ФБ), приёмник, спул и поток его применения (для spool). */
+    FB_ConnectionManager cm;
+    ReplicationSink sink;
+    Spool spool;
+    SpoolApplier applier;
+
+    Destination(int index, String name, Policy policy) {
+        this.index = index;
+        this.name = name;
+        this.policy = policy;
+        this.info = new DestInfo(name, policy.name().toLowerCase());
+    }
+
+    /**
+     * Загрузка дополнительных приёмников из конфигурации.
+     *
+     * @param cfg Конфигурация (может быть null - нет приёмников).
+     * @return Приёмники в порядке объявления.
+     */
+    static Destination[] load(XConfig cfg) throws ExError {
+        XNode node = cfg == null ? null : cfg.getNode("destinations[]");
+        if (node == null || node.getNodeCount() == 0) return new Destination[0];
+        List<XNode> items = node.getNodes();
+        Destination[] dests = new Destination[items.size()];
+        HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < dests.length; i++) {
+            XNode e = items.get(i);
+            String name = e.getKey("name", "").trim();
+            if (name.isEmpty()) throw new ExError("Приёмники: не задано имя приёмника (элемент %d)!", i);
+            if (!names.add(name)) throw new ExError("Приёмники: повтор приёмника %s!", name);
+            try {
+                dests[i] = parse(e, i, name);
+            } catch (Exception ex) {
+                throw new ExError(ex, "Приёмники: ошибка описания приёмника %s: %s", name, ex.getMessage());
+            }
+        }
+        return dests;
+    }
+
+    private static Destination parse(XNode e, int index, String name) throws Exception {
+        Policy policy = Policy.valueOf(e.getKey("policy", "block").trim().toUpperCase());
+        Destination d = new Destination(index, name, policy);
+        d.base = e.getKey("host", "127.0.0.1") + ":" + e.getKey("alias", "WebCenter");
+        d.user = e.getKey("user", "REPLICATOR");
+        d.password = e.getKey("password", "xxxxxxxx");
+        d.spoolPath = e.getKey("spool", "./state/spool-" + name).trim();
+        d.spoolLimit = Math.max(0, e.getIntKey("limit", 1024));
+        return d;
+    }
+
+    /** Учёт ошибки приёмника. Возвращает исключение с именем приёмника (прерывает репликацию). */
+    SQLException fail(Throwable ex) {
+        String msg = ex.getMessage() == null ? ex.toString() : ex.getMessage();
+        info.error(msg);
+        return new SQLException("Приёмник " + name + ": " + msg, ex);
+    }
+
+    /** Обновление состояния спула приёмника. */
+    void updateSpool() {
+        if (spool != null) info.updateSpool(spool.pending(), spool.bytes());
+    }
+
+    /** Остановка применения спула и закрытие соединений. */
+    void close() {
+        if (applier != null) applier.stop();
+        if (cm != null) cm.close();
+    }
+}
@@ -0,0 +1,326 @@
+package app.model;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Размножение репликации: строки одной выгрузки источника записываются в основной приёмник и в дополнительные
+ * (Destination) - источник читается один раз. Основной приёмник пишется в потоке репликации, дополнительные - каждый в
+ * своём соединении, по политике медленного приёмника:
+ * <ul>
+ * <li>block - строки таблицы передаются потоку записи приёмника через кольцевой буфер, запись идёт параллельно с
+ * основным приёмником (при заполнении буфера выгрузка ждёт). Приёмник фиксируется вместе с основным, до фиксации
+ * источника. Его ошибка прерывает репликацию: источник не фиксируется и изменения выгружаются повторно (в уже
+ * зафиксированные приёмники строки запишутся повторно - процедуры загрузки upsert);</li>
+ * <li>spool - строки пишутся в спул приёмника (запечатывается до фиксации источника) и применяются своим потоком
+ * (SpoolApplier). Медленный или недоступный приёмник не задерживает репликацию и другие приёмники, пока его спул не
+ * заполнен.</li>
+ * </ul>
+ * Откат к точке сохранения (повтор порции) в спул не переносится - строки порции попадают в спул повторно.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class FanoutSink implements ReplicationSink {
+
+    /** Ёмкость буфера строк потока записи приёмника. */
+    private static final int RING_SIZE = 1024;
+
+    private final ReplicationSink main;
+    private final Destination[] dests;
+    private final TabInfo[] tabs;
+
+    /**
+     * Конструктор.
+     *
+     * @param main  Основной приёмник.
+     * @param dests Дополнительные приёмники.
+     * @param tabs  Таблицы модели (для учёта строк по приёмникам).
+     */
+    FanoutSink(ReplicationSink main, Destination[] dests, TabInfo[] tabs) {
+        this.main = main;
+        this.dests = dests;
+        this.tabs = tabs;
+    }
+
+    @Override
+    public String name() {
+        return main.name();
+    }
+
+    @Override
+    public Session open() throws Exception {
+        FanoutSession s = new FanoutSession(main.open());
+        try {
+            for (Destination d : dests) s.open(d);
+        } catch (Exception ex) {
+            s.close();
+            throw ex;
+        }
+        return s;
+    }
+
+    private TabInfo tabOf(String table) {
+        for (TabInfo tab : tabs) if (tab.name.equals(table)) return tab;
+        return null;
+    }
+
+    /** Сеанс: транзакции основного приёмника и приёмников block, выгрузки в спулы приёмников spool. */
+    private final class FanoutSession implements Session {
+
+        private final Session main;
+        private final Session[] block = new Session[dests.length];
+        private final Spool.Batch[] batches = new Spool.Batch[dests.length];
+        /** Потоки записи таблиц с последней фиксации. */
+        private final ArrayList<SinkWriter> writers = new ArrayList<>();
+        /** Ошибка завершения таблицы (null - нет). */
+        private SQLException error;
+
+        FanoutSession(Session main) {
+            this.main = main;
+        }
+
+        void open(Destination d) throws SQLException {
+            try {
+                if (d.policy == Destination.Policy.SPOOL) {
+                    if (d.spool.isFull()) {
+                        throw new IOException(String.format("спул заполнен (%d МБ, сегментов %d)",
+                                d.spool.bytes() / 1048576, d.spool.pending()));
+                    }
+                    batches[d.index] = d.spool.begin();
+                } else {
+                    block[d.index] = d.sink.open();
+                }
+            } catch (Exception ex) {
+                throw d.fail(ex);
+            }
+        }
+
+        @Override
+        public RowSink sink(String table, String proc, TransferPlan src, int batchSize) throws SQLException {
+            RowSink m = main.sink(table, proc, src, batchSize);
+            TransferPlan plan = m.plan();
+            FanoutRowSink f = new FanoutRowSink(this, m, tabOf(table));
+            try {
+                for (Destination d : dests) {
+                    if (batches[d.index] != null) {
+                        batches[d.index].table(table, proc, plan);
+                        f.spooled.add(d);
+                        continue;
+                    }
+                    RowSink s;
+                    try {
+                        s = block[d.index].sink(table, proc, plan, batchSize);
+                    } catch (SQLException ex) {
+                        throw d.fail(ex);
+                    }
+                    final TabInfo tab = f.tab;
+                    SinkWriter w = new SinkWriter("Dest-" + d.name + "-" + table, d.index, s, plan, RING_SIZE, d::fail,
+                            n -> {
+                                if (tab != null) tab.addDestRows(d.index, n);
+                            });
+                    writers.add(w);
+                    f.writers.add(w);
+                }
+            } catch (SQLException ex) {
+                f.close();
+                throw ex;
+            }
+            f.spooledRows = new int[f.spooled.size()];
+            return f;
+        }
+
+        /** Ожидание записи переданных строк всеми потоками записи, проверка их ошибок. */
+        private void sync() throws SQLException {
+            if (error != null) throw error;
+            for (SinkWriter w : writers) if (!w.isClosed) w.sync();
+            for (SinkWriter w : writers) w.check();
+        }
+
+        @Override
+        public Savepoint savepoint() throws SQLException {
+            sync();
+            Savepoint[] sp = new Savepoint[dests.length];
+            for (Destination d : dests) {
+                if (block[d.index] == null) continue;
+                try {
+                    sp[d.index] = block[d.index].savepoint();
+                } catch (SQLException ex) {
+                    throw d.fail(ex);
+                }
+            }
+            IdentityHashMap<SinkWriter, Long> rows = new IdentityHashMap<>();
+            for (SinkWriter w : writers) rows.put(w, w.rows);
+            return new FanoutSavepoint(main.savepoint(), sp, rows);
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws SQLException {
+            FanoutSavepoint f = (FanoutSavepoint) savepoint;
+            if (error != null) throw error;
+            for (SinkWriter w : writers) w.recover();
+            for (Destination d : dests) {
+                if (block[d.index] == null) continue;
+                try {
+                    block[d.index].rollback(f.dests[d.index]);
+                } catch (SQLException ex) {
+                    throw d.fail(ex);
+                }
+            }
+            // Откаченные строки не учитываются в счётчиках.
+            for (SinkWriter w : writers) {
+                Long mark = f.rows.get(w);
+                w.rollback(mark == null ? 0 : mark);
+            }
+            main.rollback(f.main);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            sync();
+            long[] rows = new long[dests.length];
+            for (SinkWriter w : writers) {
+                rows[w.id] += w.rows - w.committed;
+                w.committed = w.rows;
+            }
+            writers.removeIf(w -> w.isClosed);
+            for (Destination d : dests) {
+                try {
+                    if (block[d.index] != null) {
+                        block[d.index].commit();
+                        d.info.commit(rows[d.index]);
+                    } else if (batches[d.index] != null) {
+                        batches[d.index].seal();
+                        d.updateSpool();
+                    }
+                } catch (Exception ex) {
+                    throw d.fail(ex);
+                }
+            }
+            main.commit();
+        }
+
+        @Override
+        public void close() {
+            for (SinkWriter w : writers) w.abort();
+            writers.clear();
+            for (Destination d : dests) {
+                if (block[d.index] != null) block[d.index].close();
+                if (batches[d.index] != null) batches[d.index].close();
+            }
+            main.close();
+        }
+    }
+
+    /** Точка сохранения сеанса: основного приёмника, приёмников block и счётчиков строк потоков записи. */
+    private static final class FanoutSavepoint implements Savepoint {
+
+        final Savepoint main;
+        final Savepoint[] dests;
+        final IdentityHashMap<SinkWriter, Long> rows;
+
+        FanoutSavepoint(Savepoint main, Savepoint[] dests, IdentityHashMap<SinkWriter, Long> rows) {
+            this.main = main;
+            this.dests = dests;
+            this.rows = rows;
+        }
+
+        @Override
+        public int getSavepointId() throws SQLException {
+            return main.getSavepointId();
+        }
+
+        @Override
+        public String getSavepointName() throws SQLException {
+            return main.getSavepointName();
+        }
+    }
+
+    /** Запись строк таблицы: в основной приёмник, потокам записи приёмников block и в спулы приёмников spool. */
+    private static final class FanoutRowSink implements RowSink {
+
+        final FanoutSession session;
+        final RowSink main;
+        final TabInfo tab;
+        final ArrayList<SinkWriter> writers = new ArrayList<>();
+        final ArrayList<Destination> spooled = new ArrayList<>();
+        /** Строки, записанные в спулы и ещё не учтённые в таблице. */
+        int[] spooledRows = new int[0];
+
+        FanoutRowSink(FanoutSession session, RowSink main, TabInfo tab) {
+            this.session = session;
+            this.main = main;
+            this.tab = tab;
+        }
+
+        @Override
+        public TransferPlan plan() {
+            return main.plan();
+        }
+
+        @Override
+        public boolean add(RowSlot row) throws SQLException {
+            for (int i = 0; i < writers.size(); i++) writers.get(i).add(row);
+            for (int i = 0; i < spooled.size(); i++) {
+                Destination d = spooled.get(i);
+                try {
+                    session.batches[d.index].write(row);
+                } catch (IOException ex) {
+                    throw d.fail(ex);
+                }
+                spooledRows[i]++;
+            }
+            if (!main.add(row)) return false;
+            countSpooled();
+            return true;
+        }
+
+        @Override
+        public boolean flush() throws SQLException {
+            countSpooled();
+            return main.flush();
+        }
+
+        private void countSpooled() {
+            if (tab == null) return;
+            for (int i = 0; i < spooledRows.length; i++) {
+                if (spooledRows[i] == 0) continue;
+                tab.addDestRows(spooled.get(i).index, spooledRows[i]);
+                spooledRows[i] = 0;
+            }
+        }
+
+        @Override
+        public void reset() {
+            main.reset();
+        }
+
+        @Override
+        public int applied() {
+            return main.applied();
+        }
+
+        @Override
+        public int updated() {
+            return main.updated();
+        }
+
+        /** Закрытие: ожидание записи строк таблицы потоками (ошибки проверит фиксация сеанса), завершение сегментов. */
+        @Override
+        public void close() {
+            main.close();
+            for (SinkWriter w : writers) w.close();
+            countSpooled();
+            for (Destination d : spooled) {
+                try {
+                    session.batches[d.index].endTable();
+                } catch (IOException ex) {
+                    // Сегмент не завершён - фиксация сеанса не состоится.
+                    if (session.error == null) session.error = d.fail(ex);
+                }
+            }
+        }
+    }
+}
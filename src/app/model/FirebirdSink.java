@@ -0,0 +1,62 @@
+package app.model;
+
+import fbdbengine.FB_Connection;
+import fbdbengine.FB_ConnectionManager;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Приёмник репликации - БД ФБ: загрузка процедурами WR_IMPORT_[TAB] пакетами (BatchImporter). Соединения берутся из
+ * менеджера соединений приёмника (у основного и у каждого дополнительного приёмника - свой).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class FirebirdSink implements ReplicationSink {
+
+    private final AppModel model;
+    private final FB_ConnectionManager cm;
+    private final String name;
+
+    FirebirdSink(AppModel model, FB_ConnectionManager cm, String name) {
+        this.model = model;
+        this.cm = cm;
+        this.name = name;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Session open() throws Exception {
+        final FB_Connection con = model.connect(cm, name);
+        return new Session() {
+            @Override
+            public RowSink sink(String table, String proc, TransferPlan src, int batchSize) throws SQLException {
+                return new BatchImporter(con, table, proc, src, batchSize);
+            }
+
+            @Override
+            public Savepoint savepoint() throws SQLException {
+                return con.setSavepoint();
+            }
+
+            @Override
+            public void rollback(Savepoint savepoint) throws SQLException {
+                con.rollback(savepoint);
+            }
+
+            @Override
+            public void commit() throws SQLException {
+                con.commit();
+            }
+
+            @Override
+            public void close() {
+                cm.release(con);
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package app.model;
+
+import fbdbengine.FB_Connection;
+import fbdbengine.FB_Database;
+import fbdbengine.FB_Query;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.BitSet;
+
+/**
+ * Источник репликации - БД ФБ: выгрузка процедурами WR_EXPORT_[TAB] (отмечают строки выгруженными в транзакции
+ * выгрузки), подсчёт - WR_EXPORT_[TAB]_COUNT, части - WR_EXPORT_[TAB]_PART(PARTS, PART). Соединения берутся из
+ * менеджера соединений модели.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class FirebirdSource implements ReplicationSource {
+
+    private final AppModel model;
+    private final FB_Database db;
+
+    FirebirdSource(AppModel model, FB_Database db) {
+        this.model = model;
+        this.db = db;
+    }
+
+    @Override
+    public String name() {
+        return "Center";
+    }
+
+    @Override
+    public Session open() throws Exception {
+        return new FirebirdSession(model.connect(db));
+    }
+
+    private class FirebirdSession implements Session {
+
+        private final FB_Connection con;
+
+        FirebirdSession(FB_Connection con) {
+            this.con = con;
+        }
+
+        @Override
+        public int count(TabInfo tab) throws Exception {
+            FB_Query q = con.queryCached("EXECUTE PROCEDURE " + tab.countProc).execute();
+            try {
+                q.next();
+                return q.getInteger(1);
+            } finally {
+                q.closeSafe();
+            }
+        }
+
+        /**
+         * Получение кол-ва записей по всем таблицам одним запросом (один блок вызывает все процедуры
+         * WR_EXPORT_[TAB]_COUNT) - вместо отдельного обращения к БД на каждую таблицу.
+         */
+        @Override
+        public void counts(TabInfo[] tabs, BitSet due) throws Exception {
+            StringBuilder sb = new StringBuilder("EXECUTE BLOCK RETURNS (");
+            for (int i = 0; i < tabs.length; i++) sb.append(i == 0 ? "C" : ",C").append(i).append(" INTEGER");
+            sb.append(")\nAS\nBEGIN\n");
+            for (int i = 0; i < tabs.length; i++) {
+                if (!due.get(i)) continue;
+                sb.append("  EXECUTE PROCEDURE ").append(tabs[i].countProc).append(" RETURNING_VALUES :C").append(i).append(";\n");
+            }
+            sb.append("  SUSPEND;\nEND");
+
+            FB_Query q = con.queryCached(sb.toString()).execute();
+            try {
+                q.next();
+                for (int i = 0; i < tabs.length; i++) if (due.get(i)) tabs[i].initCount(q.getInteger(i + 1));
+            } finally {
+                q.closeSafe();
+            }
+        }
+
+        @Override
+        public RowStream rows(TabInfo tab) throws Exception {
+            return new FirebirdStream(con.queryCached("SELECT * FROM " + tab.exportProc)
+                    .setFetchSize(tab.fetchSize).execute());
+        }
+
+        @Override
+        public RowStream rows(TabInfo tab, int parts, int part) throws Exception {
+            return new FirebirdStream(con.queryCached("SELECT * FROM " + tab.partProc + "(?, ?)")
+                    .setFetchSize(tab.fetchSize).execute(parts, part));
+        }
+
+        @Override
+        public Savepoint savepoint() throws SQLException {
+            return con.setSavepoint();
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws SQLException {
+            con.rollback(savepoint);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            con.commit();
+        }
+
+        @Override
+        public void close() {
+            model.release(con);
+        }
+    }
+
+    /** Поток строк выполненного запроса. */
+    private static class FirebirdStream implements RowStream {
+
+        private final FB_Query q;
+        private final TransferPlan plan;
+        private TransferPlan read;
+
+        FirebirdStream(FB_Query q) throws SQLException {
+            this.q = q;
+            try {
+                this.plan = TransferPlan.compile(q.getMetaData());
+            } catch (SQLException ex) {
+                q.closeSafe();
+                throw ex;
+            }
+            this.read = plan;
+        }
+
+        @Override
+        public TransferPlan plan() {
+            return plan;
+        }
+
+        @Override
+        public void use(TransferPlan plan) {
+            this.read = plan;
+        }
+
+        @Override
+        public boolean next(RowSlot slot) throws SQLException {
+            if (!q.rs().next()) return false;
+            read.read(q.rs(), slot);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            q.closeSafe();
+        }
+    }
+}
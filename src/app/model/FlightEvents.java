@@ -0,0 +1,98 @@
+package app.model;
+
+import java.util.BitSet;
+
+/**
+ * События Java Flight Recorder для репликации: цикл, таблица, пакет записи в приёмник, фиксация. В записи JFR фазы
+ * репликации видны на одной шкале со сборкой мусора, чтением сокетов и конкуренцией блокировок. События включены по
+ * умолчанию и без стека вызовов: без записи JFR создание события устраняется JIT-компилятором, при записи - одна
+ * запись в буфер потока (поля заполняются только при shouldCommit). Пакет - событие на каждую фактическую запись в
+ * соединение приёмника (накопление строк событий не создаёт), пишутся пакеты от 1 мс, порог снимается настройкой
+ * записи webreplicator.Batch#threshold=0 ms. Замер накладных расходов - app.bench.FlightBench.
+ * <p>
+ * Класс не зависит от JFR: события пишет реализация FlightRecorderEvents, она загружается, только если в JVM есть
+ * JFR API (Java 11+, OpenJDK 8u262+), иначе действует этот класс - без событий. Начало события возвращает событие
+ * (null - не пишется), завершение передаёт его обратно с полями.
+ * <p>
+ * Запись в работе: jcmd &lt;pid&gt; JFR.start name=wr settings=default (или -XX:StartFlightRecording при запуске).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class FlightEvents {
+
+    /** Имена событий (для настройки записи). */
+    public static final String CYCLE = "webreplicator.Cycle", TABLE = "webreplicator.Table",
+            BATCH = "webreplicator.Batch", COMMIT = "webreplicator.Commit";
+    public static final String[] NAMES = {CYCLE, TABLE, BATCH, COMMIT};
+
+    /** Цели фиксации. */
+    static final String SOURCE = "источник", DEST = "приёмник";
+
+    /** Действующая реализация (JFR или без событий). */
+    static final FlightEvents RECORDER = load();
+
+    FlightEvents() {
+    }
+
+    private static FlightEvents load() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder", false, FlightEvents.class.getClassLoader());
+            Class<?> c = Class.forName("app.model.FlightRecorderEvents");
+            return (FlightEvents) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return new FlightEvents();
+        }
+    }
+
+    /** События пишутся через JFR. */
+    public static boolean isAvailable() {
+        return RECORDER.getClass() != FlightEvents.class;
+    }
+
+    /**
+     * Стоимость события пакета (начало и завершение, нсек) при текущих настройках записи JFR - для оценки накладных
+     * расходов (app.bench.FlightBench).
+     *
+     * @param n Кол-во событий замера.
+     */
+    public static double batchCost(int n) {
+        FlightEvents r = RECORDER;
+        long t = System.nanoTime();
+        for (int i = 0; i < n; i++) r.endBatch(r.beginBatch(), "", i, 0);
+        return (System.nanoTime() - t) / (double) n;
+    }
+
+    Object beginCycle() {
+        return null;
+    }
+
+    void endCycle(Object event, String trigger, int tables, long rows, String error) {
+    }
+
+    Object beginTable() {
+        return null;
+    }
+
+    /** Завершение события таблицы (строки, обновления, повторы, ошибка - по таблице). */
+    void endTable(Object event, TabInfo tab) {
+    }
+
+    Object beginBatch() {
+        return null;
+    }
+
+    void endBatch(Object event, String table, int rows, int updated) {
+    }
+
+    Object beginCommit() {
+        return null;
+    }
+
+    /** Завершение события фиксации таблиц (имена и строки таблиц заполняются только при записи события). */
+    void endCommit(Object event, String target, TabInfo[] tabs, BitSet due) {
+    }
+
+    /** Завершение события фиксации одной таблицы (порции, сегмента спула). */
+    void endCommit(Object event, String target, String table, long rows) {
+    }
+}
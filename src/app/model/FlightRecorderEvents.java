@@ -0,0 +1,167 @@
+package app.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.BitSet;
+
+/**
+ * Запись событий репликации через JFR (см. FlightEvents). Загружается только при наличии JFR API в JVM.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+final class FlightRecorderEvents extends FlightEvents {
+
+    @Name(CYCLE)
+    @Label("Цикл репликации")
+    @Category("WebReplicator")
+    @StackTrace(false)
+    static final class Cycle extends Event {
+        @Label("Причина запуска")
+        String trigger;
+        @Label("Таблиц")
+        int tables;
+        @Label("Строк")
+        long rows;
+        @Label("Ошибка")
+        String error;
+    }
+
+    @Name(TABLE)
+    @Label("Репликация таблицы")
+    @Category("WebReplicator")
+    @StackTrace(false)
+    static final class Table extends Event {
+        @Label("Таблица")
+        String table;
+        @Label("Строк")
+        int rows;
+        @Label("Обновлений")
+        @Description("Записанные строки, обновившие существующие")
+        int updated;
+        @Label("Повторов")
+        int retries;
+        @Label("Ошибка")
+        String error;
+    }
+
+    @Name(BATCH)
+    @Label("Пакет записи")
+    @Description("Запись пакета (строки) в соединение приёмника")
+    @Category("WebReplicator")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Batch extends Event {
+        @Label("Таблица")
+        String table;
+        @Label("Строк")
+        int rows;
+        @Label("Обновлений")
+        int updated;
+    }
+
+    @Name(COMMIT)
+    @Label("Фиксация")
+    @Category("WebReplicator")
+    @StackTrace(false)
+    static final class Commit extends Event {
+        @Label("БД")
+        String target;
+        @Label("Таблицы")
+        String tables;
+        @Label("Строк")
+        long rows;
+    }
+
+    @Override
+    Object beginCycle() {
+        Cycle event = new Cycle();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endCycle(Object event, String trigger, int tables, long rows, String error) {
+        Cycle e = (Cycle) event;
+        if (!e.shouldCommit()) return;
+        e.trigger = trigger;
+        e.tables = tables;
+        e.rows = rows;
+        e.error = error;
+        e.commit();
+    }
+
+    @Override
+    Object beginTable() {
+        Table event = new Table();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endTable(Object event, TabInfo tab) {
+        Table e = (Table) event;
+        if (!e.shouldCommit()) return;
+        e.table = tab.name;
+        e.rows = tab.index;
+        e.updated = tab.writed;
+        e.retries = tab.retries;
+        e.error = tab.msgError();
+        e.commit();
+    }
+
+    @Override
+    Object beginBatch() {
+        Batch event = new Batch();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endBatch(Object event, String table, int rows, int updated) {
+        Batch e = (Batch) event;
+        if (!e.shouldCommit()) return;
+        e.table = table;
+        e.rows = rows;
+        e.updated = updated;
+        e.commit();
+    }
+
+    @Override
+    Object beginCommit() {
+        Commit event = new Commit();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endCommit(Object event, String target, TabInfo[] tabs, BitSet due) {
+        Commit e = (Commit) event;
+        if (!e.shouldCommit()) return;
+        StringBuilder sb = new StringBuilder();
+        long rows = 0;
+        for (int i = due.nextSetBit(0); i >= 0; i = due.nextSetBit(i + 1)) {
+            sb.append(sb.length() == 0 ? "" : ",").append(tabs[i].name);
+            rows += tabs[i].index;
+        }
+        e.target = target;
+        e.tables = sb.toString();
+        e.rows = rows;
+        e.commit();
+    }
+
+    @Override
+    void endCommit(Object event, String target, String table, long rows) {
+        Commit e = (Commit) event;
+        if (!e.shouldCommit()) return;
+        e.target = target;
+        e.tables = table;
+        e.rows = rows;
+        e.commit();
+    }
+}
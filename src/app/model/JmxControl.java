@@ -0,0 +1,305 @@
+package app.model;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static app.App.logger;
+
+/**
+ * Регистрация MXBean службы и таблиц в платформенном MBeanServer (см. ReplicationMXBean, TableMXBean). Атрибуты
+ * читаются из снимков (copyTo - оптимистичное чтение), снимок своего MXBean переиспользуется между запросами; методы
+ * MXBean синхронизированы между потоками JMX и не задерживают репликацию. Изменения настроек идут через методы модели
+ * под её блокировками записи.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class JmxControl {
+
+    private static final String DOMAIN = "WebReplicator";
+
+    private final AppModel model;
+    private final List<ObjectName> names = new ArrayList<>();
+
+    JmxControl(AppModel model) {
+        this.model = model;
+    }
+
+    void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (TabInfo tab : model.replModel.tabs) {
+                register(server, new ObjectName(DOMAIN + ":type=Table,name=" + ObjectName.quote(tab.name)),
+                        new Table(tab));
+            }
+            register(server, new ObjectName(DOMAIN + ":type=Replication"), new Replication());
+            logger.infof("JMX: зарегистрировано %d MXBean (%s)", names.size(), DOMAIN);
+        } catch (JMException ex) {
+            logger.errorf(ex, "Ошибка регистрации MXBean: %s", ex.getMessage());
+            unregister();
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        server.registerMBean(bean, name);
+        names.add(name);
+    }
+
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ex) {
+                logger.errorf(ex, "Ошибка отмены регистрации MXBean %s!", name);
+            }
+        }
+        names.clear();
+    }
+
+    private static long lag(long lastSuccess) {
+        return lastSuccess > 0 ? System.currentTimeMillis() - lastSuccess : -1;
+    }
+
+    private TabInfo table(String name) {
+        int i = model.indexOf(name == null ? "" : name.trim().toUpperCase());
+        return i < 0 ? null : model.replModel.tabs[i];
+    }
+
+    private class Replication implements ReplicationMXBean {
+
+        private final ServiceModel snap = model.replModel.createCopy();
+
+        private ServiceModel snap() {
+            model.replModel.copyTo(snap);
+            return snap;
+        }
+
+        @Override
+        public synchronized int getCycles() {
+            return snap().allCount;
+        }
+
+        @Override
+        public synchronized int getFailedCycles() {
+            return snap().allErrors;
+        }
+
+        @Override
+        public synchronized boolean isReplicating() {
+            return snap().isReplication;
+        }
+
+        @Override
+        public synchronized boolean isCatchup() {
+            return snap().isCatchup;
+        }
+
+        @Override
+        public synchronized long getLastCycleMillis() {
+            return snap().lastMsec;
+        }
+
+        @Override
+        public synchronized long getLagMillis() {
+            return lag(snap().lastSuccess);
+        }
+
+        @Override
+        public synchronized long getCurrentRows() {
+            return snap().curRowCount;
+        }
+
+        @Override
+        public synchronized String getCycleLatency() {
+            return snap().curLatency;
+        }
+
+        @Override
+        public synchronized long getNextCycleMillis() {
+            long next = snap().nextCycleTime;
+            return next > 0 ? Math.max(0, next - System.currentTimeMillis()) : -1;
+        }
+
+        @Override
+        public synchronized String getLastError() {
+            return snap().errMessage;
+        }
+
+        @Override
+        public synchronized int getDelay() {
+            return snap().delayTime;
+        }
+
+        @Override
+        public synchronized void setDelay(int delay) {
+            if (delay < 0) throw new IllegalArgumentException("Пауза не может быть отрицательной!");
+            model.replModel.setDelay(delay);
+            logger.infof("JMX: пауза между репликациями %d мс", delay);
+        }
+
+        @Override
+        public void replicateNow() {
+            model.requestNow(null);
+            logger.infof("JMX: запуск репликации вне расписания");
+        }
+
+        @Override
+        public boolean pauseTable(String name) {
+            TabInfo tab = table(name);
+            if (tab == null) return false;
+            new Table(tab).pause();
+            return true;
+        }
+
+        @Override
+        public boolean resumeTable(String name) {
+            TabInfo tab = table(name);
+            if (tab == null) return false;
+            new Table(tab).resume();
+            return true;
+        }
+    }
+
+    private class Table implements TableMXBean {
+
+        private final TabInfo tab;
+        private final TabInfo snap;
+
+        Table(TabInfo tab) {
+            this.tab = tab;
+            this.snap = new TabInfo(tab.name, tab.title);
+        }
+
+        private TabInfo snap() {
+            tab.copyTo(snap);
+            return snap;
+        }
+
+        @Override
+        public String getName() {
+            return tab.name;
+        }
+
+        @Override
+        public String getTitle() {
+            return tab.title;
+        }
+
+        @Override
+        public synchronized int getProcessed() {
+            return snap().index;
+        }
+
+        @Override
+        public synchronized int getWritten() {
+            return snap().writed;
+        }
+
+        @Override
+        public synchronized int getCount() {
+            return snap().count;
+        }
+
+        @Override
+        public synchronized long getTotalRows() {
+            return snap().totalRows;
+        }
+
+        @Override
+        public synchronized long getTotalWritten() {
+            return snap().totalWrited;
+        }
+
+        @Override
+        public synchronized long getTotalSkipped() {
+            return snap().totalSkipped;
+        }
+
+        @Override
+        public synchronized long getTotalUpdated() {
+            return snap().totalUpdated;
+        }
+
+        @Override
+        public synchronized int getTotalErrors() {
+            return snap().totalErrors;
+        }
+
+        @Override
+        public String getLastError() {
+            return tab.msgError();
+        }
+
+        @Override
+        public synchronized long getLagMillis() {
+            return lag(snap().lastSuccess);
+        }
+
+        @Override
+        public synchronized long getIntervalMillis() {
+            return snap().interval;
+        }
+
+        @Override
+        public long getNextRunMillis() {
+            return Math.max(0, tab.nextTime - System.currentTimeMillis());
+        }
+
+        @Override
+        public String getLatency() {
+            return tab.latency.format();
+        }
+
+        @Override
+        public boolean isPaused() {
+            return tab.isPaused;
+        }
+
+        @Override
+        public synchronized int getBatchSize() {
+            return snap().batchSize;
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+            if (batchSize < 1) throw new IllegalArgumentException("Размер пакета должен быть больше 0!");
+            model.setBatchSize(tab, batchSize);
+            logger.infof("JMX: %s - пакет записи %d", tab.name, batchSize);
+        }
+
+        @Override
+        public synchronized int getFetchSize() {
+            return snap().fetchSize;
+        }
+
+        @Override
+        public void setFetchSize(int fetchSize) {
+            if (fetchSize < 0) throw new IllegalArgumentException("Размер выборки не может быть отрицательным!");
+            model.setFetchSize(tab, fetchSize);
+            logger.infof("JMX: %s - выборка источника %d", tab.name, fetchSize);
+        }
+
+        @Override
+        public void pause() {
+            tab.isPaused = true;
+            logger.infof("JMX: %s - репликация по расписанию приостановлена", tab.name);
+        }
+
+        @Override
+        public void resume() {
+            tab.isPaused = false;
+            model.requestNow(tab.name);
+            logger.infof("JMX: %s - репликация по расписанию возобновлена", tab.name);
+        }
+
+        @Override
+        public void replicateNow() {
+            model.requestNow(tab.name);
+            logger.infof("JMX: %s - запуск репликации вне расписания", tab.name);
+        }
+    }
+}
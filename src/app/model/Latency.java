@@ -0,0 +1,108 @@
+package app.model;
+
+import util.LatencyHistogram;
+
+/**
+ * Задержки операций репликации по фазам: гистограмма на каждую фазу (LatencyHistogram, значения в мкс). Фазы источника
+ * (подсчёт, выборка, фиксация источника) и приёмника (подготовка, запись, фиксация приёмника) разделены - по ним видно,
+ * какая из БД замедлила цикл. Запись - без блокировок из потоков таблицы (частей, чтения), чтение - по снимкам.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class Latency {
+
+    public enum Phase {
+        /** Открытие сеанса (соединение или его переиспользование, начало транзакции). */
+        CONNECT("подключение"),
+        /** Подсчёт строк к выгрузке (источник). */
+        COUNT("подсчёт"),
+        /** Подготовка записи таблицы в приёмник. */
+        PREPARE("подготовка"),
+        /** Выборка строки из источника. */
+        FETCH("выборка"),
+        /** Запись пакета (строки) в приёмник. */
+        APPLY("запись"),
+        /** Фиксация приёмника (порции или репликации). */
+        COMMIT_DST("фиксация приёмника"),
+        /** Фиксация источника. */
+        COMMIT_SRC("фиксация источника");
+
+        public final String title;
+
+        Phase(String title) {
+            this.title = title;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] hist = new LatencyHistogram[PHASES.length];
+
+    public Latency() {
+        for (int i = 0; i < hist.length; i++) hist[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Учёт операции фазы.
+     *
+     * @param startNanos Начало операции (System.nanoTime).
+     */
+    public void record(Phase phase, long startNanos) {
+        hist[phase.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public LatencyHistogram histogram(Phase phase) {
+        return hist[phase.ordinal()];
+    }
+
+    /** Снимок гистограмм всех фаз (по номеру фазы). */
+    public long[][] snapshot() {
+        long[][] r = new long[hist.length][];
+        for (int i = 0; i < r.length; i++) r[i] = hist[i].snapshot();
+        return r;
+    }
+
+    /** Добавление снимка к накопителю (сумма по таблицам). */
+    static void add(long[][] sum, long[][] snapshot) {
+        for (int i = 0; i < sum.length; i++) {
+            for (int k = 0; k < sum[i].length; k++) sum[i][k] += snapshot[i][k];
+        }
+    }
+
+    /** Разность снимков (операции между снимками prev и cur). */
+    static long[][] delta(long[][] cur, long[][] prev) {
+        long[][] r = new long[cur.length][];
+        for (int i = 0; i < r.length; i++) r[i] = LatencyHistogram.delta(cur[i], prev[i]);
+        return r;
+    }
+
+    /** Перцентили по всем операциям (см. format(long[][])). */
+    public String format() {
+        return format(snapshot());
+    }
+
+    /**
+     * Перцентили p50/p99/p999 и кол-во операций по фазам снимка, например "выборка 12мкс/1,5мс/8,2мс (24000)".
+     *
+     * @return Строка или пусто, если операций не было.
+     */
+    public static String format(long[][] snapshot) {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : PHASES) {
+            long[] h = snapshot[phase.ordinal()];
+            long n = LatencyHistogram.count(h);
+            if (n == 0) continue;
+            sb.append(sb.length() == 0 ? "" : ", ").append(phase.title).append(' ')
+                    .append(fmtMicros(LatencyHistogram.percentile(h, 0.5))).append('/')
+                    .append(fmtMicros(LatencyHistogram.percentile(h, 0.99))).append('/')
+                    .append(fmtMicros(LatencyHistogram.percentile(h, 0.999))).append(" (").append(n).append(')');
+        }
+        return sb.toString();
+    }
+
+    private static String fmtMicros(long us) {
+        if (us < 1000) return us + "мкс";
+        if (us < 1000000) return String.format("%.1fмс", us / 1000.0);
+        return String.format("%.2fс", us / 1000000.0);
+    }
+}
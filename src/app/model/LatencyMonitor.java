@@ -0,0 +1,67 @@
+package app.model;
+
+import static app.App.logger;
+
+/**
+ * Учёт задержек по циклам: после каждого цикла в модель записываются перцентили фаз за цикл (сумма по таблицам и
+ * общим операциям - для отображения состояния), раз в interval мсек они пишутся в лог за прошедший интервал - общие и
+ * по таблицам. Снимки гистограмм снимаются только потоком репликации, запись задержек не останавливается.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class LatencyMonitor {
+
+    private final ServiceModel model;
+    /** Интервал записи в лог (мсек), 0 - не пишется. */
+    private final long interval;
+    /** Снимки на начало цикла и на начало интервала лога (общие и по таблицам). */
+    private long[][] cyclePrev, logPrev;
+    private long[][][] tabPrev;
+    private long logTime;
+
+    /**
+     * Конструктор.
+     *
+     * @param interval Интервал записи задержек в лог (мсек), 0 - не пишутся.
+     */
+    LatencyMonitor(ServiceModel model, long interval) {
+        this.model = model;
+        this.interval = interval;
+        tabPrev = snapshotTabs();
+        cyclePrev = total(tabPrev);
+        logPrev = cyclePrev;
+        logTime = System.currentTimeMillis();
+    }
+
+    private long[][][] snapshotTabs() {
+        long[][][] r = new long[model.tabs.length][][];
+        for (int i = 0; i < r.length; i++) r[i] = model.tabs[i].latency.snapshot();
+        return r;
+    }
+
+    /** Сумма общих задержек и задержек таблиц. */
+    private long[][] total(long[][][] tabs) {
+        long[][] r = model.latency.snapshot();
+        for (long[][] t : tabs) Latency.add(r, t);
+        return r;
+    }
+
+    /** Учёт завершённого цикла. */
+    void afterCycle(long now) {
+        long[][][] tabs = snapshotTabs();
+        long[][] cur = total(tabs);
+        model.setCycleLatency(Latency.format(Latency.delta(cur, cyclePrev)));
+        cyclePrev = cur;
+        if (interval == 0 || now - logTime < interval) return;
+
+        logger.infof("Задержки за %d сек (p50/p99/p999, кол-во): %s", (now - logTime) / 1000,
+                Latency.format(Latency.delta(cur, logPrev)));
+        for (int i = 0; i < tabs.length; i++) {
+            String s = Latency.format(Latency.delta(tabs[i], tabPrev[i]));
+            if (!s.isEmpty()) logger.infof("   %s: %s", model.tabs[i].name, s);
+        }
+        logPrev = cur;
+        tabPrev = tabs;
+        logTime = now;
+    }
+}
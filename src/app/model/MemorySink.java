@@ -0,0 +1,173 @@
+package app.model;
+
+import org.firebirdsql.gds.ISCConstants;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static app.model.MemorySource.pause;
+
+/**
+ * Приёмник репликации в памяти (для замеров и нагрузочных испытаний без рабочих БД). Строки пакета копируются в буфер
+ * и учитываются в счётчиках, данные не сохраняются. Задержки имитируют обращения к серверу: открытие сеанса, запись
+ * пакета, фиксация. Для проверки повторов можно задать конфликт блокировок на каждом N-м пакете.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class MemorySink implements ReplicationSink {
+
+    /** Задержки (мкс): открытие сеанса, запись пакета, фиксация. */
+    private final long openLatency, batchLatency, commitLatency;
+    /** Конфликт блокировок на каждом N-м пакете (0 - без конфликтов). */
+    private final int conflictEvery;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong committedRows = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    /**
+     * Конструктор.
+     *
+     * @param openLatency   Задержка открытия сеанса (мкс).
+     * @param batchLatency  Задержка записи пакета (мкс).
+     * @param commitLatency Задержка фиксации (мкс).
+     * @param conflictEvery Конфликт блокировок на каждом N-м пакете (0 - без конфликтов).
+     */
+    public MemorySink(long openLatency, long batchLatency, long commitLatency, int conflictEvery) {
+        this.openLatency = openLatency;
+        this.batchLatency = batchLatency;
+        this.commitLatency = commitLatency;
+        this.conflictEvery = Math.max(0, conflictEvery);
+    }
+
+    /** Зафиксировано строк (всего). */
+    public long committedRows() {
+        return committedRows.get();
+    }
+
+    public long commits() {
+        return commits.get();
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    public long conflicts() {
+        return conflicts.get();
+    }
+
+    @Override
+    public String name() {
+        return "Memory";
+    }
+
+    @Override
+    public Session open() {
+        pause(openLatency);
+        return new MemorySession();
+    }
+
+    private class MemorySession implements Session {
+
+        /** Записано строк в текущей транзакции. */
+        private final AtomicLong rows = new AtomicLong();
+
+        @Override
+        public RowSink sink(String table, String proc, TransferPlan src, int batchSize) {
+            return new MemoryRowSink(this, table, src, Math.max(1, Math.min(batchSize, BatchImporter.MAX_BATCH_SIZE)));
+        }
+
+        @Override
+        public Savepoint savepoint() {
+            return new MemorySource.MemorySavepoint(rows.get());
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) {
+            rows.set(((MemorySource.MemorySavepoint) savepoint).rows);
+        }
+
+        @Override
+        public void commit() {
+            pause(commitLatency);
+            committedRows.addAndGet(rows.getAndSet(0));
+            commits.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            rows.set(0);
+        }
+    }
+
+    private class MemoryRowSink implements RowSink {
+
+        private final MemorySession session;
+        private final String table;
+        private final TransferPlan plan;
+        private final RowSlot[] buffer;
+        private int pending, applied;
+
+        MemoryRowSink(MemorySession session, String table, TransferPlan plan, int batchSize) {
+            this.session = session;
+            this.table = table;
+            this.plan = plan;
+            this.buffer = new RowSlot[batchSize];
+            for (int i = 0; i < batchSize; i++) buffer[i] = plan.newSlot();
+        }
+
+        @Override
+        public TransferPlan plan() {
+            return plan;
+        }
+
+        @Override
+        public boolean add(RowSlot row) throws SQLException {
+            buffer[pending++].copyFrom(row);
+            return pending == buffer.length && flush();
+        }
+
+        @Override
+        public boolean flush() throws SQLException {
+            applied = 0;
+            if (pending == 0) return false;
+            Object event = FlightEvents.RECORDER.beginBatch(); // Как в BatchImporter.
+            pause(batchLatency);
+            if (conflictEvery > 0 && batches.incrementAndGet() % conflictEvery == 0) {
+                conflicts.incrementAndGet();
+                pending = 0;
+                throw new SQLException("lock conflict on no wait transaction (MemorySink)", "40001",
+                        ISCConstants.isc_lock_conflict);
+            } else if (conflictEvery == 0) {
+                batches.incrementAndGet();
+            }
+            session.rows.addAndGet(pending);
+            applied = pending;
+            pending = 0;
+            FlightEvents.RECORDER.endBatch(event, table, applied, 0);
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            pending = 0;
+            applied = 0;
+        }
+
+        @Override
+        public int applied() {
+            return applied;
+        }
+
+        @Override
+        public int updated() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package app.model;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Источник репликации в памяти (для замеров и нагрузочных испытаний без рабочих БД). Каждая выгрузка таблицы выдаёт
+ * заданное кол-во строк с ключами 0..N-1, значения строк зависят от версии таблицы - она растёт при каждой фиксации
+ * выгрузки таблицы (как повторные изменения тех же строк). Части таблицы - остатки ключа по кол-ву частей. Задержки
+ * имитируют обращения к серверу: открытие сеанса, выборка порции строк, фиксация.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class MemorySource implements ReplicationSource {
+
+    /** Генератор строк таблицы. */
+    public interface RowGenerator {
+        /** План (поля) строк. */
+        TransferPlan plan();
+
+        /** Заполнение строки по ключу и версии таблицы. */
+        void fill(long key, long version, RowSlot slot);
+    }
+
+    private static class Table {
+        final int rows;
+        final RowGenerator generator;
+        final AtomicLong version = new AtomicLong();
+
+        Table(int rows, RowGenerator generator) {
+            this.rows = rows;
+            this.generator = generator;
+        }
+    }
+
+    private final HashMap<String, Table> tables = new HashMap<>();
+    /** Задержки (мкс): открытие сеанса, выборка порции строк, фиксация. */
+    private final long openLatency, fetchLatency, commitLatency;
+    /** Строк в порции выборки (для таблиц без fetch). */
+    private final int fetchRows;
+    /** Выдано строк (всего). */
+    private final AtomicLong exported = new AtomicLong();
+
+    /**
+     * Конструктор.
+     *
+     * @param openLatency   Задержка открытия сеанса (мкс).
+     * @param fetchLatency  Задержка выборки порции строк (мкс).
+     * @param fetchRows     Строк в порции (для таблиц без fetch).
+     * @param commitLatency Задержка фиксации (мкс).
+     */
+    public MemorySource(long openLatency, long fetchLatency, int fetchRows, long commitLatency) {
+        this.openLatency = openLatency;
+        this.fetchLatency = fetchLatency;
+        this.fetchRows = Math.max(1, fetchRows);
+        this.commitLatency = commitLatency;
+    }
+
+    /** Добавление таблицы: кол-во строк в каждой выгрузке и генератор строк. */
+    public MemorySource table(String name, int rows, RowGenerator generator) {
+        tables.put(name, new Table(rows, generator));
+        return this;
+    }
+
+    /** Выдано строк (всего). */
+    public long exported() {
+        return exported.get();
+    }
+
+    @Override
+    public String name() {
+        return "Memory";
+    }
+
+    static void pause(long micros) {
+        if (micros > 0) LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    @Override
+    public Session open() {
+        pause(openLatency);
+        return new Session() {
+            /** Выгруженные в сеансе таблицы (версия растёт при фиксации). */
+            private final HashMap<Table, Boolean> touched = new HashMap<>();
+
+            private Table table(TabInfo tab) throws SQLException {
+                Table t = tables.get(tab.name);
+                if (t == null) throw new SQLException("Таблица " + tab.name + " не задана в источнике!");
+                return t;
+            }
+
+            @Override
+            public int count(TabInfo tab) throws Exception {
+                pause(fetchLatency);
+                return table(tab).rows;
+            }
+
+            @Override
+            public RowStream rows(TabInfo tab) throws Exception {
+                return rows(tab, 1, 0);
+            }
+
+            @Override
+            public RowStream rows(TabInfo tab, int parts, int part) throws Exception {
+                Table t = table(tab);
+                synchronized (touched) {
+                    touched.put(t, Boolean.TRUE);
+                }
+                return new MemoryStream(t, parts, part, tab.fetchSize > 0 ? tab.fetchSize : fetchRows);
+            }
+
+            @Override
+            public Savepoint savepoint() {
+                return new MemorySavepoint(0);
+            }
+
+            @Override
+            public void rollback(Savepoint savepoint) {
+            }
+
+            @Override
+            public void commit() {
+                pause(commitLatency);
+                synchronized (touched) {
+                    for (Table t : touched.keySet()) t.version.incrementAndGet();
+                    touched.clear();
+                }
+            }
+
+            @Override
+            public void close() {
+                synchronized (touched) {
+                    touched.clear();
+                }
+            }
+        };
+    }
+
+    private class MemoryStream implements RowStream {
+
+        private final RowGenerator generator;
+        private final long version;
+        private final int rows, parts, fetch;
+        private long key;
+        private int fetched;
+        private TransferPlan read;
+
+        MemoryStream(Table t, int parts, int part, int fetch) {
+            this.generator = t.generator;
+            this.version = t.version.get();
+            this.rows = t.rows;
+            this.parts = Math.max(1, parts);
+            this.key = part;
+            this.fetch = fetch;
+            this.read = generator.plan();
+        }
+
+        @Override
+        public TransferPlan plan() {
+            return generator.plan();
+        }
+
+        @Override
+        public void use(TransferPlan plan) {
+            read = plan;
+        }
+
+        @Override
+        public boolean next(RowSlot slot) {
+            if (key >= rows) return false;
+            if (fetched++ % fetch == 0) pause(fetchLatency);
+            generator.fill(key, version, slot);
+            if (read != generator.plan()) read.adapt(generator.plan(), slot);
+            key += parts;
+            exported.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Точка сохранения сеанса в памяти. */
+    static class MemorySavepoint implements Savepoint {
+        final long rows;
+
+        MemorySavepoint(long rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int getSavepointId() {
+            return 0;
+        }
+
+        @Override
+        public String getSavepointName() {
+            return null;
+        }
+    }
+
+    /**
+     * Генератор строк, похожих на транзакции ТК: ID (BIGINT, ключ), CARD (INTEGER), AMOUNT (NUMERIC(15,2)), DT
+     * (TIMESTAMP), NOTE (VARCHAR заданной длины).
+     *
+     * @param textLength Длина строкового поля.
+     */
+    public static RowGenerator transactions(int textLength) {
+        final TransferPlan plan = TransferPlan.of(
+                new int[]{TransferPlan.K_LONG, TransferPlan.K_INT, TransferPlan.K_DECIMAL, TransferPlan.K_TIMESTAMP,
+                        TransferPlan.K_STRING},
+                new String[]{"ID", "CARD", "AMOUNT", "DT", "NOTE"});
+        final char[] text = new char[Math.max(0, textLength)];
+        return new RowGenerator() {
+            @Override
+            public TransferPlan plan() {
+                return plan;
+            }
+
+            @Override
+            public void fill(long key, long version, RowSlot slot) {
+                long h = (key * 0x9E3779B97F4A7C15L) ^ (version * 0xC2B2AE3D27D4EB4FL);
+                h ^= h >>> 29;
+                slot.longs[0] = key;
+                slot.longs[1] = (int) (h & 0xFFFFF);
+                slot.refs[2] = BigDecimal.valueOf((h >>> 20) % 1000000, 2);
+                slot.refs[3] = new Timestamp(1500000000000L + (h >>> 40) * 1000);
+                for (int i = 0; i < text.length; i++) text[i] = (char) ('A' + (int) ((h >>> (i % 48)) & 15));
+                slot.refs[4] = new String(text);
+                for (int i = 0; i < 5; i++) slot.nulls[i] = false;
+            }
+        };
+    }
+}
@@ -0,0 +1,224 @@
+package app.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fbdbengine.FB_ConnectionManager;
+import fbdbengine.FB_Database;
+import util.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static app.App.logger;
+
+/**
+ * HTTP-точка метрик репликации в текстовом формате OpenMetrics (для Prometheus и совместимых систем мониторинга):
+ * GET /metrics. Метрики берутся из снимка модели (ServiceModel.copyTo - оптимистичное чтение), поэтому опрос не
+ * задерживает репликацию. Запросы обрабатываются по одному потоком сервера, снимок переиспользуется между запросами.
+ * <p>
+ * Счётчики (_total) - с запуска службы: строки таблиц считаются по завершённым репликациям таблиц.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class MetricsServer {
+
+    private static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final AppModel model;
+    private final HttpServer server;
+    /** Снимок модели (только поток сервера). */
+    private final ServiceModel snap;
+    private final StringBuilder sb = new StringBuilder(16384);
+
+    /**
+     * Конструктор (сервер запускается start()).
+     *
+     * @param host Адрес прослушивания (пусто - все адреса).
+     * @param port Порт.
+     */
+    MetricsServer(AppModel model, String host, int port) throws IOException {
+        this.model = model;
+        this.snap = model.replModel.createCopy();
+        server = HttpServer.create(host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::handle);
+    }
+
+    void start() {
+        server.start();
+        logger.infof("Метрики: http://%s:%d/metrics", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.errorf(e, "Ошибка формирования метрик!");
+            ex.sendResponseHeaders(500, -1);
+        } finally {
+            ex.close();
+        }
+    }
+
+    /** Текст метрик по текущему снимку модели. */
+    String scrape() {
+        model.replModel.copyTo(snap);
+        long now = System.currentTimeMillis();
+        sb.setLength(0);
+
+        family("wr_cycles", "counter", "Успешные репликации");
+        sample("wr_cycles_total", "", snap.allCount);
+        family("wr_cycle_errors", "counter", "Репликации с ошибкой");
+        sample("wr_cycle_errors_total", "", snap.allErrors);
+        family("wr_cycle_duration_seconds", "gauge", "Длительность последней завершённой репликации");
+        if (snap.allCount + snap.allErrors > 0) sample("wr_cycle_duration_seconds", "", seconds(snap.lastMsec));
+        family("wr_replication_running", "gauge", "Идёт репликация (1)");
+        sample("wr_replication_running", "", snap.isReplication ? 1 : 0);
+        family("wr_catchup", "gauge", "Действует догоняющий режим (1)");
+        sample("wr_catchup", "", snap.isCatchup ? 1 : 0);
+        family("wr_replication_lag_seconds", "gauge", "Время с окончания последней успешной репликации");
+        if (snap.lastSuccess > 0) sample("wr_replication_lag_seconds", "", seconds(now - snap.lastSuccess));
+
+        family("wr_table_rows_read", "counter", "Строки, выгруженные из источника");
+        for (TabInfo t : snap.tabs) sample("wr_table_rows_read_total", table(t), t.totalRows);
+        family("wr_table_rows_written", "counter", "Строки, записанные в приёмник");
+        for (TabInfo t : snap.tabs) sample("wr_table_rows_written_total", table(t), t.totalWrited);
+        family("wr_table_rows_skipped", "counter", "Строки, пропущенные при записи (кэш строк, контрольная точка)");
+        for (TabInfo t : snap.tabs) sample("wr_table_rows_skipped_total", table(t), t.totalSkipped);
+        family("wr_table_rows_updated", "counter", "Записанные строки, обновившие существующие");
+        for (TabInfo t : snap.tabs) sample("wr_table_rows_updated_total", table(t), t.totalUpdated);
+        family("wr_table_errors", "counter", "Ошибки репликации таблицы");
+        for (TabInfo t : snap.tabs) sample("wr_table_errors_total", table(t), t.totalErrors);
+        family("wr_table_retries", "gauge", "Повторы при конфликтах блокировок в последней репликации таблицы");
+        for (TabInfo t : snap.tabs) sample("wr_table_retries", table(t), t.retries);
+        family("wr_table_lag_seconds", "gauge", "Время с окончания последней успешной репликации таблицы");
+        for (TabInfo t : snap.tabs) {
+            if (t.lastSuccess > 0) sample("wr_table_lag_seconds", table(t), seconds(now - t.lastSuccess));
+        }
+        family("wr_table_latency_seconds", "gauge", "Задержки операций таблицы по фазам с запуска (перцентили)");
+        for (TabInfo t : snap.tabs) latency(table(t), t.latency);
+        latency("", snap.latency); // Операции вне таблиц.
+
+        family("wr_dest_rows", "counter", "Строки, зафиксированные в дополнительном приёмнике");
+        for (DestInfo d : snap.dests) sample("wr_dest_rows_total", label("dest", d.name), d.rows);
+        family("wr_dest_commits", "counter", "Фиксации дополнительного приёмника");
+        for (DestInfo d : snap.dests) sample("wr_dest_commits_total", label("dest", d.name), d.commits);
+        family("wr_dest_errors", "counter", "Ошибки дополнительного приёмника");
+        for (DestInfo d : snap.dests) sample("wr_dest_errors_total", label("dest", d.name), d.errors);
+        family("wr_dest_spool_bytes", "gauge", "Объём спула дополнительного приёмника");
+        for (DestInfo d : snap.dests) sample("wr_dest_spool_bytes", label("dest", d.name), d.spoolBytes);
+        Spool spool = model.getSpool();
+        if (spool != null) {
+            family("wr_spool_pending_segments", "gauge", "Сегменты спула к применению");
+            sample("wr_spool_pending_segments", "", spool.pending());
+            family("wr_spool_bytes", "gauge", "Объём спула");
+            sample("wr_spool_bytes", "", spool.bytes());
+            family("wr_spool_applied_rows", "counter", "Строки, применённые из спула");
+            sample("wr_spool_applied_rows_total", "", spool.appliedRows());
+        }
+
+        FB_Database src = model.getSrcDatabase(), dst = model.getDstDatabase();
+        FB_ConnectionManager srcCm = model.srcManager(), dstCm = model.dstManager();
+        family("wr_db_connects", "counter", "Открытые соединения с БД");
+        if (src != null) sample("wr_db_connects_total", "db=\"src\"", src.getConnectCount());
+        if (dst != null) sample("wr_db_connects_total", "db=\"dst\"", dst.getConnectCount());
+        family("wr_db_connect_seconds", "counter", "Время открытия соединений с БД");
+        if (src != null) sample("wr_db_connect_seconds_total", "db=\"src\"", src.getConnectTime() / 1e9);
+        if (dst != null) sample("wr_db_connect_seconds_total", "db=\"dst\"", dst.getConnectTime() / 1e9);
+        family("wr_db_idle_connections", "gauge", "Свободные (сохранённые) соединения с БД");
+        if (srcCm != null) sample("wr_db_idle_connections", "db=\"src\"", srcCm.getIdleCount());
+        if (dstCm != null) sample("wr_db_idle_connections", "db=\"dst\"", dstCm.getIdleCount());
+        family("wr_db_reconnects", "counter", "Замены потерянных соединений с БД");
+        if (srcCm != null) sample("wr_db_reconnects_total", "db=\"src\"", srcCm.getReconnectCount());
+        if (dstCm != null) sample("wr_db_reconnects_total", "db=\"dst\"", dstCm.getReconnectCount());
+        family("wr_db_idle_expired", "counter", "Свободные соединения с БД, закрытые по простою");
+        if (srcCm != null) sample("wr_db_idle_expired_total", "db=\"src\"", srcCm.getExpiredCount());
+        if (dstCm != null) sample("wr_db_idle_expired_total", "db=\"dst\"", dstCm.getExpiredCount());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        family("jvm_memory_used_bytes", "gauge", "Используемая память JVM");
+        sample("jvm_memory_used_bytes", "area=\"heap\"", heap.getUsed());
+        sample("jvm_memory_used_bytes", "area=\"nonheap\"", nonHeap.getUsed());
+        family("jvm_memory_committed_bytes", "gauge", "Выделенная память JVM");
+        sample("jvm_memory_committed_bytes", "area=\"heap\"", heap.getCommitted());
+        sample("jvm_memory_committed_bytes", "area=\"nonheap\"", nonHeap.getCommitted());
+        family("jvm_memory_max_bytes", "gauge", "Предел памяти JVM");
+        sample("jvm_memory_max_bytes", "area=\"heap\"", heap.getMax());
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        family("jvm_gc_collections", "counter", "Сборки мусора");
+        for (GarbageCollectorMXBean gc : gcs) {
+            sample("jvm_gc_collections_total", label("gc", gc.getName()), Math.max(0, gc.getCollectionCount()));
+        }
+        family("jvm_gc_collection_seconds", "counter", "Время сборок мусора");
+        for (GarbageCollectorMXBean gc : gcs) {
+            sample("jvm_gc_collection_seconds_total", label("gc", gc.getName()),
+                    seconds(Math.max(0, gc.getCollectionTime())));
+        }
+        family("jvm_threads_current", "gauge", "Потоки JVM");
+        sample("jvm_threads_current", "", ManagementFactory.getThreadMXBean().getThreadCount());
+
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    private void latency(String labels, Latency latency) {
+        for (Latency.Phase phase : Latency.Phase.values()) {
+            long[] h = latency.histogram(phase).snapshot();
+            if (LatencyHistogram.count(h) == 0) continue;
+            for (double q : QUANTILES) {
+                sample("wr_table_latency_seconds", (labels.isEmpty() ? "" : labels + ",") + label("phase",
+                        phase.name().toLowerCase()) + ",quantile=\"" + q + "\"", LatencyHistogram.percentile(h, q) / 1e6);
+            }
+        }
+    }
+
+    private void family(String name, String type, String help) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private void sample(String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private void sample(String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static double seconds(long millis) {
+        return millis / 1000.0;
+    }
+
+    private static String table(TabInfo tab) {
+        return label("table", tab.name);
+    }
+
+    /** Метка с экранированием значения. */
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+    }
+}
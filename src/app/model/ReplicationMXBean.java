@@ -0,0 +1,53 @@
+package app.model;
+
+/**
+ * Состояние и управление службой репликации через JMX (WebReplicator:type=Replication). Атрибуты читаются из снимка
+ * модели (оптимистичное чтение, без задержки репликации), операции действуют на работающую службу до перезапуска.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface ReplicationMXBean {
+
+    /** Успешные репликации с запуска. */
+    int getCycles();
+
+    /** Репликации с ошибкой с запуска. */
+    int getFailedCycles();
+
+    boolean isReplicating();
+
+    /** Действует догоняющий режим. */
+    boolean isCatchup();
+
+    /** Длительность последней завершённой репликации (мсек). */
+    long getLastCycleMillis();
+
+    /** Время с окончания последней успешной репликации (мсек), -1 - не было. */
+    long getLagMillis();
+
+    /** Строки текущей (последней) репликации. */
+    long getCurrentRows();
+
+    /** Задержки фаз последней репликации (p50/p99/p999, кол-во). */
+    String getCycleLatency();
+
+    /** Время до следующей репликации по расписанию (мсек), -1 - не определено. */
+    long getNextCycleMillis();
+
+    /** Ошибка последней репликации (null - нет). */
+    String getLastError();
+
+    /** Пауза между репликациями (мсек), в т.ч. интервал таблиц без своего интервала в каталоге. */
+    int getDelay();
+
+    void setDelay(int delay);
+
+    /** Запуск репликации всех таблиц вне расписания. */
+    void replicateNow();
+
+    /** Приостановка репликации таблицы по расписанию, false - таблица не найдена. */
+    boolean pauseTable(String name);
+
+    /** Возобновление репликации таблицы по расписанию, false - таблица не найдена. */
+    boolean resumeTable(String name);
+}
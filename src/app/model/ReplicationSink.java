@@ -0,0 +1,43 @@
+package app.model;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Приёмник репликации: загрузка строк таблиц. Реализации - БД ФБ (FirebirdSink, по умолчанию) и память (MemorySink,
+ * для замеров и нагрузочных испытаний без рабочих БД).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface ReplicationSink {
+
+    /** Имя приёмника (для сообщений). */
+    String name();
+
+    /** Открытие сеанса - транзакции приёмника. */
+    Session open() throws Exception;
+
+    /** Сеанс приёмника. Незафиксированные изменения откатываются при закрытии. */
+    interface Session extends AutoCloseable {
+
+        /**
+         * Запись строк таблицы.
+         *
+         * @param table     Таблица.
+         * @param proc      Процедура загрузки.
+         * @param src       План источника.
+         * @param batchSize Желаемый размер пакета.
+         */
+        RowSink sink(String table, String proc, TransferPlan src, int batchSize) throws SQLException;
+
+        Savepoint savepoint() throws SQLException;
+
+        void rollback(Savepoint savepoint) throws SQLException;
+
+        void commit() throws SQLException;
+
+        /** Закрытие сеанса (с откатом незафиксированного), без исключений. */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,50 @@
+package app.model;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.BitSet;
+
+/**
+ * Источник репликации: выгрузка изменений таблиц. Реализации - БД ФБ (FirebirdSource, по умолчанию) и память
+ * (MemorySource, для замеров и нагрузочных испытаний без рабочих БД).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface ReplicationSource {
+
+    /** Имя источника (для сообщений). */
+    String name();
+
+    /** Открытие сеанса - транзакции источника (снапшота), в которой выгрузка отмечает строки выгруженными. */
+    Session open() throws Exception;
+
+    /**
+     * Сеанс источника. Не зафиксированная выгрузка откатывается при закрытии - строки будут выгружены повторно.
+     */
+    interface Session extends AutoCloseable {
+
+        /** Кол-во строк к выгрузке (-1 - неизвестно). */
+        int count(TabInfo tab) throws Exception;
+
+        /** Кол-во строк к выгрузке по нескольким таблицам (результат - в TabInfo.initCount). */
+        default void counts(TabInfo[] tabs, BitSet due) throws Exception {
+            for (int i = due.nextSetBit(0); i >= 0; i = due.nextSetBit(i + 1)) tabs[i].initCount(count(tabs[i]));
+        }
+
+        /** Выгрузка таблицы целиком. */
+        RowStream rows(TabInfo tab) throws Exception;
+
+        /** Выгрузка части таблицы (диапазона ключей). */
+        RowStream rows(TabInfo tab, int parts, int part) throws Exception;
+
+        Savepoint savepoint() throws SQLException;
+
+        void rollback(Savepoint savepoint) throws SQLException;
+
+        void commit() throws SQLException;
+
+        /** Закрытие сеанса (с откатом незафиксированного), без исключений. */
+        @Override
+        void close();
+    }
+}
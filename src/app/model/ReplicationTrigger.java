@@ -0,0 +1,135 @@
+package app.model;
+
+import fbdbengine.FB_Database;
+import org.firebirdsql.event.DatabaseEvent;
+import org.firebirdsql.event.EventListener;
+import org.firebirdsql.event.FBEventManager;
+
+import java.io.Closeable;
+import java.util.LinkedHashSet;
+
+import static app.App.logger;
+
+/**
+ * Запуск репликации по событиям БД-источника (POST_EVENT) вместо опроса с фиксированной паузой. Пачка событий
+ * объединяется: после первого события выжидается окно тишины (debounce), но не дольше десяти окон. События, пришедшие
+ * во время репликации, запускают следующую репликацию сразу после текущей.
+ * <p>
+ * Пауза между репликациями остаётся контрольным таймером: при отсутствии событий (или потере соединения менеджера
+ * событий) репликация запускается по его истечении. Потерянное соединение менеджера восстанавливается при следующем
+ * ожидании.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class ReplicationTrigger implements Closeable {
+
+    /** Префикс имени события, остаток имени - имя таблицы (WR_CHANGED_TRANS -> TRANS). */
+    public static final String EVENT_PREFIX = "WR_CHANGED_";
+
+    private final FB_Database db;
+    private final String[] events;
+    /** Окно объединения событий (мсек). */
+    private final long debounce;
+    private FBEventManager em;
+    private final EventListener listener;
+    /** Имена сработавших событий с момента последнего ожидания. */
+    private final LinkedHashSet<String> signaled = new LinkedHashSet<>();
+    /** Время последнего события (мсек). */
+    private long lastEventTime;
+
+    /**
+     * Конструктор.
+     *
+     * @param db       БД-источник.
+     * @param events   Имена событий.
+     * @param debounce Окно объединения событий (мсек).
+     */
+    public ReplicationTrigger(FB_Database db, String[] events, long debounce) {
+        this.db = db;
+        this.events = events;
+        this.debounce = Math.max(0, debounce);
+        this.listener = this::onEvent;
+    }
+
+    private void onEvent(DatabaseEvent event) {
+        if (event.getEventCount() <= 0) return; // Первичная регистрация.
+        signal(event.getEventName());
+    }
+
+    /** Сигнал события (от БД или запрос репликации вне расписания), прерывает ожидание. */
+    public void signal(String name) {
+        synchronized (signaled) {
+            signaled.add(name);
+            lastEventTime = System.currentTimeMillis();
+            signaled.notifyAll();
+        }
+    }
+
+    /** Подключение менеджера событий (если не подключен). При ошибке - работа только по таймеру. */
+    private void connect() {
+        if (em != null && em.isConnected()) return;
+        disconnect();
+        try {
+            FBEventManager m = db.createEventManager();
+            m.connect();
+            try {
+                for (String name : events) m.addEventListener(name, listener);
+            } catch (Exception ex) {
+                try {
+                    m.disconnect();
+                } catch (Exception ignore) {
+                }
+                throw ex;
+            }
+            em = m;
+            logger.infof("Подписка на события БД: %s", String.join(", ", events));
+        } catch (Exception ex) {
+            logger.errorf(ex, "Ошибка подписки на события БД! Репликация по таймеру.");
+        }
+    }
+
+    private void disconnect() {
+        if (em == null) return;
+        try {
+            if (em.isConnected()) em.disconnect();
+        } catch (Exception ignore) {
+        }
+        em = null;
+    }
+
+    /**
+     * Ожидание события (с объединением пачки событий) или истечения таймера.
+     *
+     * @param timeout Контрольный таймер (мсек).
+     * @return Имена сработавших событий (пустой массив - по таймеру).
+     * @throws InterruptedException
+     */
+    public String[] await(long timeout) throws InterruptedException {
+        connect();
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (signaled) {
+            long left;
+            while (signaled.isEmpty() && (left = end - System.currentTimeMillis()) > 0) signaled.wait(left);
+            if (signaled.isEmpty()) return new String[0];
+
+            // Окно тишины после последнего события (не дольше десяти окон от начала).
+            long limit = System.currentTimeMillis() + debounce * 10;
+            while ((left = Math.min(lastEventTime + debounce, limit) - System.currentTimeMillis()) > 0) {
+                signaled.wait(left);
+            }
+            String[] res = signaled.toArray(new String[0]);
+            signaled.clear();
+            return res;
+        }
+    }
+
+    /** Имя таблицы по имени события (null - не соответствует шаблону). */
+    public static String tableOf(String event) {
+        return event.startsWith(EVENT_PREFIX) ? event.substring(EVENT_PREFIX.length()) : null;
+    }
+
+    @Override
+    public void close() {
+        disconnect();
+    }
+}
@@ -0,0 +1,317 @@
+package app.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Кэш хэшей реплицированных строк таблицы: ключ (первичный ключ строки) -> 64-битный хэш последнего записанного в
+ * приёмник образа строки. Строка, хэш которой совпадает с кэшем, в приёмник не передаётся (ничего бы не изменила).
+ * <p>
+ * Хэш-таблица с открытой адресацией (линейное пробирование) без объектов и упаковки, хранится вне кучи в отображаемом в
+ * память файле и переживает перезапуск. Слот - пара (ключ, хэш), хэш 0 - пустой слот.
+ * <p>
+ * Изменения применяются сразу (для повторов ключа в одной выгрузке), но до фиксации приёмника считаются
+ * незафиксированными: старые значения ведутся в журнале отката и восстанавливаются при откате приёмника (rollback,
+ * discard). Пока есть незафиксированные изменения, в заголовке файла стоит признак, и после сбоя такой файл
+ * сбрасывается целиком - кэш может только отставать от приёмника (лишние записи), но не опережать его.
+ * <p>
+ * Размер отображённого файла не изменяется: расширенная таблица строится в новом файле (&lt;файл&gt;.&lt;ёмкость&gt;),
+ * который затем заменяет прежний. Если замена невозможна (ОС не позволяет заменить отображённый файл), работа
+ * продолжается с новым файлом, а замена выполняется при следующем открытии.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class RowHashCache implements Closeable {
+
+    private static final int MAGIC = 0x57524843; // "WRHC"
+    private static final int VERSION = 1;
+    /** Заголовок: магия, версия, признак незафиксированных изменений, резерв, ёмкость, кол-во. */
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    /** Предельная заполненность перед расширением (в процентах). */
+    private static final int LOAD_PERCENT = 70;
+    /** Наибольшая ёмкость (слотов) - ограничение размера отображения 2Г. */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /** Файл кэша. */
+    private final File file;
+    /** Открытый файл (файл кэша или расширенная таблица, ещё не заменившая его). */
+    private RandomAccessFile raf;
+    private MappedByteBuffer buf;
+    private int capacity, mask;
+    private int size;
+    private boolean isDirty;
+    /** Журнал отката: пары (ключ, прежний хэш), 0 - ключа не было. */
+    private long[] undo = new long[256];
+    private int undoLength;
+    /** Признак сброса кэша при открытии (файл повреждён или остались незафиксированные изменения). */
+    private boolean isReset;
+
+    /**
+     * Открытие (создание) кэша.
+     *
+     * @param file     Файл.
+     * @param capacity Начальная ёмкость (слотов, округляется до степени двойки).
+     */
+    public RowHashCache(File file, int capacity) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) throw new IOException("Не удалось создать каталог " + dir);
+        this.file = file;
+        replaceByGrown();
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean isValid = false;
+            if (raf.length() >= HEADER_SIZE) {
+                // Заголовок читается без отображения: при сбросе файл усекается.
+                int magic = raf.readInt(), version = raf.readInt(), dirty = raf.readInt();
+                raf.readInt();
+                long cap = raf.readLong();
+                isValid = magic == MAGIC && version == VERSION && dirty == 0
+                        && cap > 0 && cap <= MAX_CAPACITY && Long.bitCount(cap) == 1
+                        && raf.length() == HEADER_SIZE + cap * SLOT_SIZE;
+                if (isValid) {
+                    map(raf, (int) cap, false);
+                    size = (int) buf.getLong(24);
+                }
+            }
+            isReset = !isValid && raf.length() > 0;
+            if (!isValid) map(raf, Math.max(16, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1), true);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Замена файла кэша расширенной таблицей, оставшейся от прошлой работы (последней по ёмкости), удаление прочих.
+     */
+    private void replaceByGrown() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File[] list = dir == null ? null : dir.listFiles();
+        if (list == null) return;
+        String prefix = file.getName() + ".";
+        File last = null;
+        long lastCapacity = 0;
+        for (File f : list) {
+            String name = f.getName();
+            if (!name.startsWith(prefix) || !name.substring(prefix.length()).matches("\\d{1,9}")) continue;
+            long cap = Long.parseLong(name.substring(prefix.length()));
+            if (cap > lastCapacity) {
+                if (last != null) Files.deleteIfExists(last.toPath());
+                last = f;
+                lastCapacity = cap;
+            } else {
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+        if (last != null) Files.move(last.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Отображение файла заданной ёмкости (при очистке - с обнулением). Размер файла изменяется только до его
+     * отображения.
+     */
+    private void map(RandomAccessFile raf, int capacity, boolean isClear) throws IOException {
+        long length = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        if (isClear) raf.setLength(0);
+        raf.setLength(length);
+        buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        if (isClear) {
+            size = 0;
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putInt(8, isDirty ? 1 : 0);
+            buf.putLong(16, capacity);
+            buf.putLong(24, 0);
+        }
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        return k ^ (k >>> 33);
+    }
+
+    /** Позиция слота ключа или пустого слота, где ключ должен быть. */
+    private int find(long key) {
+        int i = (int) mix(key) & mask;
+        while (true) {
+            int off = offset(i);
+            if (buf.getLong(off + 8) == 0 || buf.getLong(off) == key) return i;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /** Хэш строки по ключу (0 - нет). */
+    public synchronized long get(long key) {
+        return buf.getLong(offset(find(key)) + 8);
+    }
+
+    /**
+     * Проверка строки: совпадение хэша с кэшем или запоминание нового хэша (незафиксированно).
+     *
+     * @param hash Хэш образа строки (не 0).
+     * @return true - строка не изменилась с последней записи, false - изменилась (хэш запомнен).
+     */
+    public synchronized boolean check(long key, long hash) throws IOException {
+        int slot = find(key);
+        long old = buf.getLong(offset(slot) + 8);
+        if (old == hash) return true;
+        if (old == 0 && capacity >= MAX_CAPACITY && (size + 1) * 100L > (long) capacity * LOAD_PERCENT) {
+            return false; // Кэш заполнен - новые ключи не запоминаются.
+        }
+        setDirty();
+        if (undoLength == undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
+        undo[undoLength++] = key;
+        undo[undoLength++] = old;
+        if (old == 0) {
+            if ((size + 1) * 100L > (long) capacity * LOAD_PERCENT && capacity < MAX_CAPACITY) {
+                grow();
+                slot = find(key);
+            }
+            buf.putLong(offset(slot), key);
+            size++;
+        }
+        buf.putLong(offset(slot) + 8, hash);
+        return false;
+    }
+
+    /** Удаление ключа (со сдвигом последующих слотов цепочки). */
+    private void remove(long key) {
+        int i = find(key);
+        if (buf.getLong(offset(i) + 8) == 0) return;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long h = buf.getLong(offset(j) + 8);
+            if (h == 0) break;
+            long k = buf.getLong(offset(j));
+            int home = (int) mix(k) & mask;
+            // Слот j можно перенести в i, если его "домашняя" позиция не лежит между i (искл.) и j (вкл.).
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                buf.putLong(offset(i), k);
+                buf.putLong(offset(i) + 8, h);
+                i = j;
+            }
+        }
+        buf.putLong(offset(i), 0);
+        buf.putLong(offset(i) + 8, 0);
+        size--;
+    }
+
+    /**
+     * Расширение таблицы вдвое: содержимое временно копируется в кучу и переносится в новый файл, который заменяет
+     * прежний (отображённый файл не усекается и не расширяется).
+     */
+    private void grow() throws IOException {
+        long[] keys = new long[size], hashes = new long[size];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            long h = buf.getLong(offset(i) + 8);
+            if (h != 0) {
+                keys[n] = buf.getLong(offset(i));
+                hashes[n++] = h;
+            }
+        }
+        File grown = new File(file.getPath() + "." + capacity * 2);
+        RandomAccessFile next = new RandomAccessFile(grown, "rw");
+        try {
+            map(next, capacity * 2, true); // При ошибке прежнее отображение остаётся действующим.
+        } catch (IOException ex) {
+            next.close();
+            Files.deleteIfExists(grown.toPath());
+            throw ex;
+        }
+        for (int k = 0; k < n; k++) {
+            int slot = find(keys[k]);
+            buf.putLong(offset(slot), keys[k]);
+            buf.putLong(offset(slot) + 8, hashes[k]);
+        }
+        size = n;
+        buf.force();
+        RandomAccessFile old = raf;
+        raf = next;
+        old.close();
+        try {
+            Files.move(grown.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ignore) {
+            // Прежний файл ещё отображён (Windows) - замена при следующем открытии.
+        }
+    }
+
+    private void setDirty() {
+        if (isDirty) return;
+        isDirty = true;
+        buf.putInt(8, 1);
+        buf.force();
+    }
+
+    /** Позиция журнала отката (для частичного отката). */
+    public synchronized int mark() {
+        return undoLength;
+    }
+
+    /** Откат изменений, сделанных после позиции журнала. */
+    public synchronized void rollback(int mark) {
+        while (undoLength > mark) {
+            long old = undo[--undoLength];
+            long key = undo[--undoLength];
+            if (old == 0) {
+                remove(key);
+            } else {
+                buf.putLong(offset(find(key)) + 8, old);
+            }
+        }
+    }
+
+    /** Откат всех незафиксированных изменений (приёмник откачен). */
+    public synchronized void discard() {
+        rollback(0);
+        clean();
+    }
+
+    /** Фиксация изменений (приёмник зафиксирован): сброс журнала и признака, запись на диск. */
+    public synchronized void commit() {
+        undoLength = 0;
+        clean();
+    }
+
+    private void clean() {
+        if (!isDirty) return;
+        buf.putLong(24, size);
+        buf.putInt(8, 0);
+        buf.force();
+        isDirty = false;
+    }
+
+    /** Признак сброса кэша при открытии. */
+    public boolean isReset() {
+        return isReset;
+    }
+
+    /** Кол-во ключей. */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        discard();
+        raf.close();
+    }
+}
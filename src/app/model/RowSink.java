@@ -0,0 +1,41 @@
+package app.model;
+
+import java.sql.SQLException;
+
+/**
+ * Пакетная запись строк таблицы в приёмник (в транзакции сеанса приёмника).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface RowSink extends AutoCloseable {
+
+    /** План приёмника (для чтения строк источника в слоты). */
+    TransferPlan plan();
+
+    /**
+     * Добавление строки в пакет. Значения копируются, слот можно переиспользовать.
+     *
+     * @return true - была запись пакета (результат в applied() и updated()), false - строка только накоплена.
+     */
+    boolean add(RowSlot row) throws SQLException;
+
+    /**
+     * Запись накопленных строк.
+     *
+     * @return true - была запись (результат в applied() и updated()), false - нечего записывать.
+     */
+    boolean flush() throws SQLException;
+
+    /** Сброс накопленных строк без записи (после отката к точке сохранения). */
+    void reset();
+
+    /** Кол-во строк, записанных последней операцией записи. */
+    int applied();
+
+    /** Кол-во обновлений последней операции записи. */
+    int updated();
+
+    /** Закрытие без исключений. */
+    @Override
+    void close();
+}
@@ -0,0 +1,35 @@
+package app.model;
+
+/**
+ * Строка для передачи из БД-источника в БД-приёмник по плану TransferPlan. Значения числовых полей хранятся без
+ * упаковки в массиве long (для вещественных - биты double), остальные - ссылками. Слот создаётся планом один раз и
+ * переиспользуется для всех строк.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public final class RowSlot {
+
+    /** Значения целых и вещественных полей. */
+    final long[] longs;
+    /** Значения ссылочных полей (строки, даты, десятичные и т.п.). */
+    final Object[] refs;
+    /** Признаки NULL. */
+    final boolean[] nulls;
+
+    RowSlot(int columns) {
+        longs = new long[columns];
+        refs = new Object[columns];
+        nulls = new boolean[columns];
+    }
+
+    public int columns() {
+        return nulls.length;
+    }
+
+    /** Копирование значений из другого слота того же плана (без выделения памяти). */
+    void copyFrom(RowSlot src) {
+        System.arraycopy(src.longs, 0, longs, 0, longs.length);
+        System.arraycopy(src.refs, 0, refs, 0, refs.length);
+        System.arraycopy(src.nulls, 0, nulls, 0, nulls.length);
+    }
+}
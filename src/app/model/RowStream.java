@@ -0,0 +1,31 @@
+package app.model;
+
+import java.sql.SQLException;
+
+/**
+ * Поток строк выгрузки таблицы из источника.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface RowStream extends AutoCloseable {
+
+    /** План источника (типы полей выгрузки). */
+    TransferPlan plan();
+
+    /**
+     * Чтение следующих строк по плану приёмника (составленному по плану источника) - без преобразования строк. До
+     * вызова строки читаются по плану источника.
+     */
+    void use(TransferPlan plan);
+
+    /**
+     * Чтение следующей строки в слот.
+     *
+     * @return false - строки закончились.
+     */
+    boolean next(RowSlot slot) throws SQLException;
+
+    /** Закрытие без исключений. */
+    @Override
+    void close();
+}
@@ -1,28 +1,69 @@
 package app.model;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.concurrent.locks.StampedLock;
 
 import static util.DateTools.toMillis;
 
+/**
+ * Состояние службы репликации. Изменения (начало и конец репликации и таблиц, настройки) редки и идут под блокировкой
+ * записи, снимки для отображения и метрик (copyTo) снимаются оптимистичным чтением и не задерживают репликацию.
+ * Таблицы и приёмники снимаются своими copyTo - без блокировки модели, прогресс таблиц обновляется без блокировок.
+ */
 public class ServiceModel {
     public LocalDateTime startTime;
 
     public int allCount;
     public long allMsec;
     public int allRowCount;
+    /** Репликаций с ошибкой (с запуска) и время окончания последней успешной репликации (мсек, 0 - не было). */
+    public int allErrors;
+    public long lastSuccess;
+    /** Длительность последней завершённой репликации (мсек). */
+    public long lastMsec;
 
     public LocalDateTime curStartTime, curEndTime;
     public long curRowCount; // кол-во реплицированных строк.
+    /** Время открытия соединений и подготовки запросов за репликацию (мсек). */
+    public long curConnectMsec, curPrepareMsec;
+    /** Задержки фаз последней репликации: p50/p99/p999 и кол-во операций (null - нет данных). */
+    public String curLatency;
+    /** Транзакции источника в текущей (последней) репликации: кол-во и наибольшее время удержания (мсек). */
+    public int curSourceTx;
+    public long curSourceMsec;
+    /** Причина запуска репликации (null - по паузе). */
+    public String curTrigger;
+    /** Таблицы, включённые в текущую (последнюю) репликацию по расписанию. */
+    public final BitSet dueTabs = new BitSet();
+    /** Время следующей репликации (мсек), 0 - не определено. */
+    public long nextCycleTime;
 
     public TabInfo[] tabs;
-    public int curTab;
+    /** Индексы таблиц, реплицируемых в данный момент (при параллельной репликации - несколько). */
+    public final BitSet curTabs = new BitSet();
     public boolean isReplication;
+    /** Действует догоняющий режим (профиль высокой пропускной способности). */
+    public boolean isCatchup;
+    /** Дополнительные приёмники (при размножении репликации). */
+    public DestInfo[] dests = new DestInfo[0];
+
+    /** Задержки операций вне таблиц (открытие сеансов, общая фиксация), в снимке - те же гистограммы. */
+    public Latency latency = new Latency();
 
     public String errMessage;
 
     public int delayTime;
 
-    public ServiceModel(int delay) {
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Конструктор.
+     *
+     * @param delay Пауза между репликациями по умолчанию (мсек).
+     * @param tabs  Реплицируемые таблицы (из каталога).
+     */
+    public ServiceModel(int delay, TabInfo[] tabs) {
         startTime = LocalDateTime.now();
         allCount = 0;
         allMsec = 0;
@@ -31,18 +72,13 @@ public class ServiceModel {
         curStartTime = null;
         curEndTime = null;
         curRowCount = 0; // кол-во реплицированных строк.
+        curConnectMsec = 0;
+        curPrepareMsec = 0;
+        curSourceTx = 0;
+        curSourceMsec = 0;
+        curTrigger = null;
 
-        tabs = new TabInfo[]{
-                new TabInfo("AZS", "АЗС"),
-                new TabInfo("CARD", "Карты ТК"),
-                new TabInfo("CLIENT", "Клиенты ТК"),
-                new TabInfo("CONTRACT", "Контракты ТК"),
-                new TabInfo("REGISTRY", "Реестр настроек"),
-                new TabInfo("ACC", "Лицевые счета ТК"),
-                new TabInfo("TRANS", "Транзакции ТК"),
-                new TabInfo("PAY", "Оплаты ТК")
-        };
-        curTab = -1;
+        this.tabs = tabs;
         isReplication = false;
 
         errMessage = null;
@@ -50,53 +86,232 @@ public class ServiceModel {
         delayTime = delay;
     }
 
-    public synchronized void copyTo(ServiceModel dst) {
+    /** Создание модели с теми же таблицами (для снимков состояния через copyTo). */
+    public ServiceModel createCopy() {
+        ServiceModel m;
+        long stamp = lock.readLock();
+        try {
+            TabInfo[] t = new TabInfo[tabs.length];
+            for (int i = 0; i < tabs.length; i++) t[i] = new TabInfo(tabs[i].name, tabs[i].title);
+            m = new ServiceModel(delayTime, t);
+            m.dests = new DestInfo[dests.length];
+            for (int i = 0; i < dests.length; i++) m.dests[i] = new DestInfo(dests[i].name, dests[i].policy);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        copyTo(m);
+        return m;
+    }
+
+    /**
+     * Снимок состояния: поля модели - оптимистичным чтением (при изменении за время снятия - повтор под блокировкой
+     * чтения), таблицы и приёмники - своими снимками.
+     */
+    public void copyTo(ServiceModel dst) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                copyFields(dst);
+            } catch (RuntimeException ex) {
+                stamp = 0; // Чтение множеств таблиц во время их изменения - повтор под блокировкой.
+            }
+        }
+        if (stamp == 0 || !lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copyFields(dst);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        for (int i = 0; i < tabs.length; i++) tabs[i].copyTo(dst.tabs[i]);
+        for (int i = 0; i < dests.length; i++) dests[i].copyTo(dst.dests[i]);
+    }
+
+    private void copyFields(ServiceModel dst) {
         dst.startTime = startTime;
         dst.allCount = allCount;
         dst.allMsec = allMsec;
         dst.allRowCount = allRowCount;
+        dst.allErrors = allErrors;
+        dst.lastSuccess = lastSuccess;
+        dst.lastMsec = lastMsec;
         dst.curStartTime = curStartTime;
         dst.curEndTime = curEndTime;
         dst.curRowCount = curRowCount;
-        for (int i = 0; i < tabs.length; i++) tabs[i].copyTo(dst.tabs[i]);
-        dst.curTab = curTab;
+        dst.curConnectMsec = curConnectMsec;
+        dst.curPrepareMsec = curPrepareMsec;
+        dst.curSourceTx = curSourceTx;
+        dst.curSourceMsec = curSourceMsec;
+        dst.curTrigger = curTrigger;
+        dst.curLatency = curLatency;
+        dst.latency = latency;
+        dst.dueTabs.clear();
+        dst.dueTabs.or(dueTabs);
+        dst.nextCycleTime = nextCycleTime;
+        dst.curTabs.clear();
+        dst.curTabs.or(curTabs);
         dst.isReplication = isReplication;
+        dst.isCatchup = isCatchup;
 
         dst.errMessage = errMessage;
         dst.delayTime = delayTime;
     }
 
-    public synchronized void startReplicate() {
-        curStartTime = LocalDateTime.now();
-        curEndTime = null;
-        curRowCount = 0;
-        isReplication = true;
-        for (TabInfo t : tabs) t.clear();
-        curTab = -1;
-        errMessage = null;
+    /**
+     * Начало репликации.
+     *
+     * @param due Таблицы, реплицируемые по расписанию (у остальных сохраняется результат прошлой репликации).
+     */
+    public void startReplicate(BitSet due) {
+        long stamp = lock.writeLock();
+        try {
+            curStartTime = LocalDateTime.now();
+            curEndTime = null;
+            curRowCount = 0;
+            curConnectMsec = 0;
+            curPrepareMsec = 0;
+            curSourceTx = 0;
+            curSourceMsec = 0;
+            isReplication = true;
+            dueTabs.clear();
+            dueTabs.or(due);
+            for (int i = due.nextSetBit(0); i >= 0; i = due.nextSetBit(i + 1)) tabs[i].clear();
+            curTabs.clear();
+            errMessage = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized void endReplicate() {
-        curEndTime = LocalDateTime.now();
-        if (errMessage == null) {
-            allCount++;
-            allMsec += toMillis(curEndTime) - toMillis(curStartTime);
-            allRowCount += curRowCount;
+    public void endReplicate() {
+        long stamp = lock.writeLock();
+        try {
+            curEndTime = LocalDateTime.now();
+            lastMsec = toMillis(curEndTime) - toMillis(curStartTime);
+            if (errMessage == null) {
+                allCount++;
+                allMsec += lastMsec;
+                allRowCount += curRowCount;
+                lastSuccess = toMillis(curEndTime);
+            } else {
+                allErrors++;
+            }
+            curTabs.clear();
+            isReplication = false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void startReplicateTable(int i) {
+        long stamp = lock.writeLock();
+        try {
+            curTabs.set(i);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void endReplicateTable(int i) {
+        long stamp = lock.writeLock();
+        try {
+            curRowCount += tabs[i].index;
+            curTabs.clear(i);
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        curTab = -1;
-        isReplication = false;
     }
 
-    public synchronized void startReplicateTable(int i) {
-        curTab = i;
+    /** Установка дополнительных приёмников (при настройке, до начала репликаций). */
+    public void setDests(DestInfo[] dests) {
+        long stamp = lock.writeLock();
+        try {
+            this.dests = dests;
+            for (TabInfo tab : tabs) tab.initDests(dests.length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Изменение паузы между репликациями во время работы: применяется и к таблицам без своего интервала в каталоге
+     * (с ближайшего ожидания).
+     */
+    public void setDelay(int delay) {
+        long stamp = lock.writeLock();
+        try {
+            delayTime = delay;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (TabInfo tab : tabs) if (tab.isDefaultInterval) tab.setInterval(delay, delay);
     }
 
-    public synchronized void endReplicateTable() {
-        curRowCount += tabs[curTab].index;
-        if (curTab == tabs.length-1) curTab = -1; // После последней таблицы.
+    public void setCycleLatency(String latency) {
+        long stamp = lock.writeLock();
+        try {
+            curLatency = latency;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void setCatchup(boolean isCatchup) {
+        long stamp = lock.writeLock();
+        try {
+            this.isCatchup = isCatchup;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void setNextCycleTime(long time) {
+        long stamp = lock.writeLock();
+        try {
+            nextCycleTime = time;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized void setError(String err) {
-        errMessage = err;
+    /** Причина запуска следующей репликации. */
+    public void setTrigger(String trigger) {
+        long stamp = lock.writeLock();
+        try {
+            curTrigger = trigger;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void setOverhead(long connectMsec, long prepareMsec) {
+        long stamp = lock.writeLock();
+        try {
+            curConnectMsec = connectMsec;
+            curPrepareMsec = prepareMsec;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Учёт фиксации транзакции источника со временем её удержания. */
+    public void addSourceTx(long msec) {
+        long stamp = lock.writeLock();
+        try {
+            curSourceTx++;
+            curSourceMsec = Math.max(curSourceMsec, msec);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void setError(String err) {
+        long stamp = lock.writeLock();
+        try {
+            errMessage = err;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 }
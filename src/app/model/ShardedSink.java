@@ -0,0 +1,296 @@
+package app.model;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Запись таблицы в приёмник несколькими соединениями (шардами): строки таблицы с TabInfo.shards > 1 распределяются по
+ * хэшу ключа (TabInfo.keyColumn, без него - первого поля) между потоками записи (SinkWriter), каждый в своём сеансе
+ * приёмника. Строки одного ключа всегда попадают в один шард и пишутся в порядке выгрузки. Остальные таблицы пишутся
+ * в основном сеансе как обычно.
+ * <p>
+ * Шарды фиксируются вместе: фиксация ждёт записи всех шардов и фиксирует их сеансы, затем основной. Если часть шардов
+ * успела зафиксироваться до ошибки, источник не фиксируется и изменения выгружаются повторно - повторная запись
+ * безопасна (процедуры загрузки - upsert, порядок строк ключа сохраняется). Точки сохранения ставятся во всех сеансах,
+ * поэтому повторы порций и таблиц при конфликтах блокировок работают и для шардов.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class ShardedSink implements ReplicationSink {
+
+    /** Ёмкость буфера строк шарда. */
+    private static final int RING_SIZE = 1024;
+    /** Шаг опроса счётчиков шардов (строк). */
+    private static final int STATS_STEP = 256;
+
+    private final ReplicationSink inner;
+    private final TabInfo[] tabs;
+
+    /**
+     * Конструктор.
+     *
+     * @param inner Приёмник (сеансы шардов - его сеансы).
+     * @param tabs  Таблицы модели (кол-во шардов, ключ, статистика).
+     */
+    ShardedSink(ReplicationSink inner, TabInfo[] tabs) {
+        this.inner = inner;
+        this.tabs = tabs;
+    }
+
+    /** Признак наличия таблиц с записью шардами. */
+    static boolean isUsed(TabInfo[] tabs) {
+        for (TabInfo tab : tabs) if (tab.shards > 1) return true;
+        return false;
+    }
+
+    @Override
+    public String name() {
+        return inner.name();
+    }
+
+    @Override
+    public Session open() throws Exception {
+        return new ShardedSession(inner.open());
+    }
+
+    private TabInfo tabOf(String table) {
+        for (TabInfo tab : tabs) if (tab.name.equals(table)) return tab;
+        return null;
+    }
+
+    /** Сеанс: основной сеанс приёмника (он же шард 0) и сеансы остальных шардов (открываются по необходимости). */
+    private final class ShardedSession implements Session {
+
+        private final Session main;
+        private final ArrayList<Session> shards = new ArrayList<>();
+        /** Потоки записи шардов с последней фиксации. */
+        private final ArrayList<SinkWriter> writers = new ArrayList<>();
+
+        ShardedSession(Session main) {
+            this.main = main;
+        }
+
+        private Session shard(int i) throws SQLException {
+            if (i == 0) return main;
+            while (shards.size() < i) {
+                try {
+                    shards.add(inner.open());
+                } catch (SQLException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new SQLException("Ошибка открытия сеанса шарда: " + ex.getMessage(), ex);
+                }
+            }
+            return shards.get(i - 1);
+        }
+
+        @Override
+        public RowSink sink(String table, String proc, TransferPlan src, int batchSize) throws SQLException {
+            TabInfo tab = tabOf(table);
+            if (tab == null || tab.shards <= 1) return main.sink(table, proc, src, batchSize);
+
+            int k = tab.shards;
+            tab.initShards(k);
+            RowSink first = main.sink(table, proc, src, batchSize);
+            ShardedRowSink f = null;
+            RowSink s = null; // Запись шарда, ещё не переданная потоку.
+            try {
+                f = new ShardedRowSink(tab, first);
+                TransferPlan plan = f.plan();
+                for (int i = 0; i < k; i++) {
+                    s = i == 0 ? first : shard(i).sink(table, proc, plan, batchSize);
+                    final int shard = i;
+                    SinkWriter w = new SinkWriter("Shard-" + table + "-" + i, i, s, plan, RING_SIZE,
+                            ex -> new SQLException("Шард " + shard + " " + table + ": " + ex.getMessage(), ex),
+                            n -> tab.addShardRows(shard, n));
+                    s = null;
+                    writers.add(w);
+                    f.writers[i] = w;
+                }
+            } catch (SQLException | RuntimeException ex) {
+                // Закрытие уже созданных записей шардов (их подготовленных запросов на соединениях сеанса).
+                if (s != null && s != first) s.close();
+                if (f != null) {
+                    f.close();
+                } else {
+                    first.close();
+                }
+                throw ex;
+            }
+            return f;
+        }
+
+        /** Ожидание записи всех шардов, проверка их ошибок. */
+        private void sync() throws SQLException {
+            for (SinkWriter w : writers) if (!w.isClosed) w.sync();
+            for (SinkWriter w : writers) w.check();
+        }
+
+        @Override
+        public Savepoint savepoint() throws SQLException {
+            sync();
+            Savepoint[] sp = new Savepoint[shards.size()];
+            for (int i = 0; i < sp.length; i++) sp[i] = shards.get(i).savepoint();
+            IdentityHashMap<SinkWriter, Long> rows = new IdentityHashMap<>();
+            for (SinkWriter w : writers) rows.put(w, w.rows);
+            return new ShardedSavepoint(main.savepoint(), sp, rows);
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws SQLException {
+            ShardedSavepoint f = (ShardedSavepoint) savepoint;
+            for (SinkWriter w : writers) w.recover();
+            // Сеансы, открытые после точки сохранения, целиком откатываются закрытием.
+            while (shards.size() > f.shards.length) shards.remove(shards.size() - 1).close();
+            for (int i = 0; i < f.shards.length; i++) shards.get(i).rollback(f.shards[i]);
+            for (SinkWriter w : writers) {
+                Long mark = f.rows.get(w);
+                w.rollback(mark == null ? 0 : mark);
+            }
+            main.rollback(f.main);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            sync();
+            writers.removeIf(w -> w.isClosed);
+            for (Session s : shards) s.commit();
+            main.commit();
+        }
+
+        @Override
+        public void close() {
+            for (SinkWriter w : writers) w.abort();
+            writers.clear();
+            for (Session s : shards) s.close();
+            shards.clear();
+            main.close();
+        }
+    }
+
+    /** Точка сохранения: основного сеанса, сеансов шардов и счётчиков строк потоков записи. */
+    private static final class ShardedSavepoint implements Savepoint {
+
+        final Savepoint main;
+        final Savepoint[] shards;
+        final IdentityHashMap<SinkWriter, Long> rows;
+
+        ShardedSavepoint(Savepoint main, Savepoint[] shards, IdentityHashMap<SinkWriter, Long> rows) {
+            this.main = main;
+            this.shards = shards;
+            this.rows = rows;
+        }
+
+        @Override
+        public int getSavepointId() throws SQLException {
+            return main.getSavepointId();
+        }
+
+        @Override
+        public String getSavepointName() throws SQLException {
+            return main.getSavepointName();
+        }
+    }
+
+    /**
+     * Запись строк таблицы шардами. Строки пишутся асинхронно: add() сообщает о записи, когда шарды записали новые
+     * строки (опрос каждые STATS_STEP строк), flush() ждёт записи всех переданных строк.
+     */
+    private static final class ShardedRowSink implements RowSink {
+
+        final TabInfo tab;
+        /** Запись шарда 0 (в основном сеансе). */
+        final RowSink first;
+        final SinkWriter[] writers;
+        /** Индекс поля ключа (-1 - по первому полю любого типа). */
+        private final int keyIndex;
+        /** Строк и обновлений, уже сообщённых вызывающему. */
+        private long reportedRows, reportedUpd;
+        private int applied, updated, step;
+        private final int[] queue;
+
+        ShardedRowSink(TabInfo tab, RowSink first) {
+            this.tab = tab;
+            this.first = first;
+            this.writers = new SinkWriter[tab.shards];
+            this.queue = new int[tab.shards];
+            this.keyIndex = tab.keyColumn != null ? first.plan().indexOfLong(tab.keyColumn) : -1;
+        }
+
+        @Override
+        public TransferPlan plan() {
+            return first.plan();
+        }
+
+        /** Номер шарда строки по хэшу ключа. */
+        private int shardOf(RowSlot row) {
+            long h;
+            if (keyIndex >= 0) {
+                h = plan().longValue(row, keyIndex);
+            } else if (row.nulls[0]) {
+                h = 0;
+            } else {
+                Object ref = row.refs[0];
+                h = ref != null ? ref.hashCode() : row.longs[0];
+            }
+            h *= 0x9E3779B97F4A7C15L;
+            return (int) ((h >>> 32) % writers.length);
+        }
+
+        @Override
+        public boolean add(RowSlot row) throws SQLException {
+            writers[shardOf(row)].add(row);
+            if (++step < STATS_STEP) return false;
+            step = 0;
+            for (int i = 0; i < writers.length; i++) queue[i] = writers[i].queue();
+            tab.updateShardQueue(queue);
+            return collect();
+        }
+
+        @Override
+        public boolean flush() throws SQLException {
+            for (SinkWriter w : writers) w.sync();
+            tab.updateShardQueue(new int[writers.length]);
+            return collect();
+        }
+
+        /** Сбор записанных шардами строк с прошлого сообщения. */
+        private boolean collect() {
+            long rows = 0, upd = 0;
+            for (SinkWriter w : writers) {
+                rows += w.rows;
+                upd += w.updated;
+            }
+            applied = (int) (rows - reportedRows);
+            updated = (int) (upd - reportedUpd);
+            reportedRows = rows;
+            reportedUpd = upd;
+            return applied > 0;
+        }
+
+        /** После отката к точке сохранения: счётчики шардов уже откачены, отсчёт - от них. */
+        @Override
+        public void reset() {
+            collect();
+        }
+
+        @Override
+        public int applied() {
+            return applied;
+        }
+
+        @Override
+        public int updated() {
+            return updated;
+        }
+
+        /** Закрытие: ожидание записи строк шардами (ошибки проверит фиксация сеанса). */
+        @Override
+        public void close() {
+            if (writers[0] == null) first.close(); // Потоки не запущены.
+            for (SinkWriter w : writers) if (w != null) w.close();
+        }
+    }
+}
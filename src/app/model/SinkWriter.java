@@ -0,0 +1,227 @@
+package app.model;
+
+import util.SpscRing;
+
+import java.sql.SQLException;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Поток записи строк таблицы в приёмник: строки передаются через кольцевой буфер и пишутся в RowSink своим потоком (в
+ * транзакции своего сеанса), порядок строк сохраняется. Используется для записи в дополнительные приёмники
+ * (FanoutSink) и для записи таблицы несколькими соединениями (ShardedSink).
+ * <p>
+ * Ошибка записи останавливает поток и передаётся вызывающему при следующем обращении. После отката сеанса к точке
+ * сохранения поток можно восстановить (recover) и продолжить запись.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+final class SinkWriter implements Runnable {
+
+    private static final int OP_ROW = 0, OP_FLUSH = 1;
+
+    /** Элемент буфера: строка или запрос записи накопленных строк (с уведомлением). */
+    private static final class Item {
+        int op;
+        final RowSlot row;
+
+        Item(TransferPlan plan) {
+            row = plan.newSlot();
+        }
+    }
+
+    /** Имя потока. */
+    private final String name;
+    /** Номер приёмника или шарда (для вызывающего). */
+    final int id;
+    private final RowSink sink;
+    private final TransferPlan src;
+    private final int capacity;
+    /** Учёт ошибки, возвращает исключение для вызывающего. */
+    private final Function<Throwable, SQLException> fail;
+    /** Учёт записанных (отрицательное - откаченных) строк. */
+    private final IntConsumer onApplied;
+    private SpscRing<Item> ring;
+    private Thread thread;
+    private volatile SQLException error;
+    /** Записано потоком строк и обновлений. */
+    volatile long rows, updated;
+    /** Строк учтено при фиксации (ведёт вызывающий). */
+    long committed;
+    boolean isClosed;
+    /** Запрошено (производителем) и выполнено (потоком) записей накопленных строк. */
+    private long requested, done;
+
+    /**
+     * Конструктор (поток запускается сразу).
+     *
+     * @param name      Имя потока.
+     * @param id        Номер приёмника или шарда.
+     * @param sink      Запись в приёмник.
+     * @param src       План строк, передаваемых в add().
+     * @param capacity  Ёмкость буфера строк.
+     * @param fail      Учёт ошибки записи.
+     * @param onApplied Учёт записанных строк (вызывается из потока записи).
+     */
+    SinkWriter(String name, int id, RowSink sink, TransferPlan src, int capacity, Function<Throwable, SQLException> fail,
+               IntConsumer onApplied) {
+        this.name = name;
+        this.id = id;
+        this.sink = sink;
+        this.src = src;
+        this.capacity = capacity;
+        this.fail = fail;
+        this.onApplied = onApplied;
+        start();
+    }
+
+    private void start() {
+        ring = new SpscRing<>(capacity, () -> new Item(src));
+        requested = 0;
+        synchronized (this) {
+            done = 0;
+        }
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Item claim() throws SQLException {
+        try {
+            return ring.claim();
+        } catch (Exception ex) {
+            throw error != null ? error : fail.apply(ex);
+        }
+    }
+
+    /** Передача строки (значения копируются). */
+    void add(RowSlot row) throws SQLException {
+        Item it = claim();
+        it.op = OP_ROW;
+        it.row.copyFrom(row);
+        ring.publish();
+    }
+
+    /** Ожидание записи переданных строк в приёмник. */
+    void sync() throws SQLException {
+        check();
+        long n = ++requested;
+        Item it = claim();
+        it.op = OP_FLUSH;
+        ring.publish();
+        synchronized (this) {
+            while (done < n && error == null) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw fail.apply(ex);
+                }
+            }
+        }
+        check();
+    }
+
+    void check() throws SQLException {
+        if (error != null) throw error;
+    }
+
+    /** Кол-во строк в буфере (оценка для статистики). */
+    int queue() {
+        return isClosed ? 0 : ring.size();
+    }
+
+    /**
+     * Подготовка к откату сеанса к точке сохранения: ожидание записи переданных строк, после ошибки - перезапуск потока
+     * со сбросом накопленных строк. У завершённого потока ошибка снимается (его строки откатываются).
+     */
+    void recover() {
+        if (isClosed) {
+            error = null;
+            return;
+        }
+        try {
+            sync();
+        } catch (SQLException ex) {
+            join();
+            sink.reset();
+            error = null;
+            start();
+        }
+    }
+
+    /** Откат счётчика строк к отметке (после отката сеанса к точке сохранения). */
+    void rollback(long mark) {
+        long n = rows - mark;
+        if (n == 0) return;
+        rows = mark;
+        onApplied.accept((int) -n);
+    }
+
+    @Override
+    public void run() {
+        SpscRing<Item> ring = this.ring;
+        TransferPlan plan = sink.plan();
+        try {
+            Item it;
+            while ((it = ring.take()) != null) {
+                if (it.op == OP_ROW) {
+                    plan.adapt(src, it.row);
+                    if (sink.add(it.row)) applied();
+                } else {
+                    if (sink.flush()) applied();
+                    synchronized (this) {
+                        done++;
+                        notifyAll();
+                    }
+                }
+                ring.release();
+            }
+        } catch (Throwable ex) {
+            if (error == null) error = fail.apply(ex);
+            ring.abort(error);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void applied() {
+        rows += sink.applied();
+        updated += sink.updated();
+        onApplied.accept(sink.applied());
+    }
+
+    /** Завершение таблицы: запись переданных строк и остановка потока (ошибка сохраняется). */
+    void close() {
+        if (isClosed) return;
+        try {
+            sync();
+        } catch (SQLException ignore) {
+        }
+        stop();
+    }
+
+    /** Прерывание без записи переданных строк (сеанс закрывается без фиксации). */
+    void abort() {
+        if (isClosed) return;
+        if (error == null) error = new SQLException("Запись прервана: " + name);
+        ring.abort(error);
+        stop();
+    }
+
+    private void stop() {
+        isClosed = true;
+        ring.close();
+        join();
+        sink.close();
+    }
+
+    private void join() {
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
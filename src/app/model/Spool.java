@@ -0,0 +1,269 @@
+package app.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static app.App.logger;
+
+/**
+ * Спул (накопитель) между выгрузкой из источника и загрузкой в приёмник. Выгрузка пишет строки таблиц в сегменты
+ * (SpoolSegment) и фиксирует источник, как только сегменты сброшены на диск и помечены готовыми. Поток применения
+ * (SpoolApplier) загружает готовые сегменты в приёмник строго по порядку и после фиксации приёмника удаляет их (или
+ * переносит в архив для повторного применения). Поэтому выгрузка продолжается и при недоступности приёмника - до
+ * предела объёма спула.
+ * <p>
+ * Имя сегмента - "[номер]-[таблица].seg", номер возрастает и задаёт порядок применения. Гарантия доставки - "хотя бы
+ * один раз": при сбое между фиксацией приёмника и удалением сегмента он применяется повторно (процедуры загрузки -
+ * upsert).
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public class Spool {
+
+    static final String EXT = ".seg";
+
+    private final File dir;
+    /** Каталог применённых сегментов (null - удаляются). */
+    private final File archive;
+    /** Наибольший объём сегментов (байт), 0 - без ограничения. */
+    private final long limit;
+    /** Наибольший размер строк сегмента (байт). */
+    private final int segmentSize;
+    /** Номер следующего сегмента. */
+    private long seq;
+    /** Готовые к применению сегменты (по порядку). */
+    private final ArrayDeque<File> ready = new ArrayDeque<>();
+    /** Объём сегментов на диске (готовых и завершённых в текущей выгрузке). */
+    private long bytes;
+    /** Применено сегментов и строк (с запуска). */
+    private long appliedSegments, appliedRows;
+    /** Время последнего применения (мсек), 0 - не было. */
+    private long appliedTime;
+    /** Последняя ошибка применения (null - нет). */
+    private String error;
+
+    /**
+     * Открытие спула: готовые сегменты ставятся в очередь применения, незавершённые (выгрузка не была зафиксирована)
+     * удаляются.
+     *
+     * @param dir         Каталог сегментов.
+     * @param archive     Каталог применённых сегментов (null - удаляются).
+     * @param limit       Наибольший объём спула (байт), 0 - без ограничения.
+     * @param segmentSize Размер сегмента (байт).
+     */
+    public Spool(File dir, File archive, long limit, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.archive = archive;
+        this.limit = limit;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Не удалось создать каталог " + dir);
+        if (archive != null && !archive.isDirectory() && !archive.mkdirs()) {
+            throw new IOException("Не удалось создать каталог " + archive);
+        }
+        for (File f : segments(dir)) {
+            seq = Math.max(seq, seqOf(f) + 1);
+            int state = SpoolSegment.state(f);
+            if (state == SpoolSegment.STATE_READY) {
+                ready.add(f);
+                bytes += f.length();
+            } else {
+                logger.infof("Спул: удалён незавершённый сегмент %s", f.getName());
+                if (!f.delete()) throw new IOException("Не удалось удалить сегмент " + f);
+            }
+        }
+    }
+
+    /** Сегменты каталога в порядке номеров. */
+    static File[] segments(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EXT));
+        if (files == null) throw new IOException("Не удалось прочитать каталог " + dir);
+        Arrays.sort(files, (a, b) -> Long.compare(seqOf(a), seqOf(b)));
+        return files;
+    }
+
+    private static long seqOf(File f) {
+        String name = f.getName();
+        int i = name.indexOf('-');
+        try {
+            return Long.parseLong(name.substring(0, i < 0 ? name.length() - EXT.length() : i));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private synchronized File newFile(String table) {
+        return new File(dir, String.format("%012d-%s%s", seq++, table, EXT));
+    }
+
+    private synchronized void addBytes(long n) {
+        bytes += n;
+    }
+
+    /** Начало выгрузки в спул. */
+    Batch begin() {
+        return new Batch();
+    }
+
+    /** Постановка сегментов в очередь применения. */
+    private synchronized void publish(ArrayList<SpoolSegment> segments) {
+        for (SpoolSegment s : segments) ready.add(s.file());
+        notifyAll();
+    }
+
+    /**
+     * Очередной сегмент для применения (остаётся в очереди до ack()/reject()).
+     *
+     * @param timeout Наибольшее ожидание (мсек).
+     * @return Сегмент или null, если за время ожидания не появился.
+     */
+    synchronized File next(long timeout) throws InterruptedException {
+        if (ready.isEmpty()) wait(timeout);
+        return ready.peek();
+    }
+
+    /** Сегмент применён и зафиксирован в приёмнике: удаление (перенос в архив). */
+    synchronized void ack(File f, int rows) {
+        ready.remove(f);
+        bytes -= f.length();
+        appliedSegments++;
+        appliedRows += rows;
+        appliedTime = System.currentTimeMillis();
+        error = null;
+        if (archive != null) {
+            try {
+                Files.move(f.toPath(), new File(archive, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (IOException ex) {
+                logger.errorf(ex, "Спул: ошибка переноса сегмента %s в архив!", f.getName());
+            }
+        }
+        if (!f.delete()) logger.errorf("Спул: не удалось удалить сегмент %s!", f.getName());
+    }
+
+    /** Сегмент повреждён: исключение из очереди (файл переименовывается в *.bad для разбора). */
+    synchronized void reject(File f, String msg) {
+        ready.remove(f);
+        bytes -= f.length();
+        error = f.getName() + ": " + msg;
+        if (!f.renameTo(new File(f.getPath() + ".bad"))) f.delete();
+    }
+
+    synchronized void setError(String msg) {
+        error = msg;
+    }
+
+    /** Признак заполнения спула (выгрузка приостанавливается до применения сегментов). */
+    public synchronized boolean isFull() {
+        return limit > 0 && bytes >= limit;
+    }
+
+    /** Кол-во сегментов в очереди применения. */
+    public synchronized int pending() {
+        return ready.size();
+    }
+
+    /** Объём сегментов на диске (байт). */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    public synchronized long appliedSegments() {
+        return appliedSegments;
+    }
+
+    public synchronized long appliedRows() {
+        return appliedRows;
+    }
+
+    public synchronized long appliedTime() {
+        return appliedTime;
+    }
+
+    /** Последняя ошибка применения (null - нет). */
+    public synchronized String error() {
+        return error;
+    }
+
+    /**
+     * Выгрузка в спул (в пределах одной транзакции источника). Строки таблицы пишутся между table() и endTable(),
+     * сегменты становятся готовыми только в seal() - перед фиксацией источника. Незапечатанные сегменты удаляются в
+     * close() (выгрузка не зафиксирована).
+     */
+    final class Batch implements AutoCloseable {
+
+        private final ArrayList<SpoolSegment> done = new ArrayList<>();
+        private final SpoolCodec codec = new SpoolCodec();
+        private SpoolSegment cur;
+        private String table, proc;
+        private TransferPlan plan;
+
+        /** Начало таблицы. */
+        void table(String table, String proc, TransferPlan plan) {
+            this.table = table;
+            this.proc = proc;
+            this.plan = plan;
+            this.cur = null;
+        }
+
+        /** Запись строки (по плану таблицы). */
+        void write(RowSlot row) throws IOException {
+            codec.encode(plan, row);
+            if (cur != null && cur.free() < codec.length()) finishSegment();
+            if (cur == null) {
+                File f = newFile(table);
+                try {
+                    cur = SpoolSegment.create(f, table, proc, plan, Math.max(segmentSize, codec.length()));
+                } catch (IOException ex) {
+                    f.delete();
+                    throw ex;
+                }
+            }
+            cur.append(codec.bytes(), codec.length());
+        }
+
+        /** Завершение таблицы. */
+        void endTable() throws IOException {
+            if (cur != null) finishSegment();
+        }
+
+        private void finishSegment() throws IOException {
+            SpoolSegment s = cur;
+            cur = null;
+            done.add(s);
+            s.finish();
+            addBytes(s.length());
+        }
+
+        /** Отметка сегментов готовыми (данные уже на диске) и постановка в очередь применения. */
+        void seal() throws IOException {
+            endTable();
+            for (SpoolSegment s : done) s.ready();
+            publish(done);
+            done.clear();
+        }
+
+        @Override
+        public void close() {
+            if (cur != null) delete(cur.file()); // Не завершён - в объёме не учтён.
+            cur = null;
+            for (SpoolSegment s : done) {
+                addBytes(-s.length());
+                delete(s.file());
+            }
+            done.clear();
+        }
+
+        private void delete(File f) {
+            if (!f.delete()) logger.errorf("Спул: не удалось удалить сегмент %s!", f.getName());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package app.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+import static app.App.logger;
+
+/**
+ * Поток применения спула: готовые сегменты по порядку загружаются в приёмник, каждый - в своей транзакции, после
+ * фиксации сегмент удаляется (переносится в архив). При ошибке (приёмник недоступен, конфликт блокировок) сегмент
+ * повторяется с растущей паузой (не более 30 сек), следующие сегменты ждут - порядок изменений сохраняется.
+ * Повреждённый сегмент исключается из очереди (*.bad) с ошибкой в логе. Применяет и спул основной репликации, и спулы
+ * дополнительных приёмников (политика spool) - у каждого свой поток.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class SpoolApplier implements Runnable {
+
+    /** Наибольшая пауза перед повтором (мсек). */
+    private static final long MAX_PAUSE = 30000;
+
+    private final AppModel model;
+    private final Spool spool;
+    private final ReplicationSink sink;
+    /** Дополнительный приёмник (null - основной спул). */
+    private final Destination dest;
+    /** Наименование спула для сообщений. */
+    private final String title;
+    private volatile boolean isStopped;
+    private Thread thread;
+
+    /**
+     * Конструктор.
+     *
+     * @param sink Приёмник.
+     * @param dest Дополнительный приёмник, чей это спул (null - основной спул).
+     */
+    SpoolApplier(AppModel model, Spool spool, ReplicationSink sink, Destination dest) {
+        this.model = model;
+        this.spool = spool;
+        this.sink = sink;
+        this.dest = dest;
+        this.title = dest == null ? "Спул" : "Спул приёмника " + dest.name;
+    }
+
+    void start() {
+        thread = new Thread(this, dest == null ? "Spool-applier" : "Spool-applier-" + dest.name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Остановка (текущий сегмент дописывается). */
+    void stop() {
+        isStopped = true;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join(MAX_PAUSE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        int attempt = 0;
+        while (!isStopped) {
+            File f;
+            try {
+                f = spool.next(1000);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (f == null) continue;
+
+            SpoolSegment seg;
+            try {
+                seg = SpoolSegment.open(f);
+            } catch (IOException ex) {
+                logger.errorf(ex, "%s: сегмент %s повреждён и исключён из очереди!", title, f.getName());
+                spool.reject(f, ex.getMessage());
+                if (dest != null) dest.fail(ex);
+                continue;
+            }
+            try {
+                try (ReplicationSink.Session con = sink.open()) {
+                    write(con, seg, model.batchSizeOf(seg.table));
+                    Object event = FlightEvents.RECORDER.beginCommit();
+                    con.commit();
+                    FlightEvents.RECORDER.endCommit(event, title, seg.table, seg.rows);
+                }
+                spool.ack(f, seg.rows);
+                if (dest != null) {
+                    dest.info.commit(seg.rows);
+                    dest.updateSpool();
+                }
+                if (attempt > 0) logger.infof("%s: применение возобновлено (сегмент %s)", title, f.getName());
+                attempt = 0;
+
+            } catch (Exception ex) {
+                attempt++;
+                spool.setError(f.getName() + ": " + ex.getMessage());
+                if (dest != null) dest.fail(ex);
+                if (attempt == 1) logger.errorf(ex, "%s: ошибка применения сегмента %s! Повтор...", title, f.getName());
+                try {
+                    Thread.sleep(Math.min(MAX_PAUSE, 1000L << Math.min(attempt - 1, 5)));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Запись строк сегмента в приёмник (фиксирует вызывающий).
+     *
+     * @param batch Размер пакета записи.
+     * @return Кол-во строк.
+     */
+    static int write(ReplicationSink.Session con, SpoolSegment seg, int batch) throws SQLException {
+        try (RowSink imp = con.sink(seg.table, seg.proc, seg.plan, batch)) {
+            TransferPlan plan = imp.plan();
+            RowSlot slot = plan.newSlot();
+            ByteBuffer data = seg.data();
+            for (int r = 0; r < seg.rows; r++) {
+                SpoolCodec.decode(seg.plan, plan, data, slot);
+                imp.add(slot);
+            }
+            imp.flush();
+            return seg.rows;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package app.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static app.model.TransferPlan.*;
+
+/**
+ * Компактное двоичное представление строк для спула (по плану источника):
+ * <pre>
+ * битовая маска NULL (по биту на поле), затем значения не-NULL полей:
+ *   INT, LONG, DATE, TIME    - zigzag varint (даты и время - мсек);
+ *   TIMESTAMP                - zigzag varint мсек + varint наносекунд внутри миллисекунды;
+ *   DOUBLE                   - 8 байт (биты double);
+ *   DECIMAL                  - varint масштаба + длина и байты немасштабированного значения;
+ *   STRING, BYTES            - varint длины + байты (строки - UTF-8);
+ *   OBJECT                   - байт типа + значение одним из способов выше (прочие типы - строкой).
+ * </pre>
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+final class SpoolCodec {
+
+    private static final int T_STRING = 1, T_BYTES = 2, T_DECIMAL = 3, T_LONG = 4, T_DOUBLE = 5, T_BOOLEAN = 6,
+            T_TIMESTAMP = 7, T_DATE = 8, T_TIME = 9;
+
+    /** Буфер кодирования строки (растёт по необходимости). */
+    private byte[] buf = new byte[4096];
+    private int pos;
+
+    /** Закодированная строка (действительны первые length() байт). */
+    byte[] bytes() {
+        return buf;
+    }
+
+    int length() {
+        return pos;
+    }
+
+    /** Кодирование строки в буфер кодировщика. */
+    void encode(TransferPlan plan, RowSlot slot) {
+        int n = plan.columns();
+        pos = 0;
+        ensure((n + 7) >>> 3);
+        for (int i = 0; i < n; i += 8) {
+            int b = 0;
+            for (int k = 0; k < 8 && i + k < n; k++) if (slot.nulls[i + k]) b |= 1 << k;
+            buf[pos++] = (byte) b;
+        }
+        for (int i = 0; i < n; i++) {
+            if (slot.nulls[i]) continue;
+            Object ref = slot.refs[i];
+            switch (plan.kind(i)) {
+                case K_INT:
+                case K_LONG:
+                    putLong(slot.longs[i]);
+                    break;
+                case K_DOUBLE:
+                    putFixed(slot.longs[i]);
+                    break;
+                case K_DECIMAL:
+                    putDecimal((BigDecimal) ref);
+                    break;
+                case K_TIMESTAMP:
+                    putTimestamp((java.sql.Timestamp) ref);
+                    break;
+                case K_DATE:
+                case K_TIME:
+                    putLong(((java.util.Date) ref).getTime());
+                    break;
+                case K_STRING:
+                    putBytes(((String) ref).getBytes(StandardCharsets.UTF_8));
+                    break;
+                case K_BYTES:
+                    putBytes((byte[]) ref);
+                    break;
+                default:
+                    putObject(ref);
+            }
+        }
+    }
+
+    /**
+     * Декодирование строки из буфера (с текущей позиции) в слот плана приёмника.
+     *
+     * @param src  План источника (по нему закодирована строка).
+     * @param dst  План приёмника (составлен по плану источника, тот же порядок полей).
+     * @param in   Буфер.
+     * @param slot Слот плана приёмника.
+     */
+    static void decode(TransferPlan src, TransferPlan dst, ByteBuffer in, RowSlot slot) {
+        int n = src.columns();
+        int base = in.position();
+        in.position(base + ((n + 7) >>> 3));
+        for (int i = 0; i < n; i++) {
+            boolean isNull = (in.get(base + (i >>> 3)) & (1 << (i & 7))) != 0;
+            slot.nulls[i] = isNull;
+            if (isNull) {
+                slot.refs[i] = null;
+                continue;
+            }
+            switch (src.kind(i)) {
+                case K_INT:
+                case K_LONG:
+                    slot.longs[i] = getLong(in);
+                    break;
+                case K_DOUBLE:
+                    slot.longs[i] = in.getLong();
+                    break;
+                case K_DECIMAL:
+                    slot.refs[i] = getDecimal(in);
+                    break;
+                case K_TIMESTAMP:
+                    slot.refs[i] = getTimestamp(in);
+                    break;
+                case K_DATE:
+                    slot.refs[i] = new java.sql.Date(getLong(in));
+                    break;
+                case K_TIME:
+                    slot.refs[i] = new java.sql.Time(getLong(in));
+                    break;
+                case K_STRING:
+                    slot.refs[i] = new String(getBytes(in), StandardCharsets.UTF_8);
+                    break;
+                case K_BYTES:
+                    slot.refs[i] = getBytes(in);
+                    break;
+                default:
+                    slot.refs[i] = getObject(in);
+            }
+        }
+        dst.adapt(src, slot);
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+    }
+
+    private void putVar(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void putLong(long v) {
+        putVar((v << 1) ^ (v >> 63));
+    }
+
+    private void putFixed(long v) {
+        ensure(8);
+        for (int k = 7; k >= 0; k--) buf[pos++] = (byte) (v >>> (k * 8));
+    }
+
+    private void putBytes(byte[] b) {
+        putVar(b.length);
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    private void putDecimal(BigDecimal d) {
+        putLong(d.scale());
+        putBytes(d.unscaledValue().toByteArray());
+    }
+
+    private void putTimestamp(java.sql.Timestamp t) {
+        putLong(t.getTime());
+        putVar(t.getNanos() % 1000000);
+    }
+
+    private void putObject(Object v) {
+        ensure(1);
+        if (v instanceof String) {
+            buf[pos++] = T_STRING;
+            putBytes(((String) v).getBytes(StandardCharsets.UTF_8));
+        } else if (v instanceof byte[]) {
+            buf[pos++] = T_BYTES;
+            putBytes((byte[]) v);
+        } else if (v instanceof BigDecimal) {
+            buf[pos++] = T_DECIMAL;
+            putDecimal((BigDecimal) v);
+        } else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            buf[pos++] = T_LONG;
+            putLong(((Number) v).longValue());
+        } else if (v instanceof Double || v instanceof Float) {
+            buf[pos++] = T_DOUBLE;
+            putFixed(Double.doubleToRawLongBits(((Number) v).doubleValue()));
+        } else if (v instanceof Boolean) {
+            buf[pos++] = T_BOOLEAN;
+            putVar((Boolean) v ? 1 : 0);
+        } else if (v instanceof java.sql.Timestamp) {
+            buf[pos++] = T_TIMESTAMP;
+            putTimestamp((java.sql.Timestamp) v);
+        } else if (v instanceof java.sql.Date) {
+            buf[pos++] = T_DATE;
+            putLong(((java.sql.Date) v).getTime());
+        } else if (v instanceof java.sql.Time) {
+            buf[pos++] = T_TIME;
+            putLong(((java.sql.Time) v).getTime());
+        } else {
+            buf[pos++] = T_STRING;
+            putBytes(String.valueOf(v).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long getVar(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+    }
+
+    private static long getLong(ByteBuffer in) {
+        long v = getVar(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] b = new byte[(int) getVar(in)];
+        in.get(b);
+        return b;
+    }
+
+    private static BigDecimal getDecimal(ByteBuffer in) {
+        int scale = (int) getLong(in);
+        return new BigDecimal(new BigInteger(getBytes(in)), scale);
+    }
+
+    private static java.sql.Timestamp getTimestamp(ByteBuffer in) {
+        java.sql.Timestamp t = new java.sql.Timestamp(getLong(in));
+        t.setNanos(t.getNanos() + (int) getVar(in));
+        return t;
+    }
+
+    private static Object getObject(ByteBuffer in) {
+        switch (in.get()) {
+            case T_STRING:
+                return new String(getBytes(in), StandardCharsets.UTF_8);
+            case T_BYTES:
+                return getBytes(in);
+            case T_DECIMAL:
+                return getDecimal(in);
+            case T_LONG:
+                return getLong(in);
+            case T_DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case T_BOOLEAN:
+                return getVar(in) != 0;
+            case T_TIMESTAMP:
+                return getTimestamp(in);
+            case T_DATE:
+                return new java.sql.Date(getLong(in));
+            case T_TIME:
+                return new java.sql.Time(getLong(in));
+            default:
+                throw new IllegalStateException("Неизвестный тип значения в спуле!");
+        }
+    }
+}
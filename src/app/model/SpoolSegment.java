@@ -0,0 +1,192 @@
+package app.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Сегмент спула - файл с выгрузкой одной таблицы (или её части), только добавление. Формат:
+ * <pre>
+ * 0  магия "WRSP"            16 начало данных
+ * 4  версия                  20 CRC32 данных
+ * 8  состояние               24 конец данных (long)
+ * 12 кол-во строк            32 описание: таблица, процедура загрузки, кол-во полей, способы переноса и имена полей
+ * далее строки в формате SpoolCodec.
+ * </pre>
+ * Сегмент пишется в отображаемый в память файл в состоянии STATE_WRITING. Готовым (STATE_READY) он помечается только
+ * после сброса данных на диск и до фиксации источника; незавершённые сегменты после сбоя удаляются - их строки
+ * остались невыгруженными в источнике.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+final class SpoolSegment {
+
+    private static final int MAGIC = 0x57525350; // "WRSP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    static final int STATE_WRITING = 0;
+    static final int STATE_READY = 1;
+
+    /** Таблица и процедура загрузки в приёмник. */
+    final String table, proc;
+    /** План источника (по нему закодированы строки). */
+    final TransferPlan plan;
+    /** Кол-во строк. */
+    int rows;
+
+    private final File file;
+    private final MappedByteBuffer buf;
+    private final int dataStart;
+    private int dataEnd;
+    private final CRC32 crc;
+
+    private SpoolSegment(File file, MappedByteBuffer buf, String table, String proc, TransferPlan plan, int dataStart,
+                         int dataEnd, int rows, CRC32 crc) {
+        this.file = file;
+        this.buf = buf;
+        this.table = table;
+        this.proc = proc;
+        this.plan = plan;
+        this.dataStart = dataStart;
+        this.dataEnd = dataEnd;
+        this.rows = rows;
+        this.crc = crc;
+    }
+
+    /**
+     * Создание сегмента для записи.
+     *
+     * @param capacity Наибольший размер строк сегмента (байт).
+     */
+    static SpoolSegment create(File file, String table, String proc, TransferPlan plan, int capacity)
+            throws IOException {
+        byte[][] meta = new byte[2 + plan.columns()][];
+        meta[0] = table.getBytes(StandardCharsets.UTF_8);
+        meta[1] = proc.getBytes(StandardCharsets.UTF_8);
+        int start = HEADER_SIZE + 2 + plan.columns();
+        for (int i = 0; i < plan.columns(); i++) meta[2 + i] = plan.name(i).getBytes(StandardCharsets.UTF_8);
+        for (byte[] m : meta) start += 2 + m.length;
+
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) start + capacity);
+        }
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, STATE_WRITING);
+        buf.putInt(16, start);
+        buf.position(HEADER_SIZE);
+        putString(buf, meta[0]);
+        putString(buf, meta[1]);
+        buf.putShort((short) plan.columns());
+        for (int i = 0; i < plan.columns(); i++) buf.put((byte) plan.kind(i));
+        for (int i = 0; i < plan.columns(); i++) putString(buf, meta[2 + i]);
+        return new SpoolSegment(file, buf, table, proc, plan, start, start, 0, new CRC32());
+    }
+
+    private static void putString(ByteBuffer buf, byte[] b) {
+        buf.putShort((short) b.length);
+        buf.put(b);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getShort() & 0xFFFF];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Свободное место для строк (байт). */
+    int free() {
+        return buf.capacity() - dataEnd;
+    }
+
+    /** Добавление закодированной строки (место проверяет вызывающий). */
+    void append(byte[] row, int length) {
+        buf.position(dataEnd);
+        buf.put(row, 0, length);
+        crc.update(row, 0, length);
+        dataEnd += length;
+        rows++;
+    }
+
+    /** Завершение записи: заголовок, усечение файла до данных, сброс на диск. */
+    void finish() throws IOException {
+        buf.putInt(12, rows);
+        buf.putInt(20, (int) crc.getValue());
+        buf.putLong(24, dataEnd);
+        buf.force();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(dataEnd);
+        }
+    }
+
+    /** Отметка готовности к применению (после finish). */
+    void ready() {
+        buf.putInt(8, STATE_READY);
+        buf.force();
+    }
+
+    File file() {
+        return file;
+    }
+
+    long length() {
+        return dataEnd;
+    }
+
+    /** Данные сегмента (строки) для чтения. */
+    ByteBuffer data() {
+        ByteBuffer b = buf.duplicate();
+        b.limit(dataEnd).position(dataStart);
+        return b;
+    }
+
+    /** Состояние сегмента в файле (-1 - не сегмент или повреждён заголовок). */
+    static int state(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE) return -1;
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) return -1;
+            return raf.readInt();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /** Открытие готового сегмента для чтения (с проверкой контрольной суммы). */
+    static SpoolSegment open(File file) throws IOException {
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) throw new IOException("Неверный размер сегмента!");
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) throw new IOException("Неверный формат сегмента!");
+        if (buf.getInt(8) != STATE_READY) throw new IOException("Сегмент не завершён!");
+        int rows = buf.getInt(12);
+        int start = buf.getInt(16);
+        long end = buf.getLong(24);
+        if (start < HEADER_SIZE || end < start || end > buf.capacity()) throw new IOException("Неверный заголовок сегмента!");
+        ByteBuffer data = buf.duplicate();
+        data.limit((int) end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != buf.getInt(20)) throw new IOException("Ошибка контрольной суммы сегмента!");
+
+        buf.position(HEADER_SIZE);
+        String table = getString(buf);
+        String proc = getString(buf);
+        int n = buf.getShort();
+        int[] kinds = new int[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) kinds[i] = buf.get();
+        for (int i = 0; i < n; i++) names[i] = getString(buf);
+        return new SpoolSegment(file, buf, table, proc, TransferPlan.of(kinds, names), start, (int) end, rows, null);
+    }
+}
@@ -1,33 +1,169 @@
 package app.model;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.StampedLock;
 
+/**
+ * Состояние реплицируемой таблицы. Счётчики прогресса обновляются потоками записи без блокировок: index, writed и count
+ * - volatile, счётчики частей, шардов и приёмников - атомарные массивы (у каждого слота свой писатель). Остальные
+ * изменения (начало и конец таблицы, повторы, порции, расписание) редки и идут под блокировкой записи. Снимок (copyTo)
+ * снимается оптимистичным чтением без блокировки и повторяется под блокировкой чтения, если за время снятия было
+ * изменение - так отображение состояния не задерживает репликацию.
+ */
 public class TabInfo {
     public String name;
     public String title;
     public LocalDateTime startTime, endTime;
-    public int count; // Всего обработано реплицируемых записей.
-    public int writed; // Всего записано реплицируемых записей (меньше или равно count).
-    public int index;
+    public volatile int count; // Всего обработано реплицируемых записей.
+    public volatile int writed; // Всего записано реплицируемых записей (меньше или равно count).
+    public volatile int index;
+    /** Процедуры БД: выгрузка, подсчёт, выгрузка части (источник) и загрузка (приёмник). */
+    public String exportProc, countProc, partProc, importProc;
+    /** Размер выборки строк источника за одно обращение к серверу (0 - по умолчанию драйвера). */
+    public int fetchSize = 0;
+    /**
+     * Фиксация приёмника порциями: каждые chunkSize строк и/или каждые chunkMillis мсек (0 - без ограничения, оба 0 -
+     * одна транзакция на таблицу).
+     */
+    public int chunkSize = 0, chunkMillis = 0;
+    /** Пропуск строк, не изменившихся с последней записи (кэш хэшей строк по ключу keyColumn). */
+    public boolean isCached = false;
+    /** Кэш хэшей строк (null - не используется). */
+    RowHashCache cache;
+    /** Кэш строк в текущей репликации: попадания (строка пропущена) и промахи (строка записана). */
+    public int cacheHits, cacheMisses;
+    /** Кол-во фиксаций порций приёмника (в текущей репликации). */
+    public int chunks;
+    /** Кол-во повторов таблицы (порции) при конфликте блокировок и начальная пауза перед повтором (мсек). */
+    public int maxRetries = 0, retryPause = 200;
+    /** Повторы при конфликте блокировок в текущей репликации: кол-во и потерянное время (откаченная работа и паузы). */
+    public int retries;
+    public long retryMillis;
+    /** Наибольшее время удержания транзакции приёмника (блокировок записанных строк) в текущей репликации (мсек). */
+    public long lockMillis;
+    /** Начало текущей транзакции приёмника для таблицы (мсек), 0 - нет записи. */
+    private long lockStart;
+    /** Поле ключа (возрастающего) для контрольных точек, null - не отслеживается. */
+    public String keyColumn = null;
+    /**
+     * Продолжение с контрольной точки: строки с ключом не больше метки, уже записанные в приёмник до сбоя (источник не
+     * зафиксирован), не пишутся повторно. Только для таблиц, строки которых не изменяются после добавления!
+     */
+    public boolean isResume = false;
+    /** Метка контрольной точки (последний зафиксированный в приёмнике ключ), Long.MIN_VALUE - нет. */
+    public long checkpointKey = Long.MIN_VALUE;
+    /** Максимальный записанный ключ в текущей репликации, Long.MIN_VALUE - нет. */
+    public long lastKey = Long.MIN_VALUE;
+    /** Кол-во строк, пропущенных при продолжении с контрольной точки. */
+    public int resumed;
+    /** Ключ продолжения для текущей репликации (строки с ключом не больше - пропускаются), Long.MIN_VALUE - нет. */
+    long resumeKey = Long.MIN_VALUE;
+    /** Размер пакета записи в БД-приёмник (1 - построчная запись). */
+    public int batchSize = 1;
+    /** Имена таблиц, которые должны быть реплицированы до этой таблицы. */
+    public String[] depends = new String[0];
+    /** Кол-во частей (диапазонов ключей) для параллельной выгрузки (1 - без разбиения). */
+    public int parts = 1;
+    /**
+     * Прогресс по частям (при выгрузке частями): записано строк и обновлений. Итог - в index и writed. Заполняется в
+     * снимке (copyTo), в самой таблице счётчики ведутся в partRows и partUpd.
+     */
+    public int[] partIndex = new int[0], partWrited = new int[0];
+    /** Кол-во соединений (шардов) записи в приёмник (1 - одно соединение), строки распределяются по хэшу ключа. */
+    public int shards = 1;
+    /** Шарды в текущей репликации: записано строк и текущая очередь строк к записи (по номеру шарда, в снимке). */
+    public int[] shardIndex = new int[0], shardQueue = new int[0];
+    /** Прогресс по дополнительным приёмникам (по номеру приёмника, в снимке): записано строк в текущей репликации. */
+    public int[] destIndex = new int[0];
+    /** Расписание: мин. и макс. интервал между репликациями таблицы (мсек), приоритет (больше - раньше). */
+    public int minInterval, maxInterval, priority;
+    /** Интервал не задан в каталоге (равен паузе между репликациями и меняется вместе с ней). */
+    public boolean isDefaultInterval;
+    /** Текущий интервал (при адаптивном расписании меняется от мин. до макс.) и время следующей репликации (мсек). */
+    public long interval;
+    public volatile long nextTime;
+    /** Репликация по расписанию приостановлена (таблица реплицируется только по запросу или как зависимость). */
+    public volatile boolean isPaused;
     /** Если не null, то содержит текст ошибки репликации. */
-    private String msgError;
+    private volatile String msgError;
+
+    /** Счётчики частей, шардов и приёмников (обновляются без блокировки, в снимке - массивы выше). */
+    private volatile AtomicIntegerArray partRows = new AtomicIntegerArray(0), partUpd = new AtomicIntegerArray(0);
+    private volatile AtomicIntegerArray shardRows = new AtomicIntegerArray(0), shardQueued = new AtomicIntegerArray(0);
+    private volatile AtomicIntegerArray destRows = new AtomicIntegerArray(0);
+    /**
+     * Итоги с запуска (по завершённым репликациям таблицы): обработано строк, записано, пропущено (кэш строк и
+     * контрольная точка), обновлений, ошибок; время последней успешной репликации (мсек, 0 - не было).
+     */
+    public long totalRows, totalWrited, totalSkipped, totalUpdated;
+    public int totalErrors;
+    public long lastSuccess;
+    /** Задержки операций таблицы по фазам (в снимке - те же гистограммы, они читаются без блокировок). */
+    public Latency latency = new Latency();
+    /** Блокировка редких изменений и проверки снимков. */
+    private final StampedLock lock = new StampedLock();
 
     public TabInfo(String name, String title) {
         this.name = name;
         this.title = title;
+        this.exportProc = "WR_EXPORT_" + name;
+        this.countProc = "WR_EXPORT_" + name + "_COUNT";
+        this.partProc = "WR_EXPORT_" + name + "_PART";
+        this.importProc = "WR_IMPORT_" + name;
         clear();
     }
 
-    public synchronized void clear() {
-        startTime = null;
-        endTime = null;
-        count = 0;
-        writed = 0;
-        index = 0;
-        msgError = null;
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            startTime = null;
+            endTime = null;
+            count = 0;
+            writed = 0;
+            index = 0;
+            msgError = null;
+            partRows = new AtomicIntegerArray(0);
+            partUpd = new AtomicIntegerArray(0);
+            destRows = new AtomicIntegerArray(destRows.length());
+            shardRows = new AtomicIntegerArray(0);
+            shardQueued = new AtomicIntegerArray(0);
+            lastKey = Long.MIN_VALUE;
+            resumed = 0;
+            resumeKey = Long.MIN_VALUE;
+            cacheHits = 0;
+            cacheMisses = 0;
+            chunks = 0;
+            retries = 0;
+            retryMillis = 0;
+            lockMillis = 0;
+            lockStart = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Признак фиксации приёмника порциями. */
+    public boolean isChunked() {
+        return chunkSize > 0 || chunkMillis > 0;
+    }
+
+    /** Снимок состояния таблицы (без блокировки, если за время снятия не было изменений под блокировкой). */
+    public void copyTo(TabInfo dst) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            copyFields(dst);
+            if (lock.validate(stamp)) return;
+        }
+        stamp = lock.readLock();
+        try {
+            copyFields(dst);
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
-    public synchronized void copyTo(TabInfo dst) {
+    private void copyFields(TabInfo dst) {
         dst.name = name;
         dst.title = title;
         dst.startTime = startTime;
@@ -36,44 +172,352 @@ public class TabInfo {
         dst.writed = writed;
         dst.index = index;
         dst.msgError = msgError;
+        dst.parts = parts;
+        dst.partIndex = toArray(partRows);
+        dst.partWrited = toArray(partUpd);
+        dst.destIndex = toArray(destRows);
+        dst.shards = shards;
+        dst.shardIndex = toArray(shardRows);
+        dst.shardQueue = toArray(shardQueued);
+        dst.minInterval = minInterval;
+        dst.maxInterval = maxInterval;
+        dst.priority = priority;
+        dst.interval = interval;
+        dst.nextTime = nextTime;
+        dst.isPaused = isPaused;
+        dst.keyColumn = keyColumn;
+        dst.checkpointKey = checkpointKey;
+        dst.lastKey = lastKey;
+        dst.resumed = resumed;
+        dst.batchSize = batchSize;
+        dst.fetchSize = fetchSize;
+        dst.chunkSize = chunkSize;
+        dst.chunkMillis = chunkMillis;
+        dst.isCached = isCached;
+        dst.cacheHits = cacheHits;
+        dst.cacheMisses = cacheMisses;
+        dst.chunks = chunks;
+        dst.maxRetries = maxRetries;
+        dst.retryPause = retryPause;
+        dst.retries = retries;
+        dst.retryMillis = retryMillis;
+        dst.lockMillis = lockMillis;
+        dst.totalRows = totalRows;
+        dst.totalWrited = totalWrited;
+        dst.totalSkipped = totalSkipped;
+        dst.totalUpdated = totalUpdated;
+        dst.totalErrors = totalErrors;
+        dst.lastSuccess = lastSuccess;
+        dst.latency = latency;
     }
 
-    public synchronized void start() {
-        startTime = LocalDateTime.now();
-        msgError = null;
+    private static int[] toArray(AtomicIntegerArray a) {
+        int[] r = new int[a.length()];
+        for (int i = 0; i < r.length; i++) r[i] = a.get(i);
+        return r;
     }
 
-    public synchronized void end(int index) {
-        this.index = index;
-        this.count = index;
-        this.endTime = LocalDateTime.now();
+    private static int sum(AtomicIntegerArray a) {
+        int s = 0;
+        for (int i = 0; i < a.length(); i++) s += a.get(i);
+        return s;
     }
 
-    public synchronized void end(int index, String msgError) {
-        this.index = index;
-        this.endTime = LocalDateTime.now();
-        this.msgError = msgError;
+    public void start() {
+        long stamp = lock.writeLock();
+        try {
+            startTime = LocalDateTime.now();
+            msgError = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized boolean isError() {
+    public void end(int index) {
+        long stamp = lock.writeLock();
+        try {
+            this.index = index;
+            this.count = index;
+            this.endTime = LocalDateTime.now();
+            int skipped = cacheHits + resumed;
+            totalRows += index;
+            totalWrited += index - skipped;
+            totalSkipped += skipped;
+            totalUpdated += writed;
+            lastSuccess = System.currentTimeMillis();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void end(int index, String msgError) {
+        long stamp = lock.writeLock();
+        try {
+            this.index = index;
+            this.endTime = LocalDateTime.now();
+            this.msgError = msgError;
+            totalRows += index;
+            totalErrors++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean isError() {
         return msgError != null;
     }
 
-    public synchronized String msgError() {
-        return msgError == null ? "" : msgError;
+    public String msgError() {
+        String msg = msgError;
+        return msg == null ? "" : msg;
     }
 
-    public synchronized void initCount(int count) {
-        this.index = 0;
-        this.count = count;
-        this.writed = 0;
+    public void initCount(int count) {
+        long stamp = lock.writeLock();
+        try {
+            this.index = 0;
+            this.count = count;
+            this.writed = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public synchronized void updateIndex(int index) {
+    /** Прогресс записи (поток таблицы, без блокировки). */
+    public void updateIndex(int index) {
         this.index = index;
     }
 
-    public synchronized void updateWrited(int writed) {
+    public void updateWrited(int writed) {
         this.writed = writed;
     }
+
+    /** Итог записи таблицы для контрольной точки. */
+    public void updateKey(long lastKey, int resumed) {
+        long stamp = lock.writeLock();
+        try {
+            this.lastKey = lastKey;
+            this.resumed = resumed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void setCheckpointKey(long key) {
+        long stamp = lock.writeLock();
+        try {
+            checkpointKey = key;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Начало записи в транзакции приёмника (для учёта времени удержания блокировок). */
+    public void beginLock(long now) {
+        long stamp = lock.writeLock();
+        try {
+            if (lockStart == 0) lockStart = now;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Фиксация (откат) транзакции приёмника. */
+    public void endLock(long now) {
+        long stamp = lock.writeLock();
+        try {
+            releaseLock(now);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void releaseLock(long now) {
+        if (lockStart == 0) return;
+        lockMillis = Math.max(lockMillis, now - lockStart);
+        lockStart = 0;
+    }
+
+    /** Фиксация порции приёмника. */
+    public void chunkCommitted(long now) {
+        long stamp = lock.writeLock();
+        try {
+            releaseLock(now);
+            chunks++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Учёт кэша строк (накопительно по частям таблицы). */
+    public void addCacheStats(int hits, int misses) {
+        long stamp = lock.writeLock();
+        try {
+            cacheHits += hits;
+            cacheMisses += misses;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Учёт повтора при конфликте блокировок. */
+    public void retried(long lostMillis) {
+        long stamp = lock.writeLock();
+        try {
+            retries++;
+            retryMillis += lostMillis;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Пауза перед повтором при конфликте блокировок (мсек): удваивается с каждым повтором, не более 30 сек. */
+    public long backoff(int attempt) {
+        return Math.min(30000L, (long) retryPause << Math.min(attempt - 1, 16));
+    }
+
+    /** Настройка расписания (следующая репликация - сразу). */
+    public void initSchedule(int minInterval, int maxInterval, int priority) {
+        long stamp = lock.writeLock();
+        try {
+            this.minInterval = Math.max(0, minInterval);
+            this.maxInterval = Math.max(this.minInterval, maxInterval);
+            this.priority = priority;
+            this.interval = this.minInterval;
+            this.nextTime = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Изменение размера пакета записи во время работы (действует со следующей репликации таблицы; в догоняющем режиме
+     * изменяется через AppModel.setBatchSize).
+     */
+    public void setBatchSize(int batchSize) {
+        long stamp = lock.writeLock();
+        try {
+            this.batchSize = Math.max(1, batchSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Изменение размера выборки источника во время работы (как setBatchSize). */
+    public void setFetchSize(int fetchSize) {
+        long stamp = lock.writeLock();
+        try {
+            this.fetchSize = Math.max(0, fetchSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Изменение размера порции фиксации во время работы (догоняющий режим). */
+    void setChunkSize(int chunkSize) {
+        long stamp = lock.writeLock();
+        try {
+            this.chunkSize = Math.max(0, chunkSize);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Изменение интервала репликации во время работы: текущий интервал ограничивается новыми пределами, следующая
+     * репликация не откладывается.
+     */
+    public void setInterval(int minInterval, int maxInterval) {
+        long stamp = lock.writeLock();
+        try {
+            this.minInterval = Math.max(0, minInterval);
+            this.maxInterval = Math.max(this.minInterval, maxInterval);
+            interval = Math.min(this.maxInterval, Math.max(this.minInterval, interval));
+            nextTime = Math.min(nextTime, System.currentTimeMillis() + interval);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean isDue(long now) {
+        return now >= nextTime;
+    }
+
+    /**
+     * Планирование следующей репликации после завершённой. Адаптивно: при отсутствии изменений интервал удваивается
+     * (до макс.), при изменениях или ошибке - сбрасывается до мин. Без адаптации - всегда мин. интервал.
+     */
+    public void reschedule(long now, boolean isAdaptive) {
+        long stamp = lock.writeLock();
+        try {
+            if (!isAdaptive || msgError != null || index > 0) {
+                interval = minInterval;
+            } else {
+                interval = Math.min(maxInterval, Math.max(minInterval, Math.max(1, interval) * 2));
+            }
+            nextTime = now + interval;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Начало выгрузки частями. */
+    public void initParts(int n) {
+        long stamp = lock.writeLock();
+        try {
+            partRows = new AtomicIntegerArray(n);
+            partUpd = new AtomicIntegerArray(n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Обновление прогресса части (поток части, без блокировки) с пересчётом итога по таблице. При одновременном
+     * обновлении частей итог может кратко отставать - его поправит следующее обновление.
+     */
+    public void updatePart(int part, int index, int writed) {
+        AtomicIntegerArray rows = partRows, upd = partUpd;
+        rows.set(part, index);
+        upd.set(part, writed);
+        this.index = sum(rows);
+        this.writed = sum(upd);
+    }
+
+    /** Кол-во дополнительных приёмников (задаётся при настройке). */
+    void initDests(int n) {
+        long stamp = lock.writeLock();
+        try {
+            destRows = new AtomicIntegerArray(n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Учёт строк, записанных в дополнительный приёмник (поток записи приёмника, без блокировки). */
+    public void addDestRows(int dest, int rows) {
+        destRows.addAndGet(dest, rows);
+    }
+
+    /** Начало записи шардами (части таблицы пишут в общие счётчики шардов). */
+    public void initShards(int n) {
+        long stamp = lock.writeLock();
+        try {
+            if (shardRows.length() == n) return;
+            shardRows = new AtomicIntegerArray(n);
+            shardQueued = new AtomicIntegerArray(n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Учёт строк, записанных шардом (поток записи шарда, без блокировки). */
+    public void addShardRows(int shard, int rows) {
+        shardRows.addAndGet(shard, rows);
+    }
+
+    public void updateShardQueue(int[] queue) {
+        AtomicIntegerArray q = shardQueued;
+        for (int i = 0, n = Math.min(queue.length, q.length()); i < n; i++) q.set(i, queue[i]);
+    }
 }
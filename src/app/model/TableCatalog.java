@@ -0,0 +1,127 @@
+package app.model;
+
+import app.ExError;
+import xconfig.XConfig;
+import xconfig.XNode;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static app.App.logger;
+
+/**
+ * Каталог реплицируемых таблиц из конфигурации (массив tables[]). Элемент массива описывает таблицу:
+ * <pre>
+ * { name="TRANS" title="Транзакции ТК"          - имя (обязательно) и наименование;
+ *   export="WR_EXPORT_TRANS"                    - процедуры (по умолчанию - по имени таблицы): выгрузка,
+ *   count="WR_EXPORT_TRANS_COUNT"               -   подсчёт,
+ *   part="WR_EXPORT_TRANS_PART"                 -   выгрузка части,
+ *   import="WR_IMPORT_TRANS"                    -   загрузка в приёмник;
+ *   batch="100" fetch="1000"                    - размер пакета записи и выборки источника;
+ *   chunk="10000, 5000"                         - фиксация приёмника порциями: строк[, мсек];
+ *   parts="1" priority="10"                     - кол-во частей выгрузки, приоритет;
+ *   shards="4"                                  - кол-во соединений записи в приёмник (строки - по хэшу ключа);
+ *   retries="3, 200"                            - повторы при конфликте блокировок: кол-во[, нач. пауза мсек];
+ *   interval="5000, 30000"                      - мин. и макс. интервал репликации (мсек);
+ *   depends="CLIENT, CONTRACT"                  - таблицы, реплицируемые раньше;
+ *   key="ID" resume="true" cache="true" }       - поле ключа, продолжение с контрольной точки, кэш строк.
+ * </pre>
+ * При отсутствии каталога используется встроенный список таблиц. Ошибка в каталоге - ошибка конфигурации.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class TableCatalog {
+
+    /** Встроенный список таблиц (при отсутствии каталога в конфигурации). */
+    static TabInfo[] defaults(int delay, int batch, int retries, int pause) {
+        TabInfo[] tabs = new TabInfo[]{
+                new TabInfo("AZS", "АЗС"),
+                new TabInfo("CARD", "Карты ТК"),
+                new TabInfo("CLIENT", "Клиенты ТК"),
+                new TabInfo("CONTRACT", "Контракты ТК"),
+                new TabInfo("REGISTRY", "Реестр настроек"),
+                new TabInfo("ACC", "Лицевые счета ТК"),
+                new TabInfo("TRANS", "Транзакции ТК"),
+                new TabInfo("PAY", "Оплаты ТК")
+        };
+        for (TabInfo tab : tabs) {
+            tab.batchSize = batch;
+            tab.maxRetries = retries;
+            tab.retryPause = pause;
+            tab.initSchedule(delay, delay, 0);
+            tab.isDefaultInterval = true;
+        }
+        return tabs;
+    }
+
+    /**
+     * Загрузка каталога.
+     *
+     * @param cfg     Конфигурация (может быть null - встроенный список).
+     * @param delay   Интервал репликации по умолчанию (мсек).
+     * @param batch   Размер пакета по умолчанию.
+     * @param retries Кол-во повторов при конфликте блокировок по умолчанию.
+     * @param pause   Начальная пауза перед повтором по умолчанию (мсек).
+     * @return Таблицы в порядке объявления.
+     */
+    static TabInfo[] load(XConfig cfg, int delay, int batch, int retries, int pause) throws ExError {
+        XNode node = cfg == null ? null : cfg.getNode("tables[]");
+        if (node == null || node.getNodeCount() == 0) {
+            logger.infof("Каталог таблиц не задан! Используется встроенный список таблиц.");
+            return defaults(delay, batch, retries, pause);
+        }
+        List<XNode> items = node.getNodes();
+        TabInfo[] tabs = new TabInfo[items.size()];
+        HashSet<String> names = new HashSet<>();
+        for (int i = 0; i < tabs.length; i++) {
+            XNode e = items.get(i);
+            String name = e.getKey("name", "").trim().toUpperCase();
+            if (name.isEmpty()) throw new ExError("Каталог таблиц: не задано имя таблицы (элемент %d)!", i);
+            if (!names.add(name)) throw new ExError("Каталог таблиц: повтор таблицы %s!", name);
+            try {
+                tabs[i] = parse(e, name, delay, batch, retries, pause);
+            } catch (Exception ex) {
+                throw new ExError(ex, "Каталог таблиц: ошибка описания таблицы %s: %s", name, ex.getMessage());
+            }
+        }
+        return tabs;
+    }
+
+    private static TabInfo parse(XNode e, String name, int delay, int batch, int retries, int pause) throws Exception {
+        TabInfo tab = new TabInfo(name, e.getKey("title", name));
+        tab.exportProc = e.getKey("export", tab.exportProc).trim();
+        tab.countProc = e.getKey("count", tab.countProc).trim();
+        tab.partProc = e.getKey("part", tab.partProc).trim();
+        tab.importProc = e.getKey("import", tab.importProc).trim();
+        tab.batchSize = Math.max(1, e.getIntKey("batch", batch));
+        tab.fetchSize = Math.max(0, e.getIntKey("fetch", 0));
+        String[] c = split(e.getKey("chunk", ""));
+        tab.chunkSize = c.length > 0 ? Math.max(0, Integer.parseInt(c[0])) : 0;
+        tab.chunkMillis = c.length > 1 ? Math.max(0, Integer.parseInt(c[1])) : 0;
+        tab.parts = Math.max(1, e.getIntKey("parts", 1));
+        tab.shards = Math.max(1, e.getIntKey("shards", 1));
+
+        String[] r = split(e.getKey("retries", ""));
+        tab.maxRetries = r.length > 0 ? Math.max(0, Integer.parseInt(r[0])) : retries;
+        tab.retryPause = r.length > 1 ? Math.max(1, Integer.parseInt(r[1])) : pause;
+
+        String[] v = split(e.getKey("interval", ""));
+        int min = v.length > 0 ? Integer.parseInt(v[0]) : delay;
+        int max = v.length > 1 ? Integer.parseInt(v[1]) : min;
+        tab.initSchedule(min, max, e.getIntKey("priority", 0));
+        tab.isDefaultInterval = v.length == 0;
+
+        tab.depends = split(e.getKey("depends", "").toUpperCase());
+        String key = e.getKey("key", "").trim().toUpperCase();
+        tab.keyColumn = key.isEmpty() ? null : key;
+        tab.isResume = tab.keyColumn != null && "true".equals(e.getKey("resume", "false"));
+        tab.isCached = "true".equals(e.getKey("cache", "false"));
+        if (tab.isCached && tab.keyColumn == null) throw new ExError("Для кэша строк (cache) не задано поле ключа (key)!");
+        return tab;
+    }
+
+    private static String[] split(String s) {
+        s = s.trim();
+        return s.isEmpty() ? new String[0] : s.split("\\s*,\\s*");
+    }
+}
@@ -0,0 +1,68 @@
+package app.model;
+
+/**
+ * Состояние и управление таблицей через JMX (WebReplicator:type=Table,name=&lt;TAB&gt;). Атрибуты читаются из снимка
+ * таблицы (оптимистичное чтение), изменения действуют до перезапуска.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public interface TableMXBean {
+
+    String getName();
+
+    String getTitle();
+
+    /** Обработано строк в текущей (последней) репликации таблицы. */
+    int getProcessed();
+
+    /** Записано строк в текущей (последней) репликации таблицы. */
+    int getWritten();
+
+    /** Строк к выгрузке (по подсчёту, после завершения - обработано). */
+    int getCount();
+
+    long getTotalRows();
+
+    long getTotalWritten();
+
+    long getTotalSkipped();
+
+    long getTotalUpdated();
+
+    int getTotalErrors();
+
+    /** Ошибка последней репликации таблицы (null - нет). */
+    String getLastError();
+
+    /** Время с окончания последней успешной репликации таблицы (мсек), -1 - не было. */
+    long getLagMillis();
+
+    /** Текущий интервал репликации (мсек). */
+    long getIntervalMillis();
+
+    /** Время до следующей репликации по расписанию (мсек). */
+    long getNextRunMillis();
+
+    /** Задержки операций с запуска (p50/p99/p999, кол-во). */
+    String getLatency();
+
+    boolean isPaused();
+
+    /** Размер пакета записи (действует со следующей репликации таблицы). */
+    int getBatchSize();
+
+    void setBatchSize(int batchSize);
+
+    /** Размер выборки источника, 0 - по умолчанию драйвера (действует со следующей репликации таблицы). */
+    int getFetchSize();
+
+    void setFetchSize(int fetchSize);
+
+    /** Приостановка репликации по расписанию (по запросу и как зависимость таблица реплицируется). */
+    void pause();
+
+    void resume();
+
+    /** Запуск репликации таблицы вне расписания. */
+    void replicateNow();
+}
@@ -0,0 +1,188 @@
+package app.model;
+
+import app.ExError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static app.App.logger;
+
+/**
+ * Планировщик репликации таблиц с учётом зависимостей. Зависимости (TabInfo.depends) образуют граф порядка: таблица
+ * реплицируется только после успешной репликации всех таблиц, от которых она зависит. Циклы в графе - ошибка
+ * конфигурации.
+ * <p>
+ * Последовательный режим - таблицы по порядку графа (при равенстве - в порядке объявления). Параллельный режим -
+ * независимые таблицы выполняются одновременно в пуле потоков, таблицы с неуспешными зависимостями пропускаются.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class TableScheduler {
+
+    /** Задача репликации таблицы. */
+    @FunctionalInterface
+    interface TableTask {
+        /**
+         * @param index Индекс таблицы.
+         * @return true - успешно, false - ошибка (зависимые таблицы будут пропущены).
+         */
+        boolean run(int index) throws Exception;
+    }
+
+    private final TabInfo[] tabs;
+    /** Индексы таблиц, от которых зависит таблица. */
+    private final int[][] deps;
+    /** Порядок выполнения (топологический). */
+    private final int[] order;
+
+    TableScheduler(TabInfo[] tabs) throws ExError {
+        this.tabs = tabs;
+        deps = new int[tabs.length][];
+        for (int i = 0; i < tabs.length; i++) {
+            String[] names = tabs[i].depends == null ? new String[0] : tabs[i].depends;
+            deps[i] = new int[names.length];
+            for (int k = 0; k < names.length; k++) {
+                deps[i][k] = indexOf(names[k]);
+                if (deps[i][k] < 0) throw new ExError("Таблица %s зависит от неизвестной таблицы %s!", tabs[i].name, names[k]);
+            }
+        }
+        order = buildOrder();
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < tabs.length; i++) if (tabs[i].name.equals(name)) return i;
+        return -1;
+    }
+
+    /**
+     * Топологическая сортировка: из готовых таблиц - с большим приоритетом, при равенстве - в порядке объявления.
+     */
+    private int[] buildOrder() throws ExError {
+        int n = tabs.length;
+        int[] res = new int[n];
+        boolean[] done = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            int next = -1;
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && isReady(i, done) && (next < 0 || tabs[i].priority > tabs[next].priority)) next = i;
+            }
+            if (next < 0) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < n; i++) if (!done[i]) sb.append(sb.length() == 0 ? "" : ",").append(tabs[i].name);
+                throw new ExError("Циклическая зависимость таблиц: %s!", sb);
+            }
+            done[next] = true;
+            res[k] = next;
+        }
+        return res;
+    }
+
+    private boolean isReady(int i, boolean[] done) {
+        for (int d : deps[i]) if (!done[d]) return false;
+        return true;
+    }
+
+    /** Дополнение набора таблиц всеми их зависимостями (транзитивно). */
+    void addDependencies(BitSet set) {
+        for (int k = order.length - 1; k >= 0; k--) { // Обратный порядок графа: зависимые раньше зависимостей.
+            int i = order[k];
+            if (set.get(i)) for (int d : deps[i]) set.set(d);
+        }
+    }
+
+    /** Порядок последовательного выполнения. */
+    int[] order() {
+        return order.clone();
+    }
+
+    /**
+     * Параллельное выполнение. Возвращает управление после завершения всех таблиц (или их пропуска).
+     *
+     * @param threads Кол-во потоков.
+     * @param task    Задача репликации таблицы.
+     * @param skipped Обработчик пропуска таблицы из-за неуспешной зависимости (индекс таблицы, индекс зависимости).
+     * @return Список индексов неуспешных таблиц (включая пропущенные).
+     */
+    ArrayList<Integer> runParallel(int threads, TableTask task, SkipHandler skipped) throws InterruptedException {
+        int n = tabs.length;
+        // 0 - ожидает, 1 - выполняется, 2 - успешно, 3 - ошибка или пропуск.
+        int[] state = new int[n];
+        ArrayList<Integer> failed = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, n)), r -> {
+            Thread t = new Thread(r, "Replicator-table");
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorCompletionService<Integer> ecs = new ExecutorCompletionService<>(pool);
+        try {
+            int running = 0, finished = 0;
+            while (finished < n) {
+                // Запуск готовых таблиц (по порядку графа), пропуск таблиц с неуспешными зависимостями.
+                for (int i : order) {
+                    if (state[i] != 0) continue;
+                    int bad = -1;
+                    boolean ready = true;
+                    for (int d : deps[i]) {
+                        if (state[d] == 3) bad = d;
+                        if (state[d] != 2) ready = false;
+                    }
+                    if (bad >= 0) {
+                        state[i] = 3;
+                        finished++;
+                        failed.add(i);
+                        skipped.skip(i, bad);
+                    } else if (ready) {
+                        state[i] = 1;
+                        running++;
+                        final int idx = i;
+                        ecs.submit(() -> {
+                            try {
+                                return task.run(idx) ? idx : -idx - 1;
+                            } catch (Exception ex) {
+                                logger.errorf(ex, "Ошибка репликации таблицы %s!", tabs[idx].name);
+                                return -idx - 1;
+                            }
+                        });
+                    }
+                }
+                if (running == 0) continue; // Были только пропуски - повторная проверка.
+
+                Future<Integer> f = ecs.take();
+                running--;
+                finished++;
+                int r;
+                try {
+                    r = f.get();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex); // Не бывает - исключения обрабатываются в задаче.
+                }
+                if (r >= 0) {
+                    state[r] = 2;
+                } else {
+                    state[-r - 1] = 3;
+                    failed.add(-r - 1);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed;
+    }
+
+    @FunctionalInterface
+    interface SkipHandler {
+        void skip(int index, int failedDependency);
+    }
+
+    @Override
+    public String toString() {
+        String[] names = new String[order.length];
+        for (int i = 0; i < order.length; i++) names[i] = tabs[order[i]].name;
+        return Arrays.toString(names);
+    }
+}
@@ -0,0 +1,281 @@
+package app.model;
+
+import fbdbengine.FB_Connection;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Запись потока строк таблицы в БД-приёмник с ведением прогресса таблицы. Счётчики меняются только после фактической
+ * записи пакета в БД, поэтому при ошибке они отражают точное кол-во записанных строк.
+ * <p>
+ * При фиксации порциями (TabInfo.isChunked) транзакция приёмника фиксируется каждые chunkSize строк / chunkMillis мсек.
+ * Порция начинается с точки сохранения, её строки держатся в памяти: при конфликте блокировок изменения откатываются до
+ * точки сохранения, транзакция перезапускается (новый снапшот приёмника) и порция записывается повторно (без повторной
+ * выгрузки из источника) - до TabInfo.maxRetries раз с растущей паузой. Последняя порция фиксируется вызывающим вместе с
+ * остальными изменениями приёмника.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class TableWriter {
+
+    /** Шаг обновления прогресса в UI (строк): обычный и текущий (в догоняющем режиме - реже). */
+    static final int PROGRESS_STEP = 10000;
+    static volatile int progressStep = PROGRESS_STEP;
+
+    private final TabInfo tab;
+    private final RowSink imp;
+    /** Номер части таблицы (-1 - таблица целиком). */
+    private final int part;
+    /** Признак прерывания (ошибка в другой части таблицы), может быть null. */
+    private final AtomicReference<Throwable> abort;
+    /** Кол-во записанных строк. */
+    int index;
+    /** Кол-во обновлений (IBUPDATE=1). */
+    int upd;
+    private int progress;
+    /** Индекс поля ключа в строке (-1 - ключ не отслеживается). */
+    private final int keyIndex;
+    /** Максимальный записанный ключ. */
+    private long maxKey = Long.MIN_VALUE;
+    /** Кол-во пропущенных строк (уже записаны до сбоя). */
+    private int skipped;
+    /** Индекс поля ключа для кэша строк (-1 - без кэша). */
+    private final int cacheIndex;
+    /** Попадания и промахи кэша строк. */
+    private int hits, misses;
+
+    /** Сеанс приёмника для фиксации порций (null - без порций). */
+    private final ReplicationSink.Session con;
+    /** Обработчик фиксации порции (может быть null). */
+    private final Runnable onChunk;
+    /** Точка сохранения начала текущей порции (null - порция не начата). */
+    private Savepoint savepoint;
+    /** Строки текущей порции (слоты переиспользуются между порциями). */
+    private final ArrayList<RowSlot> chunk = new ArrayList<>();
+    private int chunkRows;
+    /** Счётчики и время на начало текущей порции. */
+    private int chunkIndex, chunkUpd;
+    private long chunkStart;
+    /** Признак начала записи в транзакции приёмника (без порций). */
+    private boolean isLocked;
+
+    TableWriter(TabInfo tab, RowSink imp) throws SQLException {
+        this(tab, imp, null, -1, null, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param con     Сеанс приёмника для фиксации порциями (null - без порций, вся запись в транзакции вызывающего).
+     * @param part    Номер части таблицы (-1 - таблица целиком).
+     * @param abort   Признак прерывания для частей таблицы (может быть null).
+     * @param onChunk Обработчик после фиксации каждой порции (может быть null).
+     */
+    TableWriter(TabInfo tab, RowSink imp, ReplicationSink.Session con, int part, AtomicReference<Throwable> abort,
+                Runnable onChunk) throws SQLException {
+        this.tab = tab;
+        this.imp = imp;
+        this.con = tab.isChunked() ? con : null;
+        this.part = part;
+        this.abort = abort;
+        this.onChunk = onChunk;
+        this.index = 0;
+        this.upd = 0;
+        this.progress = progressStep;
+        // Ключ отслеживается только для таблицы целиком (у частей свои диапазоны ключей).
+        if (tab.keyColumn != null && part < 0) {
+            keyIndex = imp.plan().indexOfLong(tab.keyColumn);
+            if (keyIndex < 0) throw new SQLException(String.format(
+                    "Поле ключа %s не найдено в выгрузке %s или не является целым!", tab.keyColumn, tab.name));
+        } else {
+            keyIndex = -1;
+        }
+        if (tab.cache != null) {
+            cacheIndex = imp.plan().indexOfLong(tab.keyColumn);
+            if (cacheIndex < 0) throw new SQLException(String.format(
+                    "Поле ключа %s не найдено в выгрузке %s или не является целым!", tab.keyColumn, tab.name));
+        } else {
+            cacheIndex = -1;
+        }
+    }
+
+    /** Запись строки (значения копируются, слот можно переиспользовать). */
+    void write(RowSlot row) throws SQLException {
+        if (abort != null && abort.get() != null) throw new SQLException("Прервано из-за ошибки в другой части таблицы!");
+        if (keyIndex >= 0) {
+            long key = imp.plan().longValue(row, keyIndex);
+            if (tab.resumeKey != Long.MIN_VALUE && key <= tab.resumeKey) { // Уже записана до сбоя.
+                skipped++;
+                index++;
+                if (savepoint != null) chunkIndex++; // Не откатывается при повторе порции.
+                return;
+            }
+            if (key > maxKey) maxKey = key;
+        }
+        if (cacheIndex >= 0) {
+            if (isUnchanged(row)) { // Строка не изменилась с последней записи.
+                hits++;
+                index++;
+                if (savepoint != null) chunkIndex++; // Не откатывается при повторе порции.
+                return;
+            }
+            misses++;
+        }
+        if (con == null) {
+            if (!isLocked) {
+                tab.beginLock(System.currentTimeMillis());
+                isLocked = true;
+            }
+            if (add(row)) account();
+            return;
+        }
+
+        if (savepoint == null) beginChunk();
+        keep(row);
+        try {
+            if (add(row)) account();
+        } catch (SQLException ex) {
+            retryChunk(ex);
+        }
+        if ((tab.chunkSize > 0 && chunkRows >= tab.chunkSize)
+                || (tab.chunkMillis > 0 && System.currentTimeMillis() - chunkStart >= tab.chunkMillis)) {
+            commitChunk();
+        }
+    }
+
+    /** Запись остатка пакета и финальное обновление прогресса. */
+    void finish() throws SQLException {
+        try {
+            if (flush()) account();
+        } catch (SQLException ex) {
+            if (savepoint == null) throw ex;
+            retryChunk(ex);
+        }
+        publish(); // Для обновления прогресса в UI.
+        if (keyIndex >= 0) tab.updateKey(maxKey, skipped);
+        if (cacheIndex >= 0) tab.addCacheStats(hits, misses);
+    }
+
+    /**
+     * Проверка строки по кэшу: совпадение хэша образа строки с последним записанным. Изменившаяся строка запоминается в
+     * кэше (незафиксированно - до фиксации приёмника). Повтор порции пишет те же строки и кэш не откатывает.
+     */
+    private boolean isUnchanged(RowSlot row) throws SQLException {
+        TransferPlan plan = imp.plan();
+        try {
+            return tab.cache.check(plan.longValue(row, cacheIndex), plan.hash(row));
+        } catch (IOException ex) {
+            throw new SQLException("Ошибка кэша строк " + tab.name + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private void beginChunk() throws SQLException {
+        savepoint = con.savepoint();
+        chunkRows = 0;
+        chunkIndex = index;
+        chunkUpd = upd;
+        chunkStart = System.currentTimeMillis();
+        tab.beginLock(chunkStart);
+    }
+
+    /** Сохранение копии строки порции для повтора. */
+    private void keep(RowSlot row) {
+        if (chunkRows == chunk.size()) chunk.add(imp.plan().newSlot());
+        chunk.get(chunkRows++).copyFrom(row);
+    }
+
+    /** Фиксация текущей порции. */
+    private void commitChunk() throws SQLException {
+        try {
+            if (flush()) account();
+        } catch (SQLException ex) {
+            retryChunk(ex);
+        }
+        Object event = FlightEvents.RECORDER.beginCommit();
+        long t = System.nanoTime();
+        con.commit(); // Точка сохранения освобождается фиксацией.
+        tab.latency.record(Latency.Phase.COMMIT_DST, t);
+        FlightEvents.RECORDER.endCommit(event, FlightEvents.DEST, tab.name, index - chunkIndex);
+        savepoint = null;
+        tab.chunkCommitted(System.currentTimeMillis());
+        publish();
+        if (keyIndex >= 0) tab.updateKey(maxKey, skipped);
+        if (onChunk != null) onChunk.run();
+    }
+
+    /**
+     * Повтор записи порции при конфликте блокировок: откат до точки сохранения, перезапуск транзакции (фиксируется
+     * только то, что было до порции) и повторная запись сохранённых строк. Другие ошибки и ошибка после исчерпания
+     * повторов пробрасываются.
+     */
+    private void retryChunk(SQLException cause) throws SQLException {
+        for (int attempt = 1; attempt <= tab.maxRetries && FB_Connection.isLockConflict(cause); attempt++) {
+            con.rollback(savepoint);
+            imp.reset();
+            index = chunkIndex;
+            upd = chunkUpd;
+            if (part < 0) tab.updateWrited(upd);
+            try {
+                Thread.sleep(tab.backoff(attempt));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw cause;
+            }
+            con.commit(); // Новый снапшот: изменения, зафиксированные конкурентом, становятся видны.
+            savepoint = con.savepoint();
+            long now = System.currentTimeMillis();
+            tab.retried(now - chunkStart);
+            tab.endLock(now);
+            tab.beginLock(now);
+            chunkStart = now;
+            try {
+                for (int i = 0; i < chunkRows; i++) if (add(chunk.get(i))) account();
+                if (flush()) account();
+                return;
+            } catch (SQLException ex) {
+                cause = ex;
+            }
+        }
+        throw cause;
+    }
+
+    /** Передача строки в приёмник: запись пакета (строки) учитывается в задержках таблицы. */
+    private boolean add(RowSlot row) throws SQLException {
+        long t = System.nanoTime();
+        if (!imp.add(row)) return false;
+        tab.latency.record(Latency.Phase.APPLY, t);
+        return true;
+    }
+
+    private boolean flush() throws SQLException {
+        long t = System.nanoTime();
+        if (!imp.flush()) return false;
+        tab.latency.record(Latency.Phase.APPLY, t);
+        return true;
+    }
+
+    private void account() {
+        if (imp.updated() > 0) {
+            upd += imp.updated();
+            if (part < 0) tab.updateWrited(upd);
+        }
+        index += imp.applied();
+        if (index >= progress) { // Для обновления прогресса в UI.
+            publish();
+            progress = index + progressStep;
+        }
+    }
+
+    /** Публикация текущего прогресса в таблицу (часть таблицы). */
+    void publish() {
+        if (part < 0) {
+            tab.updateIndex(index);
+        } else {
+            tab.updatePart(part, index, upd);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package app.model;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * План переноса строки из результата запроса источника в параметры процедуры приёмника. Составляется один раз по
+ * метаданным обеих сторон: для каждого поля выбирается типизированная пара get/set (getInt/setInt, getLong/setLong,
+ * getDouble/setDouble, getTimestamp/setTimestamp и т.д.). Целые и вещественные значения переносятся без упаковки в
+ * объекты, метаданные при переносе строк не запрашиваются. Несовместимые или редкие типы (BLOB и т.п.) переносятся
+ * через getObject/setObject, как и раньше.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+public final class TransferPlan {
+
+    static final int K_INT = 0;
+    static final int K_LONG = 1;
+    static final int K_DOUBLE = 2;
+    static final int K_DECIMAL = 3;
+    static final int K_TIMESTAMP = 4;
+    static final int K_DATE = 5;
+    static final int K_TIME = 6;
+    static final int K_STRING = 7;
+    static final int K_BYTES = 8;
+    static final int K_OBJECT = 9;
+
+    private static final String[] KIND_NAMES = {
+            "INT", "LONG", "DOUBLE", "DECIMAL", "TIMESTAMP", "DATE", "TIME", "STRING", "BYTES", "OBJECT"};
+
+    /** Способ переноса поля. */
+    private final int[] kinds;
+    /** SQL тип параметра приёмника (для установки NULL). */
+    private final int[] nullTypes;
+    /** Имена полей источника. */
+    private final String[] names;
+
+    private TransferPlan(int[] kinds, int[] nullTypes, String[] names) {
+        this.kinds = kinds;
+        this.nullTypes = nullTypes;
+        this.names = names;
+    }
+
+    /**
+     * Составление плана.
+     *
+     * @param src Метаданные результата запроса источника.
+     * @param dst Метаданные параметров процедуры приёмника.
+     * @return План.
+     */
+    public static TransferPlan compile(ResultSetMetaData src, ParameterMetaData dst) throws SQLException {
+        return compile(compile(src), dst);
+    }
+
+    /**
+     * Составление плана только по источнику (для выгрузки без приёмника, например в спул): способы переноса - по типам
+     * полей источника.
+     *
+     * @param src Метаданные результата запроса источника.
+     * @return План источника.
+     */
+    public static TransferPlan compile(ResultSetMetaData src) throws SQLException {
+        int n = src.getColumnCount();
+        int[] kinds = new int[n];
+        int[] nullTypes = new int[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = src.getColumnLabel(i + 1).toUpperCase();
+            kinds[i] = kindOf(src.getColumnType(i + 1), src.getScale(i + 1));
+            nullTypes[i] = src.getColumnType(i + 1);
+        }
+        return new TransferPlan(kinds, nullTypes, names);
+    }
+
+    /**
+     * Составление плана переноса в приёмник по плану источника.
+     *
+     * @param src План источника.
+     * @param dst Метаданные параметров процедуры приёмника.
+     * @return План.
+     */
+    public static TransferPlan compile(TransferPlan src, ParameterMetaData dst) throws SQLException {
+        int n = src.columns();
+        if (dst.getParameterCount() < n) {
+            throw new SQLException(String.format("Кол-во параметров приёмника (%d) меньше кол-ва полей источника (%d)!",
+                    dst.getParameterCount(), n));
+        }
+        int[] kinds = new int[n];
+        int[] nullTypes = new int[n];
+        for (int i = 0; i < n; i++) {
+            int ks = src.kinds[i];
+            int kd = kindOf(dst.getParameterType(i + 1), dst.getScale(i + 1));
+            if (ks == kd) {
+                kinds[i] = ks;
+            } else if ((ks == K_INT || ks == K_LONG) && (kd == K_INT || kd == K_LONG)) {
+                kinds[i] = K_LONG; // Целые разной разрядности.
+            } else {
+                kinds[i] = K_OBJECT;
+            }
+            nullTypes[i] = dst.getParameterType(i + 1);
+        }
+        return new TransferPlan(kinds, nullTypes, src.names);
+    }
+
+    /** План источника по сохранённым способам переноса и именам полей (для чтения спула). */
+    static TransferPlan of(int[] kinds, String[] names) {
+        int[] nullTypes = new int[kinds.length];
+        Arrays.fill(nullTypes, Types.OTHER);
+        return new TransferPlan(kinds.clone(), nullTypes, names.clone());
+    }
+
+    private static int kindOf(int sqlType, int scale) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return K_INT;
+            case Types.BIGINT:
+                return K_LONG;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return scale == 0 ? K_LONG : K_DECIMAL; // Без дробной части - целое (хранится в ФБ как BIGINT).
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return K_DOUBLE;
+            case Types.TIMESTAMP:
+                return K_TIMESTAMP;
+            case Types.DATE:
+                return K_DATE;
+            case Types.TIME:
+                return K_TIME;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return K_STRING;
+            case Types.BINARY:
+            case Types.VARBINARY:
+                return K_BYTES;
+            default:
+                return K_OBJECT;
+        }
+    }
+
+    public int columns() {
+        return kinds.length;
+    }
+
+    /** Способ переноса поля. */
+    int kind(int i) {
+        return kinds[i];
+    }
+
+    /** Имя поля источника. */
+    String name(int i) {
+        return names[i];
+    }
+
+    /**
+     * Индекс целочисленного поля (для ключей).
+     *
+     * @return Индекс или -1, если поля нет или оно не целое.
+     */
+    public int indexOfLong(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return kinds[i] == K_INT || kinds[i] == K_LONG ? i : -1;
+        }
+        return -1;
+    }
+
+    /** Значение целого поля (для NULL - Long.MIN_VALUE). */
+    public long longValue(RowSlot slot, int i) {
+        return slot.nulls[i] ? Long.MIN_VALUE : slot.longs[i];
+    }
+
+    /** Создание слота строки для этого плана. */
+    public RowSlot newSlot() {
+        return new RowSlot(kinds.length);
+    }
+
+    /**
+     * Чтение текущей строки результата в слот (переход к строке - rs.next() - делает вызывающий).
+     */
+    public void read(ResultSet rs, RowSlot slot) throws SQLException {
+        final long[] longs = slot.longs;
+        final Object[] refs = slot.refs;
+        final boolean[] nulls = slot.nulls;
+        for (int i = 0, c = 1; i < kinds.length; i++, c++) {
+            switch (kinds[i]) {
+                case K_INT:
+                    longs[i] = rs.getInt(c);
+                    nulls[i] = rs.wasNull();
+                    break;
+                case K_LONG:
+                    longs[i] = rs.getLong(c);
+                    nulls[i] = rs.wasNull();
+                    break;
+                case K_DOUBLE:
+                    longs[i] = Double.doubleToRawLongBits(rs.getDouble(c));
+                    nulls[i] = rs.wasNull();
+                    break;
+                case K_DECIMAL:
+                    refs[i] = rs.getBigDecimal(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                case K_TIMESTAMP:
+                    refs[i] = rs.getTimestamp(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                case K_DATE:
+                    refs[i] = rs.getDate(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                case K_TIME:
+                    refs[i] = rs.getTime(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                case K_STRING:
+                    refs[i] = rs.getString(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                case K_BYTES:
+                    refs[i] = rs.getBytes(c);
+                    nulls[i] = refs[i] == null;
+                    break;
+                default:
+                    refs[i] = rs.getObject(c);
+                    nulls[i] = refs[i] == null;
+            }
+        }
+    }
+
+    /**
+     * Приведение строки, прочитанной по плану источника, к этому плану (составленному по плану источника): числовые
+     * значения полей, передаваемых объектом, упаковываются.
+     */
+    void adapt(TransferPlan src, RowSlot slot) {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] != K_OBJECT || slot.nulls[i]) continue;
+            switch (src.kinds[i]) {
+                case K_INT:
+                    slot.refs[i] = (int) slot.longs[i];
+                    break;
+                case K_LONG:
+                    slot.refs[i] = slot.longs[i];
+                    break;
+                case K_DOUBLE:
+                    slot.refs[i] = Double.longBitsToDouble(slot.longs[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Установка параметров выражения из слота.
+     *
+     * @param ps     Выражение.
+     * @param offset Смещение (кол-во параметров перед строкой, для пакета - номер строки * кол-во полей).
+     * @param slot   Строка.
+     */
+    public void bind(PreparedStatement ps, int offset, RowSlot slot) throws SQLException {
+        final long[] longs = slot.longs;
+        final Object[] refs = slot.refs;
+        final boolean[] nulls = slot.nulls;
+        for (int i = 0, c = offset + 1; i < kinds.length; i++, c++) {
+            if (nulls[i]) {
+                ps.setNull(c, nullTypes[i]);
+                continue;
+            }
+            switch (kinds[i]) {
+                case K_INT:
+                    ps.setInt(c, (int) longs[i]);
+                    break;
+                case K_LONG:
+                    ps.setLong(c, longs[i]);
+                    break;
+                case K_DOUBLE:
+                    ps.setDouble(c, Double.longBitsToDouble(longs[i]));
+                    break;
+                case K_DECIMAL:
+                    ps.setBigDecimal(c, (java.math.BigDecimal) refs[i]);
+                    break;
+                case K_TIMESTAMP:
+                    ps.setTimestamp(c, (java.sql.Timestamp) refs[i]);
+                    break;
+                case K_DATE:
+                    ps.setDate(c, (java.sql.Date) refs[i]);
+                    break;
+                case K_TIME:
+                    ps.setTime(c, (java.sql.Time) refs[i]);
+                    break;
+                case K_STRING:
+                    ps.setString(c, (String) refs[i]);
+                    break;
+                case K_BYTES:
+                    ps.setBytes(c, (byte[]) refs[i]);
+                    break;
+                default:
+                    ps.setObject(c, refs[i]);
+            }
+        }
+    }
+
+    /**
+     * 64-битный хэш образа строки (для кэша изменений). Числовые поля хэшируются по значению без упаковки, строки и
+     * массивы - по содержимому, даты - по времени. Для редких типов (OBJECT) - по hashCode() значения.
+     *
+     * @return Хэш (не 0).
+     */
+    public long hash(RowSlot slot) {
+        long h = 0x9E3779B97F4A7C15L ^ kinds.length;
+        for (int i = 0; i < kinds.length; i++) {
+            long v;
+            if (slot.nulls[i]) {
+                v = 0x6A09E667F3BCC909L;
+            } else {
+                Object ref = slot.refs[i];
+                switch (kinds[i]) {
+                    case K_INT:
+                    case K_LONG:
+                    case K_DOUBLE:
+                        v = slot.longs[i];
+                        break;
+                    case K_DECIMAL:
+                        java.math.BigDecimal d = (java.math.BigDecimal) ref;
+                        v = d.unscaledValue().bitLength() < 64
+                                ? d.unscaledValue().longValue() * 31 + d.scale() : hashBytes(d.toString().getBytes());
+                        break;
+                    case K_TIMESTAMP:
+                        v = ((java.sql.Timestamp) ref).getTime() * 1000000L + ((java.sql.Timestamp) ref).getNanos();
+                        break;
+                    case K_DATE:
+                    case K_TIME:
+                        v = ((java.util.Date) ref).getTime();
+                        break;
+                    case K_STRING:
+                        v = hashChars((String) ref);
+                        break;
+                    case K_BYTES:
+                        v = hashBytes((byte[]) ref);
+                        break;
+                    default:
+                        v = ref instanceof byte[] ? hashBytes((byte[]) ref) : ref.hashCode();
+                }
+            }
+            h = mix(h ^ (v + i));
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private static long mix(long k) {
+        k *= 0xC2B2AE3D27D4EB4FL;
+        k ^= k >>> 31;
+        k *= 0x9E3779B97F4A7C15L;
+        return k ^ (k >>> 29);
+    }
+
+    private static long hashChars(String s) {
+        long h = 0xCBF29CE484222325L; // FNV-1a.
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        return h;
+    }
+
+    private static long hashBytes(byte[] b) {
+        long h = 0xCBF29CE484222325L;
+        for (byte x : b) h = (h ^ (x & 0xFF)) * 0x100000001B3L;
+        return h;
+    }
+
+    /** Значение поля в виде объекта (для диагностики, с упаковкой). */
+    public Object value(RowSlot slot, int i) {
+        if (slot.nulls[i]) return null;
+        switch (kinds[i]) {
+            case K_INT:
+                return (int) slot.longs[i];
+            case K_LONG:
+                return slot.longs[i];
+            case K_DOUBLE:
+                return Double.longBitsToDouble(slot.longs[i]);
+            default:
+                return slot.refs[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < kinds.length; i++) sb.append(i == 0 ? "" : ",").append(KIND_NAMES[kinds[i]]);
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,39 @@
+package app.model;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Группа дополнительных сеансов, открытых в ходе репликации (например, для параллельных частей таблицы). Фиксация
+ * выполняется вместе с основными сеансами в том же порядке: сначала все приёмники, затем все источники. При закрытии
+ * незафиксированные транзакции откатываются, сеансы закрываются.
+ *
+ * @author Aleksey Dokshin <dant.it@gmail.com> (28.11.17).
+ */
+class TxGroup implements AutoCloseable {
+
+    private final ArrayList<ReplicationSource.Session> src = new ArrayList<>();
+    private final ArrayList<ReplicationSink.Session> dst = new ArrayList<>();
+
+    synchronized void add(ReplicationSource.Session conSrc, ReplicationSink.Session conDst) {
+        if (conSrc != null) src.add(conSrc);
+        if (conDst != null) dst.add(conDst);
+    }
+
+    synchronized void commitDst() throws SQLException {
+        for (ReplicationSink.Session con : dst) con.commit();
+    }
+
+    synchronized void commitSrc() throws SQLException {
+        for (ReplicationSource.Session con : src) con.commit();
+    }
+
+    /** Закрытие всех сеансов (с откатом незафиксированного). */
+    @Override
+    public synchronized void close() {
+        for (ReplicationSink.Session con : dst) con.close();
+        for (ReplicationSource.Session con : src) con.close();
+        dst.clear();
+        src.clear();
+    }
+}
@@ -4,6 +4,7 @@
  */
 package fbdbengine;
 
+import org.firebirdsql.gds.ISCConstants;
 import org.firebirdsql.gds.TransactionParameterBuffer;
 import org.firebirdsql.jdbc.FirebirdConnection;
 
@@ -23,6 +24,7 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -42,6 +44,19 @@ public class FB_Connection implements java.sql.Connection {
      * Ссылка на реальное соединение к базе соответствующие методы которого вызываются имплементированными методами.
      */
     private final FirebirdConnection connection;
+    /** Макс. кол-во подготовленных запросов в кеше соединения. */
+    public static final int QUERY_CACHE_SIZE = 64;
+    /**
+     * Кеш подготовленных запросов по тексту запроса (LRU). Вытесняемые запросы закрываются.
+     */
+    private final LinkedHashMap<String, FB_Query> queryCache = new LinkedHashMap<String, FB_Query>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FB_Query> eldest) {
+            if (size() <= QUERY_CACHE_SIZE) return false;
+            eldest.getValue().dispose();
+            return true;
+        }
+    };
 
     /**
      * Конструктор.
@@ -56,7 +71,9 @@ public class FB_Connection implements java.sql.Connection {
             throw new RuntimeException("Base is null! It must be defined!");
         }
         this.database = base;
+        long t0 = System.nanoTime();
         connection = (FirebirdConnection) database.getDatasource().getConnection(user, password);
+        base.addConnectTime(System.nanoTime() - t0);
         connection.setAutoCommit(base.isAutoCommit());
         connection.setHoldability(base.isResultHoldable()
                 ? ResultSet.HOLD_CURSORS_OVER_COMMIT
@@ -79,6 +96,7 @@ public class FB_Connection implements java.sql.Connection {
      * @throws SQLException
      */
     public void close(boolean iscommit) throws SQLException {
+        clearQueryCache();
         if (connection != null && !connection.isClosed()) {
             if (connection.getAutoCommit() == false) {
                 if (iscommit) {
@@ -135,6 +153,35 @@ public class FB_Connection implements java.sql.Connection {
         return new FB_Query(this, sql).execute(parameters);
     }
 
+    /**
+     * Получение подготовленного запроса из кеша соединения (при отсутствии - создаётся и подготавливается). Закрытие
+     * такого запроса закрывает только результат, выражение остаётся подготовленным до вытеснения из кеша или закрытия
+     * соединения. Одновременно может использоваться только один экземпляр запроса с данным текстом!
+     *
+     * @param sql Текст запроса.
+     * @return Подготовленный запрос.
+     * @throws SQLException
+     */
+    public synchronized FB_Query queryCached(String sql) throws SQLException {
+        FB_Query q = queryCache.get(sql);
+        if (q == null) {
+            q = new FB_Query(this, sql).prepare();
+            q.setCached(true);
+            queryCache.put(sql, q);
+        }
+        return q;
+    }
+
+    /** Закрытие и удаление всех запросов из кеша соединения. */
+    public synchronized void clearQueryCache() {
+        for (FB_Query q : queryCache.values()) q.dispose();
+        queryCache.clear();
+    }
+
+    public synchronized int getQueryCacheSize() {
+        return queryCache.size();
+    }
+
     ////////////////////////////////////////////////////////////////////////
     // <editor-fold defaultstate="collapsed" desc="Имплементация методов делегированием!">
     @Override
@@ -440,7 +487,10 @@ public class FB_Connection implements java.sql.Connection {
         connection.setTransactionParameters(transactionParameterBuffer);
     }
 
-    /** Установка параметра транзакции WAIT или NO_WAIT для текущего уровня изоляции. */
+    /**
+     * Установка параметра транзакции WAIT или NO_WAIT для текущего уровня изоляции (для этого соединения, между
+     * транзакциями).
+     */
     public void setTransactionWait(boolean iswait) throws SQLException {
         int l = getTransactionIsolation();
         TransactionParameterBuffer tpb = getTransactionParameters(l);
@@ -452,6 +502,43 @@ public class FB_Connection implements java.sql.Connection {
             if (tpb.hasArgument(TransactionParameterBuffer.WAIT)) tpb.removeArgument(TransactionParameterBuffer.WAIT);
             if (!tpb.hasArgument(TransactionParameterBuffer.NOWAIT)) tpb.addArgument(TransactionParameterBuffer.NOWAIT);
         }
-        setTransactionParameters(l, tpb);
+        setTransactionParameters(tpb);
+    }
+
+    /**
+     * Установка профиля транзакций соединения (изоляция, режим доступа, ожидание блокировок). Действует со следующей
+     * транзакции, вызывается между транзакциями. Параметры задаются самому соединению: setTransactionIsolation копирует
+     * в соединение параметры уровня из общей таблицы драйвера, поэтому они заменяются после смены уровня (общая
+     * таблица не меняется и не влияет на другие соединения).
+     *
+     * @param profile     Профиль.
+     * @param lockTimeout Ожидание блокировок (сек): меньше 0 - без ограничения, 0 - без ожидания, больше 0 -
+     *                    ограниченное ожидание.
+     */
+    public void setTransactionProfile(FB_TxProfile profile, int lockTimeout) throws SQLException {
+        TransactionParameterBuffer tpb = createTransactionParameterBuffer();
+        profile.fill(tpb, lockTimeout);
+        setTransactionIsolation(profile.level);
+        setTransactionParameters(tpb);
+    }
+
+    /**
+     * Проверка исключения на конфликт блокировок (блокировка без ожидания, истечение ожидания, взаимоблокировка,
+     * конфликт обновления) - ошибка, которая может не повториться при повторе операции.
+     */
+    public static boolean isLockConflict(Throwable ex) {
+        for (Throwable e = ex; e != null; e = e.getCause()) {
+            for (SQLException se = e instanceof SQLException ? (SQLException) e : null; se != null;
+                 se = se.getNextException()) {
+                switch (se.getErrorCode()) {
+                    case ISCConstants.isc_lock_conflict:
+                    case ISCConstants.isc_lock_timeout:
+                    case ISCConstants.isc_deadlock:
+                    case ISCConstants.isc_update_conflict:
+                        return true;
+                }
+            }
+        }
+        return false;
     }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017, Aleksey Nikolaevich Dokshin. All right reserved.
+ * Contacts: dant.it@gmail.com, dokshin@list.ru.
+ */
+package fbdbengine;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Менеджер долгоживущих соединений к БД. Соединения не закрываются после использования, а возвращаются в список
+ * свободных и переиспользуются (вместе с кешем подготовленных запросов соединения). При выдаче соединение проверяется и
+ * при потере связи прозрачно заменяется новым. Свободные соединения, простаивающие дольше заданного времени,
+ * закрываются.
+ * <p>
+ * Использование: acquire() - получение соединения, release() - возврат (незафиксированные изменения откатываются).
+ *
+ * @author Докшин Алексей Николаевич <dant.it@gmail.com>
+ */
+public class FB_ConnectionManager implements Closeable {
+
+    /** Настройка нового соединения (уровень изоляции, параметры транзакции и т.п.). */
+    @FunctionalInterface
+    public interface Initializer {
+        void init(FB_Connection con) throws SQLException;
+    }
+
+    private static class Idle {
+        final FB_Connection con;
+        final long time;
+
+        Idle(FB_Connection con, long time) {
+            this.con = con;
+            this.time = time;
+        }
+    }
+
+    private final FB_Database database;
+    private final Initializer initializer;
+    /** Время простоя, после которого свободное соединение закрывается (мсек). 0 - соединения не сохраняются. */
+    private final long idleTimeout;
+    /** Таймаут проверки соединения при выдаче (сек). */
+    private final int validateTimeout;
+    /** Свободные соединения (последнее возвращённое - первым на выдачу). */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+    private Timer evictTimer;
+    /** Кол-во выдач соединения из свободных, замен потерянных соединений и закрытий по простою. */
+    private long reused, reconnects, expired;
+
+    /**
+     * Конструктор.
+     *
+     * @param database    База данных.
+     * @param initializer Настройка нового соединения (может быть null).
+     * @param idleTimeout Время простоя свободного соединения до закрытия (мсек), 0 - не сохранять соединения.
+     */
+    public FB_ConnectionManager(FB_Database database, Initializer initializer, long idleTimeout) {
+        this.database = database;
+        this.initializer = initializer;
+        this.idleTimeout = idleTimeout;
+        this.validateTimeout = 5;
+        if (idleTimeout > 0) {
+            evictTimer = new Timer("FB-idle-evict", true);
+            long period = Math.max(1000, idleTimeout / 2);
+            evictTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period);
+        }
+    }
+
+    public FB_Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Получение соединения: свободное (после проверки) или новое.
+     *
+     * @return Соединение.
+     * @throws java.sql.SQLException
+     */
+    public FB_Connection acquire() throws SQLException {
+        while (true) {
+            Idle item;
+            synchronized (this) {
+                item = idle.pollFirst();
+            }
+            if (item == null) break;
+            if (System.currentTimeMillis() - item.time > idleTimeout) {
+                synchronized (this) {
+                    expired++;
+                }
+                item.con.closeSafe(false);
+                continue;
+            }
+            if (!isValidSafe(item.con)) {
+                synchronized (this) {
+                    reconnects++;
+                }
+                item.con.closeSafe(false);
+                continue;
+            }
+            synchronized (this) {
+                reused++;
+            }
+            return item.con;
+        }
+        FB_Connection con = database.connect();
+        try {
+            if (initializer != null) initializer.init(con);
+        } catch (SQLException ex) {
+            con.closeSafe(false);
+            throw ex;
+        }
+        return con;
+    }
+
+    private boolean isValidSafe(FB_Connection con) {
+        try {
+            return !con.isClosed() && con.isValid(validateTimeout);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Возврат соединения. Незафиксированные изменения откатываются. Закрытое или неисправное соединение не сохраняется.
+     *
+     * @param con Соединение (может быть null).
+     */
+    public void release(FB_Connection con) {
+        if (con == null) return;
+        try {
+            if (idleTimeout <= 0 || con.isClosed()) {
+                con.closeSafe(false);
+                return;
+            }
+            con.rollback();
+        } catch (Exception ex) {
+            con.closeSafe(false);
+            return;
+        }
+        synchronized (this) {
+            idle.addFirst(new Idle(con, System.currentTimeMillis()));
+        }
+    }
+
+    /** Закрытие свободных соединений, простаивающих дольше заданного времени. */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        ArrayDeque<FB_Connection> list = new ArrayDeque<>();
+        synchronized (this) {
+            for (Iterator<Idle> it = idle.iterator(); it.hasNext(); ) {
+                Idle item = it.next();
+                if (now - item.time > idleTimeout) {
+                    list.add(item.con);
+                    it.remove();
+                }
+            }
+            expired += list.size();
+        }
+        for (FB_Connection con : list) con.closeSafe(false);
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized long getReusedCount() {
+        return reused;
+    }
+
+    /** Кол-во замен соединений, не прошедших проверку при выдаче (потеря связи). */
+    public synchronized long getReconnectCount() {
+        return reconnects;
+    }
+
+    /** Кол-во свободных соединений, закрытых по времени простоя. */
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+
+    /** Закрытие всех свободных соединений и остановка вытеснения. */
+    @Override
+    public void close() {
+        if (evictTimer != null) evictTimer.cancel();
+        ArrayDeque<Idle> all;
+        synchronized (this) {
+            all = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (Idle item : all) item.con.closeSafe(false);
+    }
+}
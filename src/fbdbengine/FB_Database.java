@@ -6,8 +6,11 @@ package fbdbengine;
 
 import java.io.Closeable;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 
+import org.firebirdsql.event.FBEventManager;
+import org.firebirdsql.gds.impl.GDSType;
 import org.firebirdsql.pool.FBSimpleDataSource;
 
 /**
@@ -49,6 +52,10 @@ public class FB_Database implements Closeable {
     private final boolean isResultHoldable;
     /** Автокоммит. Значение по умолчанию для создаваемых соединений. */
     private final boolean isAutoCommit;
+    /** Суммарное время и кол-во открытий соединений (нсек). */
+    private final AtomicLong connectTime = new AtomicLong(), connectCount = new AtomicLong();
+    /** Суммарное время и кол-во подготовок выражений запросов (нсек). */
+    private final AtomicLong prepareTime = new AtomicLong(), prepareCount = new AtomicLong();
 
     /**
      * Конструктор. Инициализация переменных, проверка наличия драйверов.
@@ -149,6 +156,34 @@ public class FB_Database implements Closeable {
         return (dataSource != null);
     }
 
+    void addConnectTime(long nanos) {
+        connectTime.addAndGet(nanos);
+        connectCount.incrementAndGet();
+    }
+
+    void addPrepareTime(long nanos) {
+        prepareTime.addAndGet(nanos);
+        prepareCount.incrementAndGet();
+    }
+
+    /** Суммарное время открытия соединений (нсек). */
+    public long getConnectTime() {
+        return connectTime.get();
+    }
+
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    /** Суммарное время подготовки выражений запросов (нсек). */
+    public long getPrepareTime() {
+        return prepareTime.get();
+    }
+
+    public long getPrepareCount() {
+        return prepareCount.get();
+    }
+
     /**
      * Получение соединения к базе.
      *
@@ -169,6 +204,41 @@ public class FB_Database implements Closeable {
         return con != null ? con : connect();
     }
 
+    /**
+     * Создание менеджера событий БД (POST_EVENT) для этой базы. Местоположение базы разбирается из URL вида
+     * хост[/порт]:путь (для встроенного движка - только путь). Соединение менеджера не открывается.
+     *
+     * @return Менеджер событий.
+     */
+    public FBEventManager createEventManager() {
+        FBEventManager em;
+        if (engineType == EngineType.EMBEDDED) {
+            em = new FBEventManager(GDSType.getType("EMBEDDED"));
+            em.setDatabase(url);
+        } else {
+            em = new FBEventManager();
+            String host = "localhost", path = url;
+            int port = 3050;
+            int i = url.indexOf(':');
+            // Для "C:\path" (буква диска) хост не указан.
+            if (i > 1) {
+                host = url.substring(0, i);
+                path = url.substring(i + 1);
+                int k = host.indexOf('/');
+                if (k >= 0) {
+                    port = Integer.parseInt(host.substring(k + 1).trim());
+                    host = host.substring(0, k);
+                }
+            }
+            em.setHost(host);
+            em.setPort(port);
+            em.setDatabase(path);
+        }
+        em.setUser(user);
+        em.setPassword(password);
+        return em;
+    }
+
     // Создание запросов.
     public FB_Query query() throws SQLException {
         return new FB_Query(this, null);
@@ -63,6 +63,8 @@ public class FB_Query implements Closeable {
     //       false - результаты уничтожаются после commit.
     // в случае true при выполнении запроса происходит полный фетч в кеш (!)
     private boolean isResultHold;
+    /** Запрос из кеша соединения: при закрытии закрывается только результат, выражение остаётся подготовленным. */
+    private boolean isCached;
 
     /**
      * Служебный комбинированный корструктор запроса. Если указано внешнее соединения, то используется оно. В противном
@@ -103,6 +105,7 @@ public class FB_Query implements Closeable {
         this.paramIndex = 0;
         this.resultType = ResultSet.TYPE_FORWARD_ONLY;
         this.resultConcur = ResultSet.CONCUR_READ_ONLY;
+        this.isCached = false;
     }
 
     FB_Query(FB_Database base, String sql) throws SQLException {
@@ -201,12 +204,28 @@ public class FB_Query implements Closeable {
      */
     public synchronized FB_Query prepare() throws SQLException {
         if (!isPrepared) {
+            long t0 = System.nanoTime();
             ps = getConnection().prepareStatement(sql, resultType, resultConcur);
+            base.addPrepareTime(System.nanoTime() - t0);
             isPrepared = true;
         }
         return this;
     }
 
+    /**
+     * Установка размера выборки строк результата за одно обращение к серверу. Если запрос не подготовлен -
+     * подготавливается.
+     *
+     * @param rows Кол-во строк (0 - по умолчанию драйвера).
+     * @return Указатель на запрос.
+     * @throws java.sql.SQLException
+     */
+    public synchronized FB_Query setFetchSize(int rows) throws SQLException {
+        prepare();
+        ps.setFetchSize(rows);
+        return this;
+    }
+
     /**
      * Проверка значения и при необходимости конвертация в тип верный для передачи в качестве входного параметра
      * выражению запроса к БД. В текущий момент это корверсия дат: java.util.Date -> java.sql.Date.
@@ -423,6 +442,13 @@ public class FB_Query implements Closeable {
         if (rs != null && !rs.isClosed()) {
             rs.close();
         }
+        if (isCached) { // Выражение остаётся в кеше соединения для повторного использования.
+            rs = null;
+            upd = -1;
+            isExecuted = false;
+            paramIndex = 0;
+            return;
+        }
         if (ps != null && !ps.isClosed()) {
             ps.close();
         }
@@ -461,6 +487,17 @@ public class FB_Query implements Closeable {
         return this;
     }
 
+    /** Пометка запроса как кешируемого (только для FB_Connection). */
+    void setCached(boolean iscached) {
+        isCached = iscached;
+    }
+
+    /** Закрытие запроса из кеша при вытеснении или закрытии соединения (только для FB_Connection). */
+    void dispose() {
+        isCached = false;
+        closeSafe();
+    }
+
     public static FB_Query closeSafe(FB_Query q) {
         if (q != null) {
             q.closeSafe();
@@ -659,6 +696,60 @@ public class FB_Query implements Closeable {
         return sb.toString();
     }
 
+    /**
+     * Возвращает объявление SQL-типа (для параметров и переменных EXECUTE BLOCK) по JDBC-типу. Длина строковых типов
+     * ограничивается максимально допустимой для VARCHAR в UTF8.
+     *
+     * @param sqlType   JDBC-тип (java.sql.Types).
+     * @param precision Точность (для строк - длина).
+     * @param scale     Масштаб (для чисел с фиксированной точкой).
+     * @return Объявление типа.
+     * @throws java.sql.SQLException Если тип не поддерживается.
+     */
+    public static String buildTypeSQL(int sqlType, int precision, int scale) throws SQLException {
+        int len = Math.max(1, Math.min(precision, 8191));
+        switch (sqlType) {
+            case java.sql.Types.SMALLINT:
+                return "SMALLINT";
+            case java.sql.Types.INTEGER:
+                return "INTEGER";
+            case java.sql.Types.BIGINT:
+                return "BIGINT";
+            case java.sql.Types.NUMERIC:
+            case java.sql.Types.DECIMAL:
+                return "NUMERIC(" + (precision <= 0 || precision > 18 ? 18 : precision) + "," + Math.max(0, scale) + ")";
+            case java.sql.Types.FLOAT:
+            case java.sql.Types.REAL:
+                return "FLOAT";
+            case java.sql.Types.DOUBLE:
+                return "DOUBLE PRECISION";
+            case java.sql.Types.DATE:
+                return "DATE";
+            case java.sql.Types.TIME:
+                return "TIME";
+            case java.sql.Types.TIMESTAMP:
+                return "TIMESTAMP";
+            case java.sql.Types.BOOLEAN:
+                return "BOOLEAN";
+            case java.sql.Types.CHAR:
+                return "CHAR(" + len + ")";
+            case java.sql.Types.VARCHAR:
+                return "VARCHAR(" + len + ")";
+            case java.sql.Types.BINARY:
+                return "CHAR(" + len + ") CHARACTER SET OCTETS";
+            case java.sql.Types.VARBINARY:
+                return "VARCHAR(" + len + ") CHARACTER SET OCTETS";
+            case java.sql.Types.LONGVARCHAR:
+            case java.sql.Types.CLOB:
+                return "BLOB SUB_TYPE TEXT";
+            case java.sql.Types.LONGVARBINARY:
+            case java.sql.Types.BLOB:
+                return "BLOB SUB_TYPE 0";
+            default:
+                throw new SQLException("Неподдерживаемый тип параметра: " + sqlType);
+        }
+    }
+
     /** Возвращает указанный список полей (разделены запятыми), дополненных указанным префиксом. */
     public static String buildPrefixedFieldsSQL(String prefix, String fields) {
         String[] sp = fields.split("[^\\ _a-zA-Z]");
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017, Aleksey Nikolaevich Dokshin. All right reserved.
+ * Contacts: dant.it@gmail.com, dokshin@list.ru.
+ */
+package fbdbengine;
+
+import org.firebirdsql.gds.TransactionParameterBuffer;
+
+import java.sql.Connection;
+
+/**
+ * Профили транзакций ФБ (уровень изоляции и режим доступа).
+ * <pre>
+ * CONCURRENCY       - снапшот, чтение/запись. Снапшот удерживает сборку мусора в БД, пока транзакция активна.
+ * CONCURRENCY_RO    - снапшот, только чтение.
+ * READ_COMMITTED    - видимость подтверждённых данных (REC_VERSION), чтение/запись. Снапшот не удерживается.
+ * READ_COMMITTED_RO - видимость подтверждённых данных, только чтение. Не удерживает сборку мусора совсем (ФБ
+ *                     фиксирует такую транзакцию при старте).
+ * </pre>
+ *
+ * @author Докшин Алексей Николаевич <dant.it@gmail.com>
+ */
+public enum FB_TxProfile {
+
+    CONCURRENCY(Connection.TRANSACTION_REPEATABLE_READ, false),
+    CONCURRENCY_RO(Connection.TRANSACTION_REPEATABLE_READ, true),
+    READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED, false),
+    READ_COMMITTED_RO(Connection.TRANSACTION_READ_COMMITTED, true);
+
+    /** Уровень изоляции JDBC. */
+    public final int level;
+    /** Только чтение. */
+    public final boolean isReadOnly;
+
+    FB_TxProfile(int level, boolean isReadOnly) {
+        this.level = level;
+        this.isReadOnly = isReadOnly;
+    }
+
+    /**
+     * Заполнение параметров транзакции.
+     *
+     * @param tpb         Пустой буфер параметров.
+     * @param lockTimeout Ожидание блокировок (сек): меньше 0 - без ограничения, 0 - без ожидания, больше 0 -
+     *                    ограниченное ожидание.
+     */
+    void fill(TransactionParameterBuffer tpb, int lockTimeout) {
+        if (level == Connection.TRANSACTION_READ_COMMITTED) {
+            tpb.addArgument(TransactionParameterBuffer.READ_COMMITTED);
+            tpb.addArgument(TransactionParameterBuffer.REC_VERSION);
+        } else {
+            tpb.addArgument(TransactionParameterBuffer.CONCURRENCY);
+        }
+        tpb.addArgument(isReadOnly ? TransactionParameterBuffer.READ : TransactionParameterBuffer.WRITE);
+        tpb.addArgument(lockTimeout == 0 ? TransactionParameterBuffer.NOWAIT : TransactionParameterBuffer.WAIT);
+        if (lockTimeout > 0) tpb.addArgument(TransactionParameterBuffer.LOCK_TIMEOUT, lockTimeout);
+    }
+}
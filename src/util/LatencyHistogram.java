@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017, Aleksey Nikolaevich Dokshin. All right reserved.
+ * Contacts: dant.it@gmail.com, dokshin@list.ru.
+ */
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек фиксированного размера (по принципу HDR Histogram): значения от 0 до MAX_VALUE раскладываются по
+ * корзинам с логарифмическим шагом - каждая степень двойки делится на SUB_COUNT равных корзин, поэтому относительная
+ * погрешность перцентилей не больше 1/SUB_COUNT при любом порядке величин. Память - один массив счётчиков (BUCKETS
+ * элементов), запись - атомарное увеличение счётчика без блокировок, из любого кол-ва потоков.
+ * <p>
+ * Чтение - по снимку счётчиков (snapshot), интервальные значения - разностью двух снимков (delta). Снимок, снятый во
+ * время записи, может не учитывать последние значения, но не бывает несогласованным по корзинам.
+ *
+ * @author Докшин Алексей Николаевич <dant.it@gmail.com>
+ */
+public class LatencyHistogram {
+
+    /** Кол-во корзин на степень двойки, значения меньше SUB_COUNT хранятся точно. */
+    private static final int SUB_BITS = 4, SUB_COUNT = 1 << SUB_BITS;
+    /** Наибольшая учитываемая степень двойки (большие значения учитываются как MAX_VALUE). */
+    private static final int MAX_EXP = 36;
+    public static final long MAX_VALUE = (1L << (MAX_EXP + 1)) - 1;
+    /** Кол-во корзин. */
+    public static final int BUCKETS = ((MAX_EXP - SUB_BITS + 2) << SUB_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Учёт значения (отрицательные учитываются как 0). */
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(value));
+    }
+
+    /** Номер корзины значения. */
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) return value < 0 ? 0 : (int) value;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exp - SUB_BITS)) - SUB_COUNT);
+    }
+
+    /** Наибольшее значение корзины. */
+    static long valueOf(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long lower = (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /** Снимок счётчиков корзин. */
+    public long[] snapshot() {
+        long[] r = new long[BUCKETS];
+        for (int i = 0; i < r.length; i++) r[i] = counts.get(i);
+        return r;
+    }
+
+    /** Кол-во значений. */
+    public long count() {
+        return count(snapshot());
+    }
+
+    /** Перцентиль (q от 0 до 1) по всем значениям, 0 - нет значений. */
+    public long percentile(double q) {
+        return percentile(snapshot(), q);
+    }
+
+    /** Разность снимков (значения между снимками prev и cur). */
+    public static long[] delta(long[] cur, long[] prev) {
+        long[] r = new long[cur.length];
+        for (int i = 0; i < r.length; i++) r[i] = cur[i] - prev[i];
+        return r;
+    }
+
+    /** Кол-во значений снимка. */
+    public static long count(long[] snapshot) {
+        long n = 0;
+        for (long c : snapshot) n += c;
+        return n;
+    }
+
+    /**
+     * Перцентиль снимка: значение, не больше которого доля q значений (с точностью корзины).
+     *
+     * @param q Доля от 0 до 1 (0.5 - медиана, 0.99, 0.999).
+     * @return Значение или 0, если значений нет.
+     */
+    public static long percentile(long[] snapshot, double q) {
+        long n = count(snapshot);
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(q * n));
+        long sum = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            sum += snapshot[i];
+            if (sum >= target) return valueOf(i);
+        }
+        return MAX_VALUE;
+    }
+}
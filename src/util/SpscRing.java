@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017, Aleksey Nikolaevich Dokshin. All right reserved.
+ * Contacts: dant.it@gmail.com, dokshin@list.ru.
+ */
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный кольцевой буфер для одного производителя и одного потребителя (SPSC). Слоты создаются заранее и
+ * переиспользуются: производитель получает свободный слот (claim), заполняет его и публикует (publish), потребитель
+ * получает заполненный слот (take), обрабатывает и освобождает (release). Так обмен идёт без выделения памяти и без
+ * блокировок - только через упорядоченную запись счётчиков.
+ * <p>
+ * Завершение: производитель вызывает close() после последнего слота, потребитель получает null. Ошибка любой стороны
+ * передаётся через abort() - ожидающая сторона получает исходное исключение.
+ *
+ * @author Докшин Алексей Николаевич <dant.it@gmail.com>
+ */
+public class SpscRing<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    /** Номер следующего слота для чтения (меняет только потребитель). */
+    private final AtomicLong head = new AtomicLong();
+    /** Номер следующего слота для записи (меняет только производитель). */
+    private final AtomicLong tail = new AtomicLong();
+    /** Производитель завершил работу. */
+    private volatile boolean isClosed = false;
+    /** Если не null - работа прервана с ошибкой. */
+    private volatile Throwable error = null;
+    /** Ожидающие стороны (для пробуждения). */
+    private volatile Thread producerWaiter, consumerWaiter;
+
+    /**
+     * Конструктор.
+     *
+     * @param capacity Ёмкость (округляется вверх до степени двойки).
+     * @param factory  Фабрика слотов.
+     */
+    public SpscRing(int capacity, Supplier<T> factory) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new Object[size];
+        for (int i = 0; i < size; i++) slots[i] = factory.get();
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** Текущее кол-во заполненных слотов (оценка для статистики). */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Получение свободного слота для заполнения (производитель). Ждёт, пока потребитель не освободит место.
+     *
+     * @return Слот.
+     * @throws Exception При прерывании работы - исключение, переданное в abort().
+     */
+    @SuppressWarnings("unchecked")
+    public T claim() throws Exception {
+        long t = tail.get();
+        for (int spins = 0; t - head.get() >= slots.length; spins++) {
+            checkError();
+            if (spins < 64) {
+                Thread.yield();
+            } else {
+                producerWaiter = Thread.currentThread();
+                if (t - head.get() >= slots.length && error == null) LockSupport.parkNanos(this, 1000000L);
+                producerWaiter = null;
+            }
+        }
+        checkError();
+        return (T) slots[(int) t & mask];
+    }
+
+    /** Публикация заполненного слота (производитель). */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+        Thread w = consumerWaiter;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    /** Завершение работы производителя: после выборки всех слотов потребитель получит null. */
+    public void close() {
+        isClosed = true;
+        Thread w = consumerWaiter;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    /**
+     * Получение заполненного слота (потребитель). Ждёт, пока производитель не опубликует слот.
+     *
+     * @return Слот или null, если производитель завершил работу и все слоты выбраны.
+     * @throws Exception При прерывании работы - исключение, переданное в abort().
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws Exception {
+        long h = head.get();
+        for (int spins = 0; h == tail.get(); spins++) {
+            checkError();
+            if (isClosed) {
+                if (h == tail.get()) return null;
+                break;
+            }
+            if (spins < 64) {
+                Thread.yield();
+            } else {
+                consumerWaiter = Thread.currentThread();
+                if (h == tail.get() && !isClosed && error == null) LockSupport.parkNanos(this, 1000000L);
+                consumerWaiter = null;
+            }
+        }
+        checkError();
+        return (T) slots[(int) h & mask];
+    }
+
+    /** Освобождение обработанного слота (потребитель). */
+    public void release() {
+        head.lazySet(head.get() + 1);
+        Thread w = producerWaiter;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    /**
+     * Прерывание работы с ошибкой. Ожидающая (и последующие обращения) сторона получит это исключение. Фиксируется
+     * только первая ошибка.
+     */
+    public void abort(Throwable ex) {
+        if (error == null) error = ex;
+        Thread w = producerWaiter;
+        if (w != null) LockSupport.unpark(w);
+        w = consumerWaiter;
+        if (w != null) LockSupport.unpark(w);
+    }
+
+    public boolean isAborted() {
+        return error != null;
+    }
+
+    private void checkError() throws Exception {
+        Throwable ex = error;
+        if (ex == null) return;
+        if (ex instanceof Exception) throw (Exception) ex;
+        if (ex instanceof Error) throw (Error) ex;
+        throw new RuntimeException(ex);
+    }
+}